@@ -19,6 +19,9 @@ import Utility.DataUtils;
  * inherited from the AbstractRecord class. This class is to provided a fixed set of 
  * attribute related to Patient we want to managed by the hospital.
  * 
+ * The patient's attributes are not copied into each record: all records of a patient refer to the same
+ * interned header (see PatientHeader.java).
+ * 
  * @author Ichiru Take
  * @version 0.0.1
  * 
@@ -28,17 +31,17 @@ import Utility.DataUtils;
 
 public class BaseRecord extends AbstractRecord {
     // ---------------------------------------------------------------------------------------------------------------------
-    private String Pt_ID;                               // Patient's Data
-	private String Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender; 			// Syncronized information only from patients
+    private final PatientHeader header;                 // Syncronized information only from patients (shared)
+
+    public BaseRecord(PatientHeader header, boolean writable) {
+        super(writable);
+        DataUtils.CheckArgumentCondition(header != null, "The patient header cannot be null.");
+        this.header = header;
+    }
 
     public BaseRecord(String Patient_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, 
                       String Pt_Gender, boolean writable) {
-        super(writable);
-        this.Pt_ID = Patient_ID;
-        this.Pt_FirstName = Pt_FirstName;
-        this.Pt_LastName = Pt_LastName;
-        this.Pt_Age = Pt_Age;
-        this.Pt_Gender = Pt_Gender;
+        this(PatientHeader.Intern(Patient_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender), writable);
     }
     
     public BaseRecord(String Patient_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, String Pt_Gender) {
@@ -47,28 +50,25 @@ public class BaseRecord extends AbstractRecord {
 
     // ---------------------------------------------------------------------------------------------------------------------
     // Getter and Setter
-    public String GetPtID() { return this.Pt_ID; }
-	public String GetPtFirstName() { return this.Pt_FirstName; }
-    public String GetPtLastName() { return this.Pt_LastName; }
-	public String GetPtAge() { return this.Pt_Age; }
-	public String GetPtGender() { return this.Pt_Gender; }
+    public PatientHeader GetPatientHeader() { return this.header; }
+    public String GetPtID() { return this.header.GetPtID(); }
+	public String GetPtFirstName() { return this.header.GetPtFirstName(); }
+    public String GetPtLastName() { return this.header.GetPtLastName(); }
+	public String GetPtAge() { return this.header.GetPtAge(); }
+	public String GetPtGender() { return this.header.GetPtGender(); }
 
     public boolean ValidateTwoNeighborRecords(BaseRecord record, boolean raiseException) throws Exception {
+        // The headers are interned, so the same patient is the same header.
+        if (this.GetPatientHeader() == record.GetPatientHeader()) { return true; }
         if (raiseException) {
             String msg = "These two records have different ";
-            DataUtils.CheckCondition(this.GetPtID() == record.GetPtID(), msg + "ID");
-            DataUtils.CheckCondition(this.GetPtFirstName() == record.GetPtFirstName(), msg + "first name");
-            DataUtils.CheckCondition(this.GetPtLastName() == record.GetPtLastName(), msg + "last name");
-            DataUtils.CheckCondition(this.GetPtAge() == record.GetPtAge(), msg + "age");
-            DataUtils.CheckCondition(this.GetPtGender() == record.GetPtGender(), msg + "gender");
-        } else {
-            if (this.GetPtID() != record.GetPtID()) { return false; }
-            if (this.GetPtFirstName() != record.GetPtFirstName()) { return false; }
-            if (this.GetPtLastName() != record.GetPtLastName()) { return false; }
-            if (this.GetPtAge() != record.GetPtAge()) { return false; }
-            if (this.GetPtGender() != record.GetPtGender()) { return false; }
+            DataUtils.CheckCondition(this.GetPtID().equals(record.GetPtID()), msg + "ID");
+            DataUtils.CheckCondition(this.GetPtFirstName().equals(record.GetPtFirstName()), msg + "first name");
+            DataUtils.CheckCondition(this.GetPtLastName().equals(record.GetPtLastName()), msg + "last name");
+            DataUtils.CheckCondition(this.GetPtAge().equals(record.GetPtAge()), msg + "age");
+            DataUtils.CheckCondition(this.GetPtGender().equals(record.GetPtGender()), msg + "gender");
         }
-        return true;
+        return false;
     }
 
     public static boolean ValidateTwoNeighborRecords(BaseRecord FromRecord, BaseRecord ToRecord, 
@@ -80,23 +80,13 @@ public class BaseRecord extends AbstractRecord {
     // Serialization & Deserialization
     public Hashtable<String, Object> Serialize() {
         Hashtable<String, Object> data = super.Serialize();
-        data.put("Pt_ID", this.GetPtID());
-        data.put("Pt_FirstName", this.GetPtFirstName());
-        data.put("Pt_LastName", this.GetPtLastName());
-        data.put("Pt_Age", this.GetPtAge());
-        data.put("Pt_Gender", this.GetPtGender());
+        this.GetPatientHeader().Serialize(data);
         return data;
     }
 
     public static BaseRecord Deserialize(Hashtable<String, Object> data) {
-        String Pt_ID = (String) data.get("Pt_ID");
-        String Pt_FirstName = (String) data.get("Pt_FirstName");
-        String Pt_LastName = (String) data.get("Pt_LastName");
-        String Pt_Age = (String) data.get("Pt_Age");
-        String Pt_Gender = (String) data.get("Pt_Gender");
         boolean writable = (boolean) data.get("writable");
-
-        BaseRecord record = new BaseRecord(Pt_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender, writable);
+        BaseRecord record = new BaseRecord(PatientHeader.Deserialize(data), writable);
         record.SetDate((String) data.get("date"));
         record.SetTime((String) data.get("time"));
         return record;
@@ -2,6 +2,7 @@ package BaseClass;
 
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 
 import Person.Person;
@@ -41,6 +42,8 @@ public class BaseRoomContainer extends AbstractObject {
     
     private Hashtable<String, Object> LocalPool;
     private int MaxCapacity;
+    private volatile boolean Dirty = false;         // True if the pool is changed since the last save
+    private volatile long AppliedSequence = 0;      // The last journaled stock movement in the pool (see ResourceConsumptionPipeline)
 
     public BaseRoomContainer(String ID, int MaxCapacity) throws Exception {
         super(ID);
@@ -57,6 +60,8 @@ public class BaseRoomContainer extends AbstractObject {
     public BaseRoomContainer(BaseRoomContainer obj) throws Exception {
         super(obj.GetID());
         this.LocalPool = obj.LocalPool;
+        this.MaxCapacity = obj.MaxCapacity;
+        this.AppliedSequence = obj.AppliedSequence;
     }
     
     // ---------------------------------------------------------------------------------------------------------------------
@@ -73,6 +78,11 @@ public class BaseRoomContainer extends AbstractObject {
 
     public boolean IsObjectAvailable(String ID) { return this.GetObject(ID) != null; }
 
+    public int GetAmount(String ID) {
+        String[] PoolObjectInfo = this.GetObject(ID);
+        return PoolObjectInfo == null ? 0 : Integer.parseInt(PoolObjectInfo[2]);
+    }
+
     protected boolean IsObjectAvailable(AbstractObject object) { return this.GetObject(object.GetID()) != null; }
 
     // ---------------------------------------------------------------------------------------------------------------------
@@ -96,11 +106,13 @@ public class BaseRoomContainer extends AbstractObject {
             if (this.IsPoolFull()) { throw new Exception("Pool is full."); }
             String[] ObjectInfo = RoomUtils.GetObjectInformation(ID, name, amount); 
             this.GetLocalPool().put(ID, ObjectInfo);
+            this.MarkDirty();
             return 1;
         }
 
         String PoolAmount = PoolObjectInfo[2];
         int NewAmount = Integer.parseInt(PoolAmount) + amount;
+        this.MarkDirty();
         if (NewAmount == 0) { 
             this.GetLocalPool().remove(ID);
             return 0;
@@ -148,7 +160,7 @@ public class BaseRoomContainer extends AbstractObject {
 
         int PoolAmount = Integer.parseInt(PoolObjectInfo[2]);
         if (this.TestObjectMode(ID, 0 - PoolAmount) == 0) {
-            this.AddOrUpdateObject(ID, "", PoolAmount);
+            this.AddOrUpdateObject(ID, "", 0 - PoolAmount);
             return true;
         }
         return false;
@@ -176,9 +188,11 @@ public class BaseRoomContainer extends AbstractObject {
             if (this.IsPoolFull()) { throw new Exception("Pool is full."); }
             String[] ObjectInfo = RoomUtils.GetPersonInformation(ID, name, phone_number); 
             this.GetLocalPool().put(ID, ObjectInfo);
+            this.MarkDirty();
             return 1;
         } else {
             this.GetLocalPool().remove(ID);
+            this.MarkDirty();
             return 0;
         }
     }
@@ -188,7 +202,9 @@ public class BaseRoomContainer extends AbstractObject {
         return this.AddOrUpdatePerson(person.GetID(), person.GetName(), person.GetPhoneNumber());
     }
 
-    public boolean AddNewPerson(String ID, String name, String phone_number) throws Exception {
+    // The test and the toggle (see AddOrUpdatePerson()) are done under the lock of the room, so two concurrent
+    // admissions (or removals) of the same person cannot toggle each other out.
+    public synchronized boolean AddNewPerson(String ID, String name, String phone_number) throws Exception {
         if (this.TestPersonMode(ID) == 1) {
             this.AddOrUpdatePerson(ID, "", phone_number);
             return true;
@@ -201,7 +217,7 @@ public class BaseRoomContainer extends AbstractObject {
         return this.AddNewPerson(person.GetID(), person.GetName(), person.GetPhoneNumber());
     }
 
-    public boolean RemovePerson(String ID) throws Exception {
+    public synchronized boolean RemovePerson(String ID) throws Exception {
         if (this.TestPersonMode(ID) == 0) {
             this.AddOrUpdatePerson(ID, "", "");
             return true;
@@ -221,7 +237,24 @@ public class BaseRoomContainer extends AbstractObject {
     public static int GetSerializationCapacity() { return BaseRoomContainer.SERIALIZATION_CAPACTITY; }
     public static float GetSerializationLoadFactor() { return BaseRoomContainer.SERIALIZATION_LOAD_FACTOR; }
     public int GetMaxCapacity() { return this.MaxCapacity; }
-    public void SetMaxCapacity(int capacity) { this.MaxCapacity = capacity; }
+    public void SetMaxCapacity(int capacity) { 
+        this.MaxCapacity = capacity; 
+        this.MarkDirty();
+    }
+
+    // The dirty flag is cleared BEFORE the pool is saved, so any change made during the saving
+    // would mark the pool dirty again instead of being lost.
+    public boolean IsDirty() { return this.Dirty; }
+    public void MarkDirty() { this.Dirty = true; }
+    public void MarkClean() { this.Dirty = false; }
+    
+    // The sequence is saved in the same file as the pool, so the saved pool tells which journaled
+    // movements it already contains, and a replay of the journal can skip them. It never goes back.
+    public long GetAppliedSequence() { return this.AppliedSequence; }
+    public void SetAppliedSequence(long sequence) {
+        this.AppliedSequence = Math.max(this.AppliedSequence, sequence);
+        this.MarkDirty();
+    }
     
     public int GetCurrentCapacity() { return this.GetLocalPool().size(); }
 
@@ -229,30 +262,57 @@ public class BaseRoomContainer extends AbstractObject {
     public boolean IsPoolHasExtraSlot() { return this.GetCurrentCapacity() < this.GetMaxCapacity(); }
     public boolean IsPoolFull() { return !this.IsPoolHasExtraSlot(); }
 
+    // ---------------------------------------------------------------------------------------------------------------------
+    // These keys are written by the Serialize() along with the pool (see AbstractObject.Serialize()).
+    public static boolean IsReservedKey(String key) {
+        return key.equals("id") || key.equals("name") || key.equals("MaxCapacity") || key.equals("AppliedSequence");
+    }
+
+    public static String[] CastToInformation(Object value) {
+        // In memory, the information is stored as String[], but after loading from the JSON file,
+        // it is a JSONArray (a List). Return null if the value is not an information.
+        if (value instanceof String[]) { return (String[]) value; }
+        if (!(value instanceof List)) { return null; }
+        
+        List<?> list = (List<?>) value;
+        String[] information = new String[list.size()];
+        for (int i = 0; i < information.length; i++) { information[i] = String.valueOf(list.get(i)); }
+        return information;
+    }
+
     // ---------------------------------------------------------------------------------------------------------------------
     public Hashtable<String, Object> Serialize() {
         Hashtable<String, Object> result = super.Serialize();
         result.put("MaxCapacity", this.GetMaxCapacity());
+        if (this.GetAppliedSequence() > 0) { result.put("AppliedSequence", this.GetAppliedSequence()); }
 
+        // The pool is shared with the cache and the pipelines, which change it under its own lock.
         Hashtable<String, Object> pool = this.GetLocalPool();
-        Iterator<Entry<String, Object>> it = pool.entrySet().iterator();
-        while (it.hasNext()) {
-            Entry<String, Object> entry = it.next();
-            result.put(entry.getKey(), entry.getValue());
+        synchronized (pool) {
+            Iterator<Entry<String, Object>> it = pool.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<String, Object> entry = it.next();
+                result.put(entry.getKey(), entry.getValue());
+            }
         }
         return result;
     }
 
     public static BaseRoomContainer Deserialize(Hashtable<String, Object> data) throws Exception {
+        // After loading from the JSON file, the "MaxCapacity" is a Long and each information is a 
+        // JSONArray, so we have to cast them back. The reserved keys are not a part of the pool.
         String id = (String) data.get("id");
-        int MaxCapacity = (int) data.get("MaxCapacity");
+        int MaxCapacity = ((Number) data.get("MaxCapacity")).intValue();
 
         BaseRoomContainer room = new BaseRoomContainer(id, MaxCapacity);
+        if (data.get("AppliedSequence") instanceof Number) { room.AppliedSequence = ((Number) data.get("AppliedSequence")).longValue(); }
         Hashtable<String, Object> pool = room.GetLocalPool();
         Iterator<Entry<String, Object>> it = data.entrySet().iterator();
         while (it.hasNext()) {
             Entry<String, Object> entry = it.next();
-            pool.put(entry.getKey(), entry.getValue());
+            if (BaseRoomContainer.IsReservedKey(entry.getKey())) { continue; }
+            String[] information = BaseRoomContainer.CastToInformation(entry.getValue());
+            if (information != null) { pool.put(entry.getKey(), information); }
         }
         return room;
     }
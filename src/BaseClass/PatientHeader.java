@@ -0,0 +1,118 @@
+package BaseClass;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the immutable header of a patient {ID, FirstName, LastName, Age, Gender}, which is
+ * shared by all records of the patient (the "MedicalRecord" and all of its "Treatment"s) instead of
+ * copying the five strings into each of them.
+ *
+ * The headers are interned: Intern() returns the same object for the same five values, so two records
+ * belong to the same patient if and only if they refer to the same header (see
+ * BaseRecord.ValidateTwoNeighborRecords()). The interned headers are weakly referenced, so a header is
+ * dropped when no record refers to it anymore.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Flyweight_pattern
+**/
+
+public final class PatientHeader {
+    private static final ConcurrentHashMap<String, WeakEntry> INTERNED = new ConcurrentHashMap<String, WeakEntry>();
+    private static final ReferenceQueue<PatientHeader> RELEASED = new ReferenceQueue<PatientHeader>();
+
+    private static class WeakEntry extends WeakReference<PatientHeader> {
+        private final String key;
+        private WeakEntry(String key, PatientHeader header) { super(header, PatientHeader.RELEASED); this.key = key; }
+    }
+
+    private final String Pt_ID;
+    private final String Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender;
+
+    private PatientHeader(String Pt_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, String Pt_Gender) {
+        this.Pt_ID = Pt_ID;
+        this.Pt_FirstName = Pt_FirstName;
+        this.Pt_LastName = Pt_LastName;
+        this.Pt_Age = Pt_Age;
+        this.Pt_Gender = Pt_Gender;
+    }
+
+    private static String GetKey(String Pt_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, String Pt_Gender) {
+        // The "\0" separator cannot be found in the values, so two different headers never share a key.
+        return Pt_ID + "\0" + Pt_FirstName + "\0" + Pt_LastName + "\0" + Pt_Age + "\0" + Pt_Gender;
+    }
+
+    /**
+     * This function returns the shared header of these values, which is created at the first call.
+     * @return (PatientHeader) The same object for the same five values.
+     */
+    public static PatientHeader Intern(String Pt_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, String Pt_Gender) {
+        PatientHeader.ExpungeReleased();
+        String key = PatientHeader.GetKey(Pt_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender);
+        while (true) {
+            WeakEntry entry = PatientHeader.INTERNED.get(key);
+            PatientHeader header = entry == null ? null : entry.get();
+            if (header != null) { return header; }
+
+            header = new PatientHeader(Pt_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender);
+            WeakEntry created = new WeakEntry(key, header);
+            boolean published = entry == null ? PatientHeader.INTERNED.putIfAbsent(key, created) == null
+                                              : PatientHeader.INTERNED.replace(key, entry, created);
+            if (published) { return header; }                                 // Otherwise, another thread won
+        }
+    }
+
+    private static void ExpungeReleased() {
+        WeakEntry entry;
+        while ((entry = (WeakEntry) PatientHeader.RELEASED.poll()) != null) { PatientHeader.INTERNED.remove(entry.key, entry); }
+    }
+
+    public static int GetNumberOfInternedHeaders() { PatientHeader.ExpungeReleased(); return PatientHeader.INTERNED.size(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getters
+    public String GetPtID() { return this.Pt_ID; }
+    public String GetPtFirstName() { return this.Pt_FirstName; }
+    public String GetPtLastName() { return this.Pt_LastName; }
+    public String GetPtAge() { return this.Pt_Age; }
+    public String GetPtGender() { return this.Pt_Gender; }
+
+    public String toString() {
+        return "PatientHeader(" + this.Pt_ID + ", " + this.Pt_FirstName + " " + this.Pt_LastName + ", " + this.Pt_Age + ", " + this.Pt_Gender + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Serialization & Deserialization
+    public void Serialize(Hashtable<String, Object> data) {
+        data.put("Pt_ID", this.GetPtID());
+        data.put("Pt_FirstName", this.GetPtFirstName());
+        data.put("Pt_LastName", this.GetPtLastName());
+        data.put("Pt_Age", this.GetPtAge());
+        data.put("Pt_Gender", this.GetPtGender());
+    }
+
+    public static boolean IsSerializedIn(Hashtable<String, Object> data) {
+        return data.get("Pt_ID") != null && data.get("Pt_FirstName") != null;
+    }
+
+    public static PatientHeader Deserialize(Hashtable<String, Object> data) {
+        if (!PatientHeader.IsSerializedIn(data)) { return null; }
+        return PatientHeader.Intern((String) data.get("Pt_ID"), (String) data.get("Pt_FirstName"), (String) data.get("Pt_LastName"),
+                                    (String) data.get("Pt_Age"), (String) data.get("Pt_Gender"));
+    }
+}
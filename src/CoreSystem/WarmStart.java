@@ -0,0 +1,269 @@
+package CoreSystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import GlobalPool.GResourcePool;
+import GlobalPool.GToolPool;
+import GlobalPool.ResourceConsumptionPipeline;
+import Person.PersonUtils;
+import Room.BedAvailability;
+import Room.MergedRoomCache;
+import Room.OccupancyTimeSeries;
+import Room.PatientTransfer;
+import Room.PersonLocationIndex;
+import Room.RoomCatalog;
+import Room.RoomHierarchyIndex;
+import Staff.MedicoTask;
+import Treatment.DescriptionSearchIndex;
+import Treatment.MedicalRecord;
+import Treatment.MedicoTreatmentIndex;
+import Treatment.TreatmentCode;
+import Treatment.TreatmentUtils;
+import Utility.DataUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the bootstrap of the whole hospital (warm start). It discovers all persisted state
+ * under "database/" and loads it with a task graph on a fork/join pool, instead of opening every
+ * room, pool and task one by one. Each phase starts as soon as all of its dependencies are done:
+ *
+ *   TreatmentCode ---------------------------> MedicoTask
+ *                 ---------------------------> MedicalRecord
+ *   RoomCatalog ---> Rooms ---> Transfers ---> Consumption ---> Indexes (PersonLocationIndex, RoomHierarchyIndex, StockAggregate, BedAvailability)
+ *   GlobalPool -------------------------------^
+ *   Occupancy (compact the completed days of the occupancy time-series, and schedule the compaction)
+ *   DescriptionIndex (open the full-text index of the treatment descriptions)
+ *   MedicoIndex (open the index of the treatments by medico, and compact its log)
+ *
+ * The independent phases run concurrently, and inside a phase the files (rooms, medico tasks) are
+ * loaded in parallel on the same pool, so the time-to-ready scales down with the number of cores.
+ * The "Rooms" phase only pre-loads as many rooms as the "MergedRoomCache" can hold (the cap is shown by
+ * Report()); the indexes are rebuilt from the files of all rooms anyway.
+ *
+ * The "MedicalRecord" phase loads the open medical records. A treatment cannot be deserialized before
+ * the treatment codes are loaded (see Treatment()), so this phase, and any later phase which loads the
+ * treatments, depends on "TreatmentCode".
+ *
+ * The "Transfers" phase rolls the journaled patient transfers forward (see PatientTransfer.Recover()),
+ * and the "Consumption" phase replays the journaled stock movements and starts the resource consumption
+ * pipeline (see ResourceConsumptionPipeline.java).
+ * A failed phase is reported and its dependents are skipped; the independent phases still run.
+ * The timing of each phase is printed by Report().
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/CompletableFuture.html
+ * 2) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ForkJoinPool.html
+**/
+
+public class WarmStart {
+    private final ForkJoinPool pool;
+    private final LinkedHashMap<String, CompletableFuture<Integer>> Phases;      // In the order of declaration
+    private final ConcurrentHashMap<String, long[]> Timings;                      // {start, end, items} in nanoseconds
+    private final ConcurrentHashMap<String, String> Notes;                         // The extra information of a phase
+    private final ConcurrentHashMap<String, MedicoTask> MedicoTasks;
+    private final ConcurrentHashMap<String, MedicalRecord> MedicalRecords;
+    private volatile GToolPool ToolPool = null;
+    private volatile GResourcePool ResourcePool = null;
+    private long StartTime = 0, EndTime = 0;
+
+    public WarmStart(int parallelism) {
+        DataUtils.CheckArgumentCondition(parallelism > 0, "The parallelism must be positive.");
+        this.pool = new ForkJoinPool(parallelism);
+        this.Phases = new LinkedHashMap<String, CompletableFuture<Integer>>();
+        this.Timings = new ConcurrentHashMap<String, long[]>();
+        this.Notes = new ConcurrentHashMap<String, String>();
+        this.MedicoTasks = new ConcurrentHashMap<String, MedicoTask>();
+        this.MedicalRecords = new ConcurrentHashMap<String, MedicalRecord>();
+    }
+
+    public WarmStart() { this(Runtime.getRuntime().availableProcessors()); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getter
+    public GToolPool GetToolPool() { return this.ToolPool; }
+    public GResourcePool GetResourcePool() { return this.ResourcePool; }
+    public ConcurrentHashMap<String, MedicoTask> GetMedicoTasks() { return this.MedicoTasks; }
+    public ConcurrentHashMap<String, MedicalRecord> GetMedicalRecords() { return this.MedicalRecords; }
+    public long GetElapsedTime() { return this.EndTime - this.StartTime; }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Task graph
+    private CompletableFuture<Integer> AddPhase(String name, Callable<Integer> task, String... dependencies) {
+        CompletableFuture<?>[] parents = new CompletableFuture<?>[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            parents[i] = this.Phases.get(dependencies[i]);
+            DataUtils.CheckArgumentCondition(parents[i] != null, "Unknown phase: " + dependencies[i]);
+        }
+
+        // If any dependency failed, the allOf() is failed and this phase is skipped (not run).
+        CompletableFuture<Integer> phase = CompletableFuture.allOf(parents).thenApplyAsync(ignored -> {
+            long start = System.nanoTime();
+            try {
+                int items = task.call();
+                this.Timings.put(name, new long[] {start, System.nanoTime(), items});
+                return items;
+            } catch (Exception e) {
+                this.Timings.put(name, new long[] {start, System.nanoTime(), -1});
+                throw new RuntimeException("The phase " + name + " failed.", e);
+            }
+        }, this.pool);
+        this.Phases.put(name, phase);
+        return phase;
+    }
+
+    private static List<File> ListFolders(String directory) {
+        File[] folders = new File(directory).listFiles(File::isDirectory);
+        return folders == null ? new ArrayList<File>() : Arrays.asList(folders);
+    }
+
+    private int LoadGlobalPools() throws Exception {
+        int count = 0;
+        if (new File(GToolPool.GetFolderDirectory() + "/" + GToolPool.GetJsonMainFilename()).exists()) {
+            this.ToolPool = GToolPool.DeserializeFromMainFile();
+            count++;
+        }
+        if (new File(GResourcePool.GetFolderDirectory() + "/" + GResourcePool.GetJsonMainFilename()).exists()) {
+            this.ResourcePool = GResourcePool.DeserializeFromMainFile();
+            count++;
+        }
+        return count;
+    }
+
+    private int LoadRooms() {
+        MergedRoomCache cache = MergedRoomCache.GetDefaultCache();
+        List<String[]> entries = RoomCatalog.GetCatalog().GetEntries();
+        List<String[]> selected = entries.subList(0, Math.min(entries.size(), cache.GetMaxRooms()));
+        this.Notes.put("Rooms", "cache cap " + cache.GetMaxRooms() + " of " + entries.size() + " cataloged room(s)");
+
+        // The phase is run on a worker of our fork/join pool, so the parallel stream is run on it too.
+        // The component files of each room are loaded on the I/O executor by MergedRoom itself.
+        return (int) selected.parallelStream().filter(entry -> {
+            try { return cache.GetRoom(entry[0]) != null; }
+            catch (Exception e) { e.printStackTrace(); return false; }
+        }).count();
+    }
+
+    private int RebuildIndexes() {
+        PersonLocationIndex.RebuildAllFromDisk();
+        GToolPool.RebuildStockAggregate();
+        GResourcePool.RebuildStockAggregate();
+        BedAvailability.GetDefaultAvailability().RebuildFromDisk();
+        return RoomHierarchyIndex.GetDefaultIndex().GetNumberOfRooms();
+    }
+
+    private int LoadMedicoTasks() {
+        // "database/MedicoTask/[MedicoID]/[Active|Storage].json"
+        List<File> folders = WarmStart.ListFolders(PersonUtils.GetMedicoTaskDirectory());
+        return (int) folders.parallelStream().mapToLong(folder -> {
+            long count = 0;
+            for (String filename : new String[] {"Active.json", "Storage.json"}) {
+                File file = new File(folder, filename);
+                if (!file.exists()) { continue; }
+                try {
+                    this.MedicoTasks.put(folder.getName() + "/" + filename, MedicoTask.DeserializeFromFile(file.getPath()));
+                    count++;
+                } catch (Exception e) { e.printStackTrace(); }
+            }
+            return count;
+        }).sum();
+    }
+
+    private int LoadMedicalRecords() {
+        // "database/PatientRecord/[FirstName-Tree]/[Patient.ID]/[MedicalRecord.ID]/[MedicalRecord.ID].json"
+        // Only the open records are kept; the treatments are loaded when they are opened (see MedicalRecord.GetTreatment()).
+        List<String> files = TreatmentUtils.FindRecordFiles(new File(PersonUtils.GetPatientRecordDirectory()), new ArrayList<String>());
+        int closed = (int) files.parallelStream().filter(file -> {
+            try {
+                MedicalRecord record = MedicalRecord.DeserializeFromFile(file);
+                if (!record.IsWritable()) { return true; }
+                this.MedicalRecords.put(record.GetMedicalRecordID(), record);
+            } catch (Exception e) { e.printStackTrace(); }
+            return false;
+        }).count();
+        this.Notes.put("MedicalRecord", closed + " closed record(s) skipped");
+        return this.MedicalRecords.size();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    /**
+     * This function runs all phases and waits until all of them are done (or failed).
+     * @return (boolean) True if all phases are succeeded.
+     */
+    public boolean Run() {
+        this.StartTime = System.nanoTime();
+        this.AddPhase("TreatmentCode", () -> { TreatmentCode.LoadPool(); return TreatmentCode.GetNumberOfCodeAvailable(); });
+        this.AddPhase("RoomCatalog", () -> RoomCatalog.Reload().GetNumberOfRooms());
+        this.AddPhase("GlobalPool", () -> this.LoadGlobalPools());
+        this.AddPhase("Occupancy", () -> OccupancyTimeSeries.Start());
+        this.AddPhase("DescriptionIndex", () -> DescriptionSearchIndex.GetDefaultIndex().GetNumberOfDocuments());
+        this.AddPhase("MedicoIndex", () -> {
+            MedicoTreatmentIndex index = MedicoTreatmentIndex.GetDefaultIndex();
+            index.Compact();
+            return index.GetNumberOfMedicos();
+        });
+        this.AddPhase("MedicoTask", () -> this.LoadMedicoTasks(), "TreatmentCode");
+        this.AddPhase("MedicalRecord", () -> this.LoadMedicalRecords(), "TreatmentCode");
+        this.AddPhase("Rooms", () -> this.LoadRooms(), "RoomCatalog");
+        this.AddPhase("Transfers", () -> PatientTransfer.GetDefaultTransfer().Recover(), "Rooms");
+        this.AddPhase("Consumption", () -> ResourceConsumptionPipeline.Start(this.ResourcePool).GetNumberOfRecoveredMovements(),
+                      "Transfers", "GlobalPool");
+        this.AddPhase("Indexes", () -> this.RebuildIndexes(), "Consumption");
+
+        boolean success = true;
+        for (Entry<String, CompletableFuture<Integer>> entry : this.Phases.entrySet()) {
+            try { entry.getValue().get(); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); success = false; }
+            catch (ExecutionException e) {
+                success = false;
+                if (this.Timings.containsKey(entry.getKey())) { e.getCause().printStackTrace(); }
+            }
+        }
+        this.EndTime = System.nanoTime();
+        this.pool.shutdown();
+        return success;
+    }
+
+    public void Report() {
+        System.out.println("----------------------------------------------------------------------------------");
+        System.out.println("Warm start on " + this.pool.getParallelism() + " thread(s):");
+        for (String name : this.Phases.keySet()) {
+            long[] timing = this.Timings.get(name);
+            if (timing == null) { System.out.println(String.format("  %-16s: skipped", name)); continue; }
+
+            double offset = (timing[0] - this.StartTime) / 1e6, elapsed = (timing[1] - timing[0]) / 1e6;
+            String items = timing[2] < 0 ? "failed" : (timing[2] + " item(s)");
+            if (timing[2] >= 0 && this.Notes.containsKey(name)) { items += ", " + this.Notes.get(name); }
+            System.out.println(String.format("  %-16s: %10.2f ms (started at %8.2f ms), %s", name, elapsed, offset, items));
+        }
+        System.out.println(String.format("Time-to-ready: %.2f ms", this.GetElapsedTime() / 1e6));
+        System.out.println("----------------------------------------------------------------------------------");
+    }
+
+    public static void main(String[] args) {
+        WarmStart bootstrap = new WarmStart();
+        bootstrap.Run();
+        bootstrap.Report();
+    }
+}
@@ -3,6 +3,7 @@ package GlobalPool;
 import java.util.Hashtable;
 
 import Room.LResourcePool;
+import Room.StockAggregate;
 import Utility.JsonUtils;
 
 /**
@@ -52,9 +53,16 @@ public class GResourcePool extends LResourcePool {
     public static String GetJsonMainFilename() { return GResourcePool.JSON_MAIN_FILENAME; }
     public static String GetJsonCheckpointFilename() { return GResourcePool.JSON_CHECKPOINT_FILENAME; }
 
+    public int GetStockBucket() { return StockAggregate.GetGlobalBucket(); }
+
+    public static void RebuildStockAggregate() {
+        String dir = GResourcePool.GetFolderDirectory() + "/" + GResourcePool.GetJsonMainFilename();
+        StockAggregate.GetResourceAggregate().RebuildFromDisk(dir);
+    }
+
     // ---------------------------------------------------------------------------------------------------------------------
     // Serialization & Deserialization
-    public Hashtable<String, Object> Serialize() { return super.Serialize(); }
+    public synchronized Hashtable<String, Object> Serialize() { return super.Serialize(); }
 
     public void SerializeToFile(String filename) throws Exception {
         Hashtable<String, Object> data = this.Serialize();
@@ -71,7 +79,7 @@ public class GResourcePool extends LResourcePool {
     }
 
     public static GResourcePool Deserialize(Hashtable<String, Object> data) throws Exception {
-        return new GResourcePool(GResourcePool.Deserialize(data));
+        return new GResourcePool(LResourcePool.Deserialize(data));
     }
 
     public static GResourcePool DeserializeFromFile(String filename) throws Exception {
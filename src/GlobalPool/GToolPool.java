@@ -3,6 +3,7 @@ package GlobalPool;
 import java.util.Hashtable;
 
 import Room.LToolPool;
+import Room.StockAggregate;
 import Utility.JsonUtils;
 
 /**
@@ -53,9 +54,16 @@ public class GToolPool extends LToolPool {
     public static String GetJsonMainFilename() { return GToolPool.JSON_MAIN_FILENAME; }
     public static String GetJsonCheckpointFilename() { return GToolPool.JSON_CHECKPOINT_FILENAME; }
 
+    public int GetStockBucket() { return StockAggregate.GetGlobalBucket(); }
+
+    public static void RebuildStockAggregate() {
+        String dir = GToolPool.GetFolderDirectory() + "/" + GToolPool.GetJsonMainFilename();
+        StockAggregate.GetToolAggregate().RebuildFromDisk(dir);
+    }
+
     // ---------------------------------------------------------------------------------------------------------------------
     // Serialization & Deserialization
-    public Hashtable<String, Object> Serialize() { return super.Serialize(); }
+    public synchronized Hashtable<String, Object> Serialize() { return super.Serialize(); }
 
     public void SerializeToFile(String filename) throws Exception {
         Hashtable<String, Object> data = this.Serialize();
@@ -0,0 +1,487 @@
+package GlobalPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Room.LResourcePool;
+import Room.MergedRoom;
+import Room.MergedRoomCache;
+import Room.PersonLocationIndex;
+import Utility.DataUtils;
+import Utility.ExecutorUtils;
+import Utility.JsonUtils;
+import Utility.WriteAheadLog;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class turns the resources recorded on a treatment into the stock movements of the resource
+ * pools. A movement is {Key, PatientID, ResourceID, ResourceName, Amount}, where a positive amount is
+ * consumed from the stock and a negative amount is returned to it (i.e a corrected dose).
+ *
+ * The movements are submitted to a bounded queue (a full queue blocks the caller rather than dropping
+ * the movement) and a single applier thread drains them in batches of up to 512:
+ * 1) Each movement is charged to the ward pool (LResourcePool) of the patient's room if the ward has
+ *    enough stock, otherwise to the global pool (GResourcePool).
+ * 2) The whole batch is written to the journal with one disk sync (group commit), which is the commit
+ *    point. Each movement gets a sequence number increasing across restarts (it starts above the highest
+ *    "AppliedSequence" of the saved pools, even if the clock steps back).
+ * 3) The movements are applied grouped by their pool, taking the lock of each pool once per batch.
+ *    Each pool remembers the sequence of the last movement it contains ("AppliedSequence"), which is
+ *    saved in the same file as the pool.
+ *
+ * On start-up, Recover() replays the journal, skipping the movements whose sequence is not above the
+ * "AppliedSequence" of the saved pool. Hence, a movement is applied exactly once no matter when the
+ * program crashed. Then the pools are saved and the journal is cleared (see Checkpoint()).
+ *
+ * The key of a movement is its idempotency key (i.e "MedicalRecordID/TreatmentIndex/ResourceID/Sequence", where
+ * the sequence is the number of the resource change saved with the treatment, see Treatment.SubmitMovements()).
+ * A key which is queued or applied is never charged again, so a re-submitted movement (a retry or a
+ * replay by the caller) has no effect. The applied keys are kept for 30 days in "Consumption.keys".
+ * The movements are kept with their treatment until they are applied, so the movements still queued when
+ * the program stops are submitted again when the treatment is loaded; the default pipeline is also
+ * closed (draining its queue) when the program exits normally.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Write-ahead_logging
+ * 2) https://en.wikipedia.org/wiki/Idempotence
+ * 3) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/BlockingQueue.html#drainTo-java.util.Collection-int-
+**/
+
+public class ResourceConsumptionPipeline {
+    private static final String JOURNAL_FILE = "database/GlobalPool/Consumption.journal";
+    private static final String KEYS_FILE = "database/GlobalPool/Consumption.keys";
+    private static final String MOVEMENT_RECORD = "MOVE";
+    private static final String GLOBAL_TARGET = "GLOBAL";
+    private static final int BATCH_SIZE = 512;
+    private static final int WARD_POOL_COMPONENT = 3;               // The LResourcePool, see MergedRoom.GetComponentName()
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int CHECKPOINT_INTERVAL = 65536;          // The number of journaled movements between two checkpoints
+    private static final long KEY_RETENTION = TimeUnit.DAYS.toMillis(30);
+    private static volatile ResourceConsumptionPipeline DefaultPipeline = null;
+
+    public static class Movement {
+        public final String Key;
+        public final String PatientID;
+        public final String ResourceID;
+        public final String ResourceName;
+        public final int Amount;
+
+        public Movement(String Key, String PatientID, String ResourceID, String ResourceName, int Amount) {
+            DataUtils.CheckArgumentCondition(Key != null, "The key of the movement cannot be null.");
+            DataUtils.CheckArgumentCondition(ResourceID != null, "The resource's ID cannot be null.");
+            this.Key = Key;
+            this.PatientID = PatientID;
+            this.ResourceID = ResourceID;
+            this.ResourceName = ResourceName == null ? "" : ResourceName;
+            this.Amount = Amount;
+        }
+    }
+
+    private static class PlannedMovement {
+        private final Movement movement;
+        private final LResourcePool pool;
+        private final long sequence;
+
+        private PlannedMovement(Movement movement, LResourcePool pool, long sequence) {
+            this.movement = movement;
+            this.pool = pool;
+            this.sequence = sequence;
+        }
+    }
+
+    private final WriteAheadLog journal;
+    private final WriteAheadLog keys;
+    private final GResourcePool GlobalPool;                         // Can be null if the hospital has no global pool
+    private final MergedRoomCache cache;
+    private final LinkedBlockingQueue<Movement> queue = new LinkedBlockingQueue<Movement>(QUEUE_CAPACITY);
+    private final ConcurrentHashMap<String, Long> AppliedKeys = new ConcurrentHashMap<String, Long>();
+    private final Set<String> QueuedKeys = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock ApplyLock = new ReentrantLock();
+    private final Object ProgressLock = new Object();
+    private long SubmittedMovements = 0, CompletedMovements = 0;   // Guarded by "ProgressLock"
+    private long LastSequence = 0;                                  // Guarded by "ApplyLock"
+    private int JournaledMovements = 0;                             // Guarded by "ApplyLock"
+    private final AtomicLong Applied = new AtomicLong(), Duplicated = new AtomicLong(), Rejected = new AtomicLong();
+    private volatile Thread applier = null;
+    private int RecoveredMovements = 0;
+
+    public ResourceConsumptionPipeline(String JournalFile, String KeysFile, GResourcePool GlobalPool, MergedRoomCache cache) throws IOException {
+        DataUtils.CheckArgumentCondition(cache != null, "The room cache cannot be null.");
+        this.journal = new WriteAheadLog(JournalFile);
+        this.keys = new WriteAheadLog(KeysFile);
+        this.GlobalPool = GlobalPool;
+        this.cache = cache;
+    }
+
+    public static ResourceConsumptionPipeline GetDefaultPipeline() { return ResourceConsumptionPipeline.DefaultPipeline; }
+
+    /**
+     * This function creates the default pipeline, recovers it from its journal, and starts its applier.
+     * Before it is called, the treatments do not produce any stock movement.
+     * @param GlobalPool (GResourcePool): The loaded global resource pool (can be null).
+     * @return (ResourceConsumptionPipeline) The default pipeline.
+     */
+    public static synchronized ResourceConsumptionPipeline Start(GResourcePool GlobalPool) throws Exception {
+        if (ResourceConsumptionPipeline.DefaultPipeline == null) {
+            ResourceConsumptionPipeline pipeline = new ResourceConsumptionPipeline(JOURNAL_FILE, KEYS_FILE, GlobalPool,
+                                                                                   MergedRoomCache.GetDefaultCache());
+            pipeline.Open();
+            ExecutorUtils.RunAtShutdown("ResourceConsumptionPipeline-Close", () -> {
+                try { pipeline.Close(); } catch (Exception e) { e.printStackTrace(); }
+            });
+            ResourceConsumptionPipeline.DefaultPipeline = pipeline;
+        }
+        return ResourceConsumptionPipeline.DefaultPipeline;
+    }
+
+    public static String GetJournalFile() { return ResourceConsumptionPipeline.JOURNAL_FILE; }
+    public static String GetKeysFile() { return ResourceConsumptionPipeline.KEYS_FILE; }
+
+    public GResourcePool GetGlobalPool() { return this.GlobalPool; }
+    public long GetNumberOfAppliedMovements() { return this.Applied.get(); }
+    public long GetNumberOfDuplicatedMovements() { return this.Duplicated.get(); }
+    public long GetNumberOfRejectedMovements() { return this.Rejected.get(); }
+    public int GetNumberOfQueuedMovements() { return this.queue.size(); }
+    public int GetNumberOfRecoveredMovements() { return this.RecoveredMovements; }
+    public boolean IsKeyApplied(String key) { return this.AppliedKeys.containsKey(key); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Submission
+    /**
+     * This function submits a stock movement. It blocks while the queue is full.
+     * @param movement (Movement): The movement.
+     * @return (boolean) True if the movement is queued; False if its key is already queued or applied.
+     */
+    public boolean Submit(Movement movement) {
+        DataUtils.CheckArgumentCondition(movement != null, "The movement cannot be null.");
+        if (movement.Amount == 0) { return false; }
+        if (this.AppliedKeys.containsKey(movement.Key) || !this.QueuedKeys.add(movement.Key)) {
+            this.Duplicated.incrementAndGet();
+            return false;
+        }
+
+        synchronized (this.ProgressLock) { this.SubmittedMovements++; }
+        try {
+            this.queue.put(movement);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.QueuedKeys.remove(movement.Key);
+            this.Complete(1);
+            return false;
+        }
+    }
+
+    public boolean Submit(String key, String PatientID, String ResourceID, String ResourceName, int amount) {
+        return this.Submit(new Movement(key, PatientID, ResourceID, ResourceName, amount));
+    }
+
+    private void Complete(int count) {
+        synchronized (this.ProgressLock) {
+            this.CompletedMovements += count;
+            this.ProgressLock.notifyAll();
+        }
+    }
+
+    public void Flush() throws InterruptedException {
+        // Wait until all movements submitted before this call have been applied (or rejected).
+        synchronized (this.ProgressLock) {
+            long target = this.SubmittedMovements;
+            while (this.CompletedMovements < target) { this.ProgressLock.wait(); }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Applier
+    /**
+     * This function recovers the pipeline from its journal and starts the applier.
+     * @return (int) The number of movements replayed by the recovery.
+     */
+    public synchronized int Open() throws Exception {
+        DataUtils.CheckCondition(this.applier == null, "The pipeline is already opened.");
+        this.RecoveredMovements = this.Recover();
+        Thread thread = new Thread(this::RunApplier, "ResourceConsumptionPipeline");
+        thread.setDaemon(true);
+        this.applier = thread;
+        thread.start();
+        return this.RecoveredMovements;
+    }
+
+    private void RunApplier() {
+        ArrayList<Movement> batch = new ArrayList<Movement>(BATCH_SIZE);
+        while (this.applier == Thread.currentThread()) {
+            // Poll with a timeout rather than being interrupted by Close(), since an interrupt would close the journal.
+            try {
+                Movement first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) { continue; }
+                batch.add(first);
+            } catch (InterruptedException e) { break; }
+            this.queue.drainTo(batch, BATCH_SIZE - 1);
+
+            this.ApplyLock.lock();
+            try {
+                this.ApplyBatch(batch);
+                if (this.JournaledMovements >= CHECKPOINT_INTERVAL) { this.SaveAndTruncate(); }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                this.ApplyLock.unlock();
+                for (Movement movement : batch) { this.QueuedKeys.remove(movement.Key); }
+                this.Complete(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private long NextSequence() {
+        // Based on the clock, but never below the last one: the "LastSequence" is seeded from the saved pools
+        // by Recover(), so a clock stepping back after a restart never gives a sequence which is skipped.
+        this.LastSequence = Math.max(this.LastSequence + 1, System.currentTimeMillis() * 1000);
+        return this.LastSequence;
+    }
+
+    private long GetHighestAppliedSequence() {
+        // The highest "AppliedSequence" of the global pool and of the saved ward pools (the rooms are not loaded).
+        long highest = this.GlobalPool != null ? this.GlobalPool.GetAppliedSequence() : 0;
+        File[] folders = new File(MergedRoom.GetRoomDirectory()).listFiles(File::isDirectory);
+        if (folders == null) { return highest; }
+        long saved = Arrays.stream(folders).parallel().mapToLong(folder -> {
+            File file = new File(MergedRoom.GetComponentFile(folder.getName(), WARD_POOL_COMPONENT));
+            if (!file.isFile()) { return 0; }
+            Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(file.getPath(), null);
+            Object sequence = data == null ? null : data.get("AppliedSequence");
+            return sequence instanceof Number ? ((Number) sequence).longValue() : 0;
+        }).max().orElse(0);
+        return Math.max(highest, saved);
+    }
+
+    private MergedRoom PinWardRoom(String PatientID, List<MergedRoom> pinned) {
+        // The ward room stays pinned in the cache until the batch is applied, so our change is written back with it.
+        if (PatientID == null) { return null; }
+        String RoomID = PersonLocationIndex.GetPatientIndex().GetRoomOfPerson(PatientID);
+        if (RoomID == null) { return null; }
+        try {
+            MergedRoom room = this.cache.PinRoom(RoomID);
+            if (room == null) { return null; }
+            pinned.add(room);
+            return room.GetLRPoolRoom() != null ? room : null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private MergedRoom SelectRoom(Movement movement, MergedRoom ward) {
+        // Return the ward room if the movement is charged to its pool, or null for the global pool.
+        if (ward == null) { return null; }
+        LResourcePool pool = ward.GetLRPoolRoom();
+        boolean stocked = pool.IsResourceAvailable(movement.ResourceID);
+        if (this.GlobalPool == null) { return ward; }
+        if (movement.Amount < 0) { return stocked ? ward : null; }
+        if (pool.GetAmount(movement.ResourceID) >= movement.Amount) { return ward; }
+        return this.GlobalPool.IsResourceAvailable(movement.ResourceID) || !stocked ? null : ward;
+    }
+
+    private void ApplyBatch(List<Movement> batch) throws Exception {
+        ArrayList<MergedRoom> pinned = new ArrayList<MergedRoom>();
+        try { this.ApplyBatch(batch, pinned); }
+        finally {
+            for (MergedRoom room : pinned) { this.cache.UnpinRoom(room); }
+        }
+    }
+
+    private void ApplyBatch(List<Movement> batch, List<MergedRoom> pinned) throws Exception {
+        // Step 01: Select the pool of each movement and write the batch to the journal
+        ArrayList<PlannedMovement> planned = new ArrayList<PlannedMovement>(batch.size());
+        long last = 0;
+        for (Movement movement : batch) {
+            if (this.AppliedKeys.containsKey(movement.Key)) { this.Duplicated.incrementAndGet(); continue; }
+
+            MergedRoom room = this.SelectRoom(movement, this.PinWardRoom(movement.PatientID, pinned));
+            LResourcePool pool = room != null ? room.GetLRPoolRoom() : this.GlobalPool;
+            if (pool == null || (movement.Amount > 0 && !pool.IsResourceAvailable(movement.ResourceID))) {
+                System.out.println("Warning: No pool has the resource " + movement.ResourceID + "; the movement " +
+                                   movement.Key + " is rejected.");
+                this.Rejected.incrementAndGet();
+                continue;
+            }
+
+            long sequence = this.NextSequence();
+            String target = room != null ? room.GetRoom().GetID() : GLOBAL_TARGET;
+            last = this.journal.Append(MOVEMENT_RECORD, Long.toString(sequence), movement.Key, target, movement.ResourceID,
+                                       movement.ResourceName, Integer.toString(movement.Amount));
+            planned.add(new PlannedMovement(movement, pool, sequence));
+        }
+        if (planned.isEmpty()) { return ; }
+
+        // Step 02: The durable journal is the commit point (one sync for the whole batch)
+        this.journal.Sync(last);
+        this.JournaledMovements += planned.size();
+
+        // Step 03: Apply the movements, one lock per pool
+        IdentityHashMap<LResourcePool, List<PlannedMovement>> groups = new IdentityHashMap<LResourcePool, List<PlannedMovement>>();
+        for (PlannedMovement p : planned) { groups.computeIfAbsent(p.pool, k -> new ArrayList<PlannedMovement>()).add(p); }
+        long now = System.currentTimeMillis();
+        for (Entry<LResourcePool, List<PlannedMovement>> group : groups.entrySet()) {
+            LResourcePool pool = group.getKey();
+            synchronized (pool.GetLocalPool()) {
+                for (PlannedMovement p : group.getValue()) {
+                    ResourceConsumptionPipeline.Charge(pool, p.movement.ResourceID, p.movement.ResourceName, p.movement.Amount);
+                    pool.SetAppliedSequence(p.sequence);
+                    this.AppliedKeys.put(p.movement.Key, now);
+                }
+            }
+            this.Applied.addAndGet(group.getValue().size());
+        }
+    }
+
+    private static void Charge(LResourcePool pool, String ResourceID, String ResourceName, int amount) throws Exception {
+        pool.AddOrUpdateObject(ResourceID, ResourceName, -amount);
+        if (pool.GetAmount(ResourceID) < 0) {
+            System.out.println("Warning: The stock of " + ResourceID + " in " + pool.GetID() + " is negative: " +
+                               pool.GetAmount(ResourceID));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Recovery & Checkpoint
+    private LResourcePool GetTargetPool(String target, List<MergedRoom> pinned) throws Exception {
+        if (GLOBAL_TARGET.equals(target)) { return this.GlobalPool; }
+        MergedRoom room = this.cache.PinRoom(target);
+        if (room == null) { return null; }
+        pinned.add(room);
+        return room.GetLRPoolRoom();
+    }
+
+    private int LoadKeys() throws IOException {
+        // Drop the expired keys; the file is rewritten when most of its keys are expired.
+        long now = System.currentTimeMillis();
+        List<String[]> records = this.keys.ReadAll();
+        for (String[] record : records) {
+            if (record.length < 2) { continue; }
+            long time = Long.parseLong(record[1]);
+            if (now - time < KEY_RETENTION) { this.AppliedKeys.merge(record[0], time, Math::max); }
+        }
+        if (records.size() > 2 * this.AppliedKeys.size() + 1024) {
+            this.keys.Truncate();
+            long last = 0;
+            for (Entry<String, Long> entry : this.AppliedKeys.entrySet()) {
+                last = this.keys.Append(entry.getKey(), Long.toString(entry.getValue()));
+            }
+            this.keys.Sync(last);
+        }
+        return this.AppliedKeys.size();
+    }
+
+    /**
+     * This function replays the journal into the pools (skipping the movements already saved in them),
+     * then saves the pools and clears the journal.
+     * @return (int) The number of movements replayed.
+     */
+    public int Recover() throws Exception {
+        this.ApplyLock.lock();
+        try {
+            this.LoadKeys();
+            this.LastSequence = Math.max(this.LastSequence, this.GetHighestAppliedSequence());
+            int count = 0;
+            long now = System.currentTimeMillis();
+            for (String[] record : this.journal.ReadAll()) {
+                if (record.length < 7 || !MOVEMENT_RECORD.equals(record[0])) { continue; }
+                long sequence = Long.parseLong(record[1]);
+                this.LastSequence = Math.max(this.LastSequence, sequence);
+                this.AppliedKeys.putIfAbsent(record[2], now);
+                ArrayList<MergedRoom> pinned = new ArrayList<MergedRoom>(1);
+                try {
+                    LResourcePool pool = this.GetTargetPool(record[3], pinned);
+                    if (pool == null) {
+                        System.out.println("Warning: The pool " + record[3] + " is not found; the movement " + record[2] + " is dropped.");
+                        continue;
+                    }
+                    synchronized (pool.GetLocalPool()) {
+                        if (sequence <= pool.GetAppliedSequence()) { continue; }
+                        ResourceConsumptionPipeline.Charge(pool, record[4], record[5], Integer.parseInt(record[6]));
+                        pool.SetAppliedSequence(sequence);
+                    }
+                    count++;
+                } catch (Exception e) { e.printStackTrace(); }
+                finally {
+                    for (MergedRoom room : pinned) { this.cache.UnpinRoom(room); }
+                }
+            }
+            this.SaveAndTruncate();
+            return count;
+        } finally {
+            this.ApplyLock.unlock();
+        }
+    }
+
+    public void Checkpoint() throws Exception {
+        this.ApplyLock.lock();
+        try { this.SaveAndTruncate(); }
+        finally { this.ApplyLock.unlock(); }
+    }
+
+    private void SaveAndTruncate() throws Exception {
+        // Step 01: Save the changed pools (the ward pools are saved with their rooms)
+        this.cache.Flush();
+        if (this.GlobalPool != null && this.GlobalPool.IsDirty()) {
+            new File(GResourcePool.GetFolderDirectory()).mkdirs();
+            this.GlobalPool.MarkClean();
+            this.GlobalPool.SerializeToMainFile();
+        }
+
+        // Step 02: Keep the keys of the journaled movements before the journal is cleared
+        List<String[]> records = this.journal.ReadAll();
+        if (!records.isEmpty()) {
+            long last = 0;
+            for (String[] record : records) {
+                if (record.length < 3 || !MOVEMENT_RECORD.equals(record[0])) { continue; }
+                Long time = this.AppliedKeys.get(record[2]);
+                last = this.keys.Append(record[2], Long.toString(time == null ? System.currentTimeMillis() : time));
+            }
+            if (last > 0) { this.keys.Sync(last); }
+        }
+        this.journal.Truncate();
+        this.JournaledMovements = 0;
+    }
+
+    /**
+     * This function stops the applier after the queued movements are applied, and saves the pools.
+     */
+    public void Close() throws Exception {
+        this.Flush();
+        Thread thread = this.applier;
+        this.applier = null;
+        if (thread != null) { thread.join(); }
+        this.Checkpoint();
+        this.journal.Close();
+        this.keys.Close();
+        synchronized (ResourceConsumptionPipeline.class) {
+            if (ResourceConsumptionPipeline.DefaultPipeline == this) { ResourceConsumptionPipeline.DefaultPipeline = null; }
+        }
+    }
+}
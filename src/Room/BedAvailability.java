@@ -0,0 +1,96 @@
+package Room;
+
+import java.io.File;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import BaseClass.BaseRoomContainer;
+import Utility.JsonUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class kept the number of free beds of every "PatientRoom", keyed by the packed room-code
+ * (see RoomCode.java), so the bed search (see BedSearch.java) never has to load a room.
+ *
+ * The count is updated on every mutation of a loaded "PatientRoom" (admission, discharge, bed
+ * reservation and the change of the number of beds), and the rooms which are not loaded are read
+ * from their saved file by RebuildFromDisk(). A free bed is a bed which is neither occupied nor
+ * reserved by an incoming transfer (see PatientRoom.GetNumberOfFreeBeds()).
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ConcurrentHashMap.html
+**/
+
+public class BedAvailability {
+    private static final int INDEX_CAPACITY = 1000;
+    private static final BedAvailability DefaultAvailability = new BedAvailability();
+
+    private final ConcurrentHashMap<Long, Integer> FreeBeds;
+
+    public BedAvailability() { this.FreeBeds = new ConcurrentHashMap<Long, Integer>(INDEX_CAPACITY, 0.75f); }
+
+    public static BedAvailability GetDefaultAvailability() { return BedAvailability.DefaultAvailability; }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Updater
+    public void Update(String RoomCodeID, int NumberOfFreeBeds) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        if (packed != RoomCode.INVALID) { this.FreeBeds.put(packed, Math.max(0, NumberOfFreeBeds)); }
+    }
+
+    public void Remove(String RoomCodeID) { this.FreeBeds.remove(RoomCode.TryPack(RoomCodeID)); }
+    public void Clear() { this.FreeBeds.clear(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query
+    public int GetNumberOfFreeBeds(long packed) {
+        Integer free = this.FreeBeds.get(packed);
+        return free == null ? 0 : free;
+    }
+
+    public int GetNumberOfFreeBeds(String RoomCodeID) { return this.GetNumberOfFreeBeds(RoomCode.TryPack(RoomCodeID)); }
+    public int GetNumberOfRooms() { return this.FreeBeds.size(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Rebuild from the "RoomCatalog" and the saved files: "database/Room/[RoomUnit.ID]/PatientRoom.json"
+    private static int CountFreeBeds(String RoomID) {
+        File file = new File(MergedRoom.GetComponentFile(RoomID, 0));
+        if (!file.exists()) { return PatientRoom.GetDefaultNumberOfBeds(); }           // An empty (default) room
+
+        Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(file.getPath(), null);
+        Object MaxCapacity = data.get("MaxCapacity");
+        int beds = (MaxCapacity instanceof Number) ? ((Number) MaxCapacity).intValue() : PatientRoom.GetDefaultNumberOfBeds();
+
+        Iterator<Entry<String, Object>> it = data.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Object> entry = it.next();
+            if (!BaseRoomContainer.IsReservedKey(entry.getKey()) && BaseRoomContainer.CastToInformation(entry.getValue()) != null) {
+                beds--;
+            }
+        }
+        return beds;
+    }
+
+    public void RebuildFromDisk() {
+        this.Clear();
+        RoomCatalog.GetCatalog().GetEntries().parallelStream().forEach(entry -> {
+            if (!RoomCode.IsValid(entry[0])) { return ; }
+            try { this.Update(entry[0], BedAvailability.CountFreeBeds(entry[0])); }
+            catch (Exception e) { e.printStackTrace(); }
+        });
+    }
+}
@@ -0,0 +1,223 @@
+package Room;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import Utility.DataUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class finds the k nearest rooms having a free bed when the requested room (ward) is full.
+ * The coordinates (block, floor, number) are decoded from the packed room-code (see RoomCode.java),
+ * and the distance model is tiered, so the closer tier is always preferred:
+ *   1) The same floor of the same block:     |number difference|
+ *   2) An adjacent floor of the same block:  FLOOR_COST x |floor difference| + |number difference|
+ *   3) The other floors of the same block:   (same formula, larger floor difference)
+ *   4) The other blocks:                     BLOCK_COST x (block distance) + the formula above
+ * The block distance is precomputed once from the blocks of the hospital (their rank in the sorted
+ * order of the block-codes, i.e "A" -> "B" is 1 and "A" -> "C" is 2).
+ *
+ * The candidates are the rooms of the requested type which have a free bed (see BedAvailability.java).
+ * Since the tiers never overlap, the search is best-first over the location hierarchy instead of a scan
+ * of all rooms of the type: the rings (block distance, floor distance) are visited from the nearest
+ * one, each ring being a few floors read from the location tree (see RoomHierarchyIndex.GetRoomsOnFloor()).
+ * Every room of a ring is nearer than any room of the next rings, so the search stops at the end of the
+ * first ring where k candidates are found. The candidates go through a bounded max-heap of k rooms.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/K-nearest_neighbors_algorithm
+ * 2) https://docs.oracle.com/javase/8/docs/api/java/util/PriorityQueue.html
+**/
+
+public class BedSearch {
+    private static final long FLOOR_COST = 1000L;                        // More than any room-number difference
+    private static final long BLOCK_COST = 100L * FLOOR_COST;            // More than any distance inside a block
+    private static volatile BedSearch DefaultSearch = null;
+
+    private final RoomHierarchyIndex index;
+    private final BedAvailability availability;
+    private final HashMap<Integer, Integer> BlockRank;
+    private final int[] Blocks;                                          // Indexed by the rank of the block
+
+    public BedSearch(RoomHierarchyIndex index, BedAvailability availability) {
+        DataUtils.CheckArgumentCondition(index != null, "The room index cannot be null.");
+        DataUtils.CheckArgumentCondition(availability != null, "The bed availability cannot be null.");
+        this.index = index;
+        this.availability = availability;
+
+        TreeSet<Integer> blocks = new TreeSet<Integer>();
+        Iterator<RoomUnit> it = index.GetAllRooms();
+        while (it.hasNext()) { blocks.add(RoomCode.GetBlock(it.next().GetPackedCode())); }
+        this.BlockRank = new HashMap<Integer, Integer>(blocks.size() * 2);
+        for (Integer block : blocks) { this.BlockRank.put(block, this.BlockRank.size()); }
+        this.Blocks = blocks.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static BedSearch GetDefaultSearch() {
+        RoomHierarchyIndex index = RoomHierarchyIndex.GetDefaultIndex();
+        BedSearch search = BedSearch.DefaultSearch;
+        if (search == null || search.index != index) {
+            search = new BedSearch(index, BedAvailability.GetDefaultAvailability());
+            BedSearch.DefaultSearch = search;
+        }
+        return search;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Result
+    public static class Candidate {
+        public final String RoomCode;
+        public final long Distance;
+        public final int FreeBeds;
+
+        public Candidate(String RoomCode, long Distance, int FreeBeds) {
+            this.RoomCode = RoomCode;
+            this.Distance = Distance;
+            this.FreeBeds = FreeBeds;
+        }
+
+        public String toString() { return this.RoomCode + " (distance: " + this.Distance + ", free: " + this.FreeBeds + ")"; }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Distance model
+    private long GetBlockDistance(int from, int to) {
+        if (from == to) { return 0; }
+        Integer FromRank = this.BlockRank.get(from), ToRank = this.BlockRank.get(to);
+        if (FromRank == null || ToRank == null) { return this.BlockRank.size() + 1; }      // Unknown block: the farthest
+        return Math.abs(FromRank - ToRank);
+    }
+
+    public long GetDistance(long from, long to) {
+        long distance = FLOOR_COST * Math.abs(RoomCode.GetFloor(from) - RoomCode.GetFloor(to)) +
+                        Math.abs(RoomCode.GetNumber(from) - RoomCode.GetNumber(to));
+        return distance + BLOCK_COST * this.GetBlockDistance(RoomCode.GetBlock(from), RoomCode.GetBlock(to));
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Search
+    private List<int[]> GetBlockRings(int OriginBlock) {
+        // The known blocks grouped by their distance from the origin block, from the nearest group.
+        ArrayList<int[]> rings = new ArrayList<int[]>();
+        rings.add(new int[] {OriginBlock});
+        Integer rank = this.BlockRank.get(OriginBlock);
+        if (rank != null) {
+            for (int distance = 1; rank - distance >= 0 || rank + distance < this.Blocks.length; distance++) {
+                ArrayList<Integer> ring = new ArrayList<Integer>(2);
+                if (rank - distance >= 0) { ring.add(this.Blocks[rank - distance]); }
+                if (rank + distance < this.Blocks.length) { ring.add(this.Blocks[rank + distance]); }
+                rings.add(ring.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        return rings;
+    }
+
+    private int[] GetFarthestRing(int OriginBlock) {
+        // The blocks which are unknown (added after this search is built), or all other blocks if the origin
+        // block is unknown: they are all at the farthest block distance.
+        boolean known = this.BlockRank.containsKey(OriginBlock);
+        ArrayList<Integer> ring = new ArrayList<Integer>();
+        for (int block : this.index.GetBlocks()) {
+            if (block != OriginBlock && (!known || !this.BlockRank.containsKey(block))) { ring.add(block); }
+        }
+        return ring.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private boolean SearchBlockRing(long origin, int[] blocks, boolean[] accepted, int k, PriorityQueue<long[]> heap) {
+        // Visit the floors of these blocks from the nearest floor; return true once k candidates are found.
+        int OriginFloor = RoomCode.GetFloor(origin), MaxDistance = -1;
+        int[][] floors = new int[blocks.length][];
+        for (int i = 0; i < blocks.length; i++) {
+            floors[i] = this.index.GetFloors(blocks[i]);
+            if (floors[i].length == 0) { continue; }
+            MaxDistance = Math.max(MaxDistance, Math.max(Math.abs(floors[i][0] - OriginFloor),
+                                                         Math.abs(floors[i][floors[i].length - 1] - OriginFloor)));
+        }
+
+        for (int distance = 0; distance <= MaxDistance; distance++) {
+            for (int i = 0; i < blocks.length; i++) {
+                for (int floor : distance == 0 ? new int[] {OriginFloor} : new int[] {OriginFloor - distance, OriginFloor + distance}) {
+                    if (Arrays.binarySearch(floors[i], floor) >= 0) { this.SearchFloor(origin, blocks[i], floor, accepted, k, heap); }
+                }
+            }
+            if (heap.size() == k) { return true; }                    // The next floors and rings are all farther
+        }
+        return false;
+    }
+
+    private void SearchFloor(long origin, int block, int floor, boolean[] accepted, int k, PriorityQueue<long[]> heap) {
+        Iterator<RoomUnit> it = this.index.GetRoomsOnFloor(block, floor);
+        while (it.hasNext()) {
+            long packed = it.next().GetPackedCode();
+            if (packed == origin || !accepted[RoomCode.GetTypeOrdinal(packed)] || 
+                this.availability.GetNumberOfFreeBeds(packed) <= 0) { continue; }
+
+            long distance = this.GetDistance(origin, packed);
+            if (heap.size() == k) {
+                if (distance >= heap.peek()[0]) { continue; }
+                heap.poll();
+            }
+            heap.add(new long[] {distance, packed});
+        }
+    }
+
+    /**
+     * This function returns the k nearest rooms (excluding the origin) of a type having a free bed.
+     * @param FromRoomCode (String): The room-code of the requested (origin) room.
+     * @param RoomType (RoomUnitEnum): The wanted type of room.
+     * @param IncludeDescendants (boolean): Accept the rooms of the descendant types (i.e NICU for ICU).
+     * @param k (int): The maximum number of results.
+     * @return (List<Candidate>) At most k rooms, sorted from the nearest.
+     */
+    public List<Candidate> FindNearest(String FromRoomCode, RoomUnitEnum RoomType, boolean IncludeDescendants, int k) {
+        long origin = RoomCode.TryPack(FromRoomCode);
+        DataUtils.CheckArgumentCondition(origin != RoomCode.INVALID, "Invalid Room Code ID: " + FromRoomCode);
+        DataUtils.CheckArgumentCondition(RoomType != null, "The room-type cannot be null.");
+        DataUtils.CheckArgumentCondition(k > 0, "The number of results must be positive.");
+
+        boolean[] accepted = new boolean[RoomUnitEnum.values().length];
+        if (IncludeDescendants) { for (RoomUnitEnum type : RoomType.GetDescendants()) { accepted[type.ordinal()] = true; } }
+        else { accepted[RoomType.ordinal()] = true; }
+
+        // The head of the heap is the farthest of the k nearest rooms found so far: {distance, packed}.
+        PriorityQueue<long[]> heap = new PriorityQueue<long[]>(k + 1, (a, b) -> Long.compare(b[0], a[0]));
+        boolean found = false;
+        for (int[] ring : this.GetBlockRings(RoomCode.GetBlock(origin))) {
+            found = this.SearchBlockRing(origin, ring, accepted, k, heap);
+            if (found) { break; }
+        }
+        if (!found) { this.SearchBlockRing(origin, this.GetFarthestRing(RoomCode.GetBlock(origin)), accepted, k, heap); }
+
+        ArrayList<Candidate> result = new ArrayList<Candidate>(heap.size());
+        while (!heap.isEmpty()) {
+            long[] item = heap.poll();
+            RoomUnit room = this.index.GetRoom(item[1]);
+            String RoomCodeID = room != null ? room.GetID() : RoomCode.Format(item[1]);
+            result.add(0, new Candidate(RoomCodeID, item[0], this.availability.GetNumberOfFreeBeds(item[1])));
+        }
+        return result;
+    }
+
+    public List<Candidate> FindNearest(String FromRoomCode, int k) {
+        long origin = RoomCode.TryPack(FromRoomCode);
+        DataUtils.CheckArgumentCondition(origin != RoomCode.INVALID, "Invalid Room Code ID: " + FromRoomCode);
+        return this.FindNearest(FromRoomCode, RoomCode.GetTypeEnum(origin), false, k);
+    }
+}
@@ -87,9 +87,23 @@ public class LResourcePool extends BaseRoomContainer {
     public boolean RemoveResource(Resource object) throws Exception { return this.RemoveObject(object.GetID()); }
 
 
+    // -----------------------------------------------------------
+    // Every object mutation is routed here, so we keep the hospital-wide aggregate updated.
+    // The Hashtable's lock is re-entrant, so holding it made the read-update-read sequence atomic.
+    public int AddOrUpdateObject(String ID, String name, int amount) throws Exception {
+        synchronized (this.GetLocalPool()) {
+            int before = this.GetAmount(ID);
+            int state = super.AddOrUpdateObject(ID, name, amount);
+            StockAggregate.GetResourceAggregate().Add(ID, this.GetStockBucket(), this.GetAmount(ID) - before);
+            return state;
+        }
+    }
+
+    public int GetStockBucket() { return StockAggregate.GetBucket(this.GetID()); }
+
     // ---------------------------------------------------------------------------------------------------------------------
     // Serialization & Deserialization
-    public Hashtable<String, Object> Serialize() { return super.Serialize(); }
+    public synchronized Hashtable<String, Object> Serialize() { return super.Serialize(); }
 
     public static LResourcePool Deserialize(Hashtable<String, Object> data) throws Exception {
         return new LResourcePool(BaseRoomContainer.Deserialize(data));
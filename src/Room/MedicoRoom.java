@@ -81,6 +81,16 @@ public class MedicoRoom extends BaseRoomContainer {
 
     public boolean RemoveMedico(Medico person) throws Exception { return this.RemovePerson(person.GetID()); }
 
+    // -----------------------------------------------------------
+    // Every person mutation (AddNewPerson/RemovePerson) is routed here, so we keep the index and the
+    // occupancy time-series updated.
+    public int AddOrUpdatePerson(String ID, String name, String phone_number) throws Exception {
+        int state = super.AddOrUpdatePerson(ID, name, phone_number);
+        PersonLocationIndex.GetMedicoIndex().Update(ID, this.GetID(), state == 1);
+        OccupancyTimeSeries.GetMedicoSeries().Record(this.GetID(), this.GetCurrentCapacity());
+        return state;
+    }
+
     // ---------------------------------------------------------------------------------------------------------------------
     // Getter & Setter Function
     public int GetMaxNumberOfMedicos() { return this.GetMaxCapacity(); }
@@ -94,7 +104,7 @@ public class MedicoRoom extends BaseRoomContainer {
 
     // ---------------------------------------------------------------------------------------------------------------------
     // Serializaton & Deserialization
-    public Hashtable<String, Object> Serialize() { return super.Serialize(); }
+    public synchronized Hashtable<String, Object> Serialize() { return super.Serialize(); }
 
     public static MedicoRoom Deserialize(Hashtable<String, Object> data) throws Exception {
         return new MedicoRoom(BaseRoomContainer.Deserialize(data));
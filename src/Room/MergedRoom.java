@@ -1,16 +1,16 @@
 package Room;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import BaseClass.BaseRoomContainer;
 import Utility.DataUtils;
+import Utility.ExecutorUtils;
 import Utility.JsonUtils;
 
-import org.json.simple.JSONObject;
-import org.json.simple.JSONArray;
-import org.json.simple.parser.JSONParser;
-
 /**
  * Copyright (C) 2022-2022, HDM-Dev Team
  * All Rights Reserved
@@ -49,51 +49,52 @@ public class MergedRoom {
 
     // ---------------------------------------------------------------------------------------------------------------------
     // Load-er && Build-er functions
-    private void LoadComponentRoom() {
-        // This method is to load (or build) a component room.
-        // Step 01: Load constant value
+    private void LoadComponentRoom() throws Exception {
+        // This method is to load (or build) all four component rooms. Each component is stored in
+        // its own file, so we read them concurrently on the shared I/O executor. The latency is then
+        // roughly the latency of the slowest file instead of the sum of four.
         String ID = this.GetRoom().GetID();
-        String working_directory = this.GetWorkingDirectory();
-        String[] COMPONENT_FILENAME = MergedRoom.GetSavedName();
-
-        // Step 02: Try to find the component file with ".json" extension
-        // If failed, then create a new file with ".json" extension and load back 
-
-        for (int i = 0; i < COMPONENT_FILENAME.length; i++) {
-            try {
-                Path path = Files.createTempFile(working_directory + "/" + COMPONENT_FILENAME[i], ".json");
-                if (Files.exists(path)) {
-                    JSONObject obj = JsonUtils.ReadJsonFileAsObject(path.toString());
-                    Hashtable<String, Object> data = JsonUtils.CastJsonToHashtable(obj, null);
-                    this.MakeComponentRoom(i, data);
-                } else { this.MakeComponentRoom(i, ID); }
-            } catch (Exception e) { e.printStackTrace(); }
+        ArrayList<Callable<BaseRoomContainer>> tasks = new ArrayList<Callable<BaseRoomContainer>>(4);
+        for (int i = 0; i < MergedRoom.GetComponentName().length; i++) {
+            final int index = i;
+            tasks.add(() -> MergedRoom.LoadComponentRoom(ID, index));
         }
-        return ;
+
+        List<BaseRoomContainer> components = ExecutorUtils.InvokeAll(tasks);
+        this.PtRoom = (PatientRoom) components.get(0);
+        this.MedRoom = (MedicoRoom) components.get(1);
+        this.LTPoolRoom = (LToolPool) components.get(2);
+        this.LRPoolRoom = (LResourcePool) components.get(3);
     }
 
-    public RoomUnit LoadOneRoom(String RoomType, String RoomBlock, String RoomFloor, String RoomNumber) throws Exception {
-        String RoomCode = RoomUnit.ConstructRoomCodeID(RoomBlock, RoomType, RoomFloor, RoomNumber);
-        String Temp1RoomCode = RoomUnitUtils.ConstructRoomCodeID(RoomBlock, RoomFloor, RoomNumber);
-        String Temp2RoomCode = RoomUnitUtils.ConstructRoomCodeID(RoomFloor, RoomNumber);
-        
-        JSONParser parser = new JSONParser();
-        JSONArray array = (JSONArray) parser.parse(MergedRoom.GetRoomCodeFile());
-
-        String[] Argument = MergedRoom.GetSavedName();
-
-        for (Object obj: array) {
-            JSONObject jsonObject = (JSONObject) obj;
-            String JsonRoomCode = (String) jsonObject.get(Argument[0]);
-            if (JsonRoomCode.equals(RoomCode) || JsonRoomCode.contains(Temp1RoomCode) || 
-            JsonRoomCode.contains(Temp2RoomCode)) {
-                String RoomName = (String) jsonObject.get(Argument[1]);
-                String RoomDescription = (String) jsonObject.get(Argument[2]);
-
-                return this.BuildOneRoom(RoomBlock, RoomType, RoomFloor, RoomNumber, RoomName, RoomDescription);
-            }
+    private static BaseRoomContainer LoadComponentRoom(String ID, int index) throws Exception {
+        // Step 01: Resolve the component file, which is "[WorkingDirectory]/[ComponentName].json".
+        // The file written by the older version (without the ".json" extension) is still accepted.
+        File file = new File(MergedRoom.GetComponentFile(ID, index));
+        if (!file.exists()) { file = new File(MergedRoom.GetComponentDirectory(ID, index)); }
+
+        // Step 02: If the component file is not found (or cannot be read), build an empty component.
+        if (!file.isFile()) { return MergedRoom.MakeComponentRoom(index, ID); }
+        try {
+            Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(file.getPath(), null);
+            return MergedRoom.MakeComponentRoom(index, data);
+        } catch (Exception e) { 
+            e.printStackTrace(); 
+            return MergedRoom.MakeComponentRoom(index, ID);
         }
-        return null;
+    }
+
+    public RoomUnit LoadOneRoom(String RoomType, String RoomBlock, String RoomFloor, String RoomNumber) throws Exception {
+        // The room-code file is loaded once into the RoomCatalog, so this is only a hash probe.
+        String[] entry = RoomCatalog.GetCatalog().Find(RoomType, RoomBlock, RoomFloor, RoomNumber);
+        if (entry == null) { return null; }
+        return this.BuildOneRoom(entry[0], entry[1], entry[2]);
+    }
+
+    public RoomUnit LoadOneRoom(String RoomCode) throws Exception {
+        String[] entry = RoomCatalog.GetCatalog().FindByRoomCode(RoomCode);
+        if (entry == null) { return null; }
+        return this.BuildOneRoom(entry[0], entry[1], entry[2]);
     }
 
     public RoomUnit LoadOneRoom(String RoomBlock, String RoomFloor, String RoomNumber) throws Exception {
@@ -107,6 +108,10 @@ public class MergedRoom {
     public RoomUnit BuildOneRoom(String RoomBlock, String RoomType, String RoomFloor, String RoomNumber, 
                                  String RoomName, String RoomDescription) throws Exception {
         String RoomCode = RoomUnit.ConstructRoomCodeID(RoomBlock, RoomType, RoomFloor, RoomNumber);
+        return this.BuildOneRoom(RoomCode, RoomName, RoomDescription);
+    }
+
+    public RoomUnit BuildOneRoom(String RoomCode, String RoomName, String RoomDescription) throws Exception {
         if (RoomName == null) { RoomName = "";}
         if (RoomDescription == null) { RoomDescription = "";}
 
@@ -143,6 +148,16 @@ public class MergedRoom {
         return this.GetWorkingDirectory() + "/" + MergedRoom.GetComponentName()[index];
     }
 
+    public static String GetComponentDirectory(String RoomID, int index) {
+        return MergedRoom.GetRoomDirectory() + "/" + RoomID + "/" + MergedRoom.GetComponentName()[index];
+    }
+
+    public String GetComponentFile(int index) { return this.GetComponentDirectory(index) + ".json"; }
+
+    public static String GetComponentFile(String RoomID, int index) {
+        return MergedRoom.GetComponentDirectory(RoomID, index) + ".json";
+    }
+
     public RoomUnit GetRoom() { return this.Room; }
     public void SetRoomName(String RoomName) throws Exception { this.GetRoom().SetName(RoomName); }
     public void SetRoomDescription(String RoomDescription) { this.GetRoom().SetDescription(RoomDescription); }
@@ -153,56 +168,70 @@ public class MergedRoom {
     public LToolPool GetLTPoolRoom() { return this.LTPoolRoom; }
     public LResourcePool GetLRPoolRoom() { return this.LRPoolRoom; }
 
+    public BaseRoomContainer GetComponentRoom(int index) throws Exception {
+        switch(index) {
+            case 0: return this.GetPtRoom();
+            case 1: return this.GetMedRoom();
+            case 2: return this.GetLTPoolRoom();
+            case 3: return this.GetLRPoolRoom();
+            default: throw new Exception("The index is out of range.");
+        }
+    }
+
+    public boolean IsDirty() throws Exception {
+        for (int i = 0; i < MergedRoom.GetComponentName().length; i++) {
+            BaseRoomContainer component = this.GetComponentRoom(i);
+            if (component != null && component.IsDirty()) { return true; }
+        }
+        return false;
+    }
+
     // -----------------------------------------------------------
-    // Setter
-    private void MakePtRoom(String ID) throws Exception { this.PtRoom = new PatientRoom(ID); }
-    private void MakeMedRoom(String ID) throws Exception { this.MedRoom = new MedicoRoom(ID); }
-    private void MakeLTPoolRoom(String ID) throws Exception { this.LTPoolRoom = new LToolPool(ID); }
-    private void MakeLRPoolRoom(String ID) throws Exception { this.LRPoolRoom = new LResourcePool(ID); }
-
-    private void MakePtRoom(Hashtable<String, Object> data) throws Exception { this.PtRoom = PatientRoom.Deserialize(data); }
-    private void MakeMedRoom(Hashtable<String, Object> data) throws Exception { this.MedRoom = MedicoRoom.Deserialize(data); }
-    private void MakeLTPoolRoom(Hashtable<String, Object> data) throws Exception { this.LTPoolRoom = LToolPool.Deserialize(data); }
-    private void MakeLRPoolRoom(Hashtable<String, Object> data) throws Exception { this.LRPoolRoom = LResourcePool.Deserialize(data); }
-
-    private void MakeComponentRoom(int index, Hashtable<String, Object> data) throws Exception {
+    // Factory
+    private static BaseRoomContainer MakeComponentRoom(int index, Hashtable<String, Object> data) throws Exception {
         switch(index) {
-            case 0: this.MakePtRoom(data); break;
-            case 1: this.MakeMedRoom(data); break;
-            case 2: this.MakeLTPoolRoom(data); break;
-            case 3: this.MakeLRPoolRoom(data); break;
+            case 0: return PatientRoom.Deserialize(data);
+            case 1: return MedicoRoom.Deserialize(data);
+            case 2: return LToolPool.Deserialize(data);
+            case 3: return LResourcePool.Deserialize(data);
             default: throw new Exception("The index is out of range.");
         }
     }
 
-    private void MakeComponentRoom(int index, String ID) throws Exception {
+    private static BaseRoomContainer MakeComponentRoom(int index, String ID) throws Exception {
         switch(index) {
-            case 0: this.MakePtRoom(ID); break;
-            case 1: this.MakeMedRoom(ID); break;
-            case 2: this.MakeLTPoolRoom(ID); break;
-            case 3: this.MakeLRPoolRoom(ID); break;
+            case 0: return new PatientRoom(ID);
+            case 1: return new MedicoRoom(ID);
+            case 2: return new LToolPool(ID);
+            case 3: return new LResourcePool(ID);
             default: throw new Exception("The index is out of range.");
         }
     }
 
 
     // ---------------------------------------------------------------------------------------------------------------------
+    public void Flush() throws Exception {
+        // Serialize the changed (dirty) component rooms only.
+        if (this.GetRoom() == null) { return ; }
+        for (int i = 0; i < MergedRoom.GetComponentName().length; i++) {
+            BaseRoomContainer component = this.GetComponentRoom(i);
+            if (component == null || !component.IsDirty()) { continue; }
+            
+            File file = new File(this.GetComponentFile(i));
+            file.getParentFile().mkdirs();
+            component.MarkClean();
+            JsonUtils.SaveHashTableIntoJsonFile(file.getPath(), component.Serialize(), null);
+        }
+    }
+
     public void Reset() throws Exception {
-        // Serialize all component room -> Set null -> Run garbage collector
-        JsonUtils.SaveHashTableIntoJsonFile(this.GetComponentDirectory(0), 
-                                        this.GetPtRoom().Serialize(), null);
-        JsonUtils.SaveHashTableIntoJsonFile(this.GetComponentDirectory(1), 
-                                        this.GetMedRoom().Serialize(), null);
-        JsonUtils.SaveHashTableIntoJsonFile(this.GetComponentDirectory(2), 
-                                        this.GetLTPoolRoom().Serialize(), null);
-        JsonUtils.SaveHashTableIntoJsonFile(this.GetComponentDirectory(3), 
-                                        this.GetLRPoolRoom().Serialize(), null);
-        
+        // Serialize all changed component room -> Set null. The garbage collector would take the
+        // unreferenced component rooms by itself, so we don't force it here.
+        this.Flush();
         this.Room = null;
         this.PtRoom = null;
         this.MedRoom = null;
         this.LTPoolRoom = null;
         this.LRPoolRoom = null;
-        System.gc();
     }
 }
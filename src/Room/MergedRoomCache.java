@@ -0,0 +1,245 @@
+package Room;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import Utility.DataUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is a bounded LRU (least-recently-used) cache of the loaded "MergedRoom", keyed by
+ * the room-code. A "MergedRoom" only holds one room, and switching between rooms used to cost
+ * four writes, four reads and a forced garbage collection. With this cache, a room stays loaded
+ * until it is evicted, and only the changed (dirty) components are written back at eviction.
+ *
+ * Concurrency model:
+ * 1) Every thread asking for the same room shares the same "MergedRoom" instance. If the room
+ *    is being loaded by another thread, we wait for that loading instead of loading it twice.
+ * 2) The eviction (write-back) is done outside the lock of the cache. Until the write-back is
+ *    done, the evicted room is kept in "Evicting" so it is re-used instead of being re-loaded
+ *    from a stale file on disk.
+ * 3) A caller which changes a room over several steps pins it (PinRoom() ... UnpinRoom()). A pinned
+ *    room is never evicted, so its changes cannot be made on an instance which was already written
+ *    back. The cache may hold more than "MaxRooms" rooms while they are pinned; the extra rooms are
+ *    evicted when they are unpinned.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/LinkedHashMap.html (access-order)
+ * 2) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/CompletableFuture.html
+**/
+
+public class MergedRoomCache {
+    private static final int DEFAULT_MAX_ROOMS = 64;
+    private static final MergedRoomCache DefaultCache = new MergedRoomCache(DEFAULT_MAX_ROOMS);
+
+    private final int MaxRooms;
+    private final LinkedHashMap<String, MergedRoom> Rooms;                          // Guarded by "this"
+    private final ConcurrentHashMap<String, CompletableFuture<MergedRoom>> Loading;
+    private final ConcurrentHashMap<String, MergedRoom> Evicting;
+    private final HashMap<String, Integer> Pins;                                    // Guarded by "this"
+
+    public MergedRoomCache(int MaxRooms) {
+        DataUtils.CheckArgumentCondition(MaxRooms > 0, "The maximum number of rooms must be positive.");
+        this.MaxRooms = MaxRooms;
+        this.Rooms = new LinkedHashMap<String, MergedRoom>(MaxRooms * 2, 0.75f, true);
+        this.Loading = new ConcurrentHashMap<String, CompletableFuture<MergedRoom>>();
+        this.Evicting = new ConcurrentHashMap<String, MergedRoom>();
+        this.Pins = new HashMap<String, Integer>();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getter
+    public static MergedRoomCache GetDefaultCache() { return MergedRoomCache.DefaultCache; }
+
+    public int GetMaxRooms() { return this.MaxRooms; }
+    public synchronized int GetNumberOfRooms() { return this.Rooms.size(); }
+    public synchronized boolean IsRoomLoaded(String RoomCode) { return this.Rooms.containsKey(RoomCode); }
+    public synchronized boolean IsRoomPinned(String RoomCode) { return this.Pins.containsKey(RoomCode); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Loader
+    private synchronized MergedRoom GetLoadedRoom(String RoomCode) { return this.Rooms.get(RoomCode); }
+
+    private ArrayList<MergedRoom> PutRoom(String RoomCode, MergedRoom room) {
+        // Return the evicted rooms, which must be written back by the caller outside the lock.
+        synchronized (this) {
+            this.Rooms.put(RoomCode, room);
+            return this.EvictEldest();
+        }
+    }
+
+    private ArrayList<MergedRoom> EvictEldest() {
+        // Called under the lock: evict the least-recently-used rooms which are not pinned.
+        ArrayList<MergedRoom> evicted = new ArrayList<MergedRoom>(1);
+        Iterator<Entry<String, MergedRoom>> it = this.Rooms.entrySet().iterator();
+        while (this.Rooms.size() > this.MaxRooms && it.hasNext()) {
+            Entry<String, MergedRoom> eldest = it.next();
+            if (this.Pins.containsKey(eldest.getKey())) { continue; }
+            this.Evicting.put(eldest.getKey(), eldest.getValue());
+            evicted.add(eldest.getValue());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private void WriteBack(MergedRoom room) {
+        String RoomCode = room.GetRoom().GetID();
+        try { room.Flush(); }
+        catch (Exception e) { e.printStackTrace(); }
+        finally { this.Evicting.remove(RoomCode, room); }
+    }
+
+    /**
+     * This function will return the loaded room by its room-code. If the room is not cached,
+     * it will be loaded from the "RoomCatalog" and its saved component files.
+     *
+     * @param RoomCode (String): The room-code of the room.
+     * @return (MergedRoom) The shared room, or null if the room-code is not in the catalog.
+     * @throws Exception If the room cannot be loaded.
+     */
+    public MergedRoom GetRoom(String RoomCode) throws Exception {
+        DataUtils.CheckArgumentCondition(RoomCode != null, "The room-code cannot be null.");
+        MergedRoom room = this.GetLoadedRoom(RoomCode);
+        if (room != null) { return room; }
+
+        CompletableFuture<MergedRoom> future = new CompletableFuture<MergedRoom>();
+        CompletableFuture<MergedRoom> existing = this.Loading.putIfAbsent(RoomCode, future);
+        if (existing != null) {
+            try { return existing.get(); }
+            catch (ExecutionException e) { throw new Exception("The room cannot be loaded: " + RoomCode, e.getCause()); }
+        }
+
+        ArrayList<MergedRoom> evicted = new ArrayList<MergedRoom>(0);
+        try {
+            // Double-check: the room may be loaded (or being written back) since our first lookup.
+            room = this.GetLoadedRoom(RoomCode);
+            if (room == null) { room = this.Evicting.get(RoomCode); }
+            if (room == null) {
+                room = new MergedRoom();
+                if (room.LoadOneRoom(RoomCode) == null) { room = null; }
+            }
+            if (room != null) { evicted = this.PutRoom(RoomCode, room); }
+            future.complete(room);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.Loading.remove(RoomCode, future);
+        }
+
+        for (MergedRoom EvictedRoom : evicted) { this.WriteBack(EvictedRoom); }
+        return room;
+    }
+
+    /**
+     * This function returns the loaded room like GetRoom(), and pins it: the room is not evicted until
+     * UnpinRoom() is called (once per call of PinRoom()). Use it in a try-finally block.
+     *
+     * @param RoomCode (String): The room-code of the room.
+     * @return (MergedRoom) The shared room, or null if the room-code is not in the catalog (not pinned).
+     * @throws Exception If the room cannot be loaded.
+     */
+    public MergedRoom PinRoom(String RoomCode) throws Exception {
+        while (true) {
+            MergedRoom room = this.GetRoom(RoomCode);
+            if (room == null) { return null; }
+            synchronized (this) {
+                // If the room has been evicted since GetRoom(), try again: it is re-used from "Evicting".
+                if (this.Rooms.get(RoomCode) == room) {
+                    this.Pins.merge(RoomCode, 1, Integer::sum);
+                    return room;
+                }
+            }
+        }
+    }
+
+    public void UnpinRoom(String RoomCode) {
+        ArrayList<MergedRoom> evicted;
+        synchronized (this) {
+            Integer count = this.Pins.get(RoomCode);
+            DataUtils.CheckArgumentCondition(count != null, "The room is not pinned: " + RoomCode);
+            if (count == 1) { this.Pins.remove(RoomCode); } else { this.Pins.put(RoomCode, count - 1); }
+            evicted = this.EvictEldest();
+        }
+        for (MergedRoom EvictedRoom : evicted) { this.WriteBack(EvictedRoom); }
+    }
+
+    public void UnpinRoom(MergedRoom room) { this.UnpinRoom(room.GetRoom().GetID()); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Write-back
+    public void Flush() {
+        // Write back all changed rooms but keep them in the cache.
+        ArrayList<MergedRoom> rooms;
+        synchronized (this) { rooms = new ArrayList<MergedRoom>(this.Rooms.values()); }
+        for (MergedRoom room : rooms) {
+            try { room.Flush(); }
+            catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+
+    /**
+     * This function writes back and drops the room from the cache. A pinned room is only written back.
+     * @return (boolean) True if the room is evicted.
+     */
+    public boolean Evict(String RoomCode) {
+        MergedRoom room;
+        boolean pinned;
+        synchronized (this) {
+            pinned = this.Pins.containsKey(RoomCode);
+            room = pinned ? this.Rooms.get(RoomCode) : this.Rooms.remove(RoomCode);
+            if (room != null && !pinned) { this.Evicting.put(RoomCode, room); }
+        }
+        if (room == null) { return false; }
+        if (pinned) {
+            try { room.Flush(); }
+            catch (Exception e) { e.printStackTrace(); }
+            return false;
+        }
+        this.WriteBack(room);
+        return true;
+    }
+
+    /**
+     * This function writes back all rooms and drops them from the cache, except the pinned rooms
+     * which are only written back.
+     * @return (int) The number of evicted rooms.
+     */
+    public int EvictAll() {
+        ArrayList<MergedRoom> rooms = new ArrayList<MergedRoom>(), PinnedRooms = new ArrayList<MergedRoom>();
+        synchronized (this) {
+            Iterator<Entry<String, MergedRoom>> it = this.Rooms.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<String, MergedRoom> entry = it.next();
+                if (this.Pins.containsKey(entry.getKey())) { PinnedRooms.add(entry.getValue()); continue; }
+                this.Evicting.put(entry.getKey(), entry.getValue());
+                rooms.add(entry.getValue());
+                it.remove();
+            }
+        }
+        for (MergedRoom room : rooms) { this.WriteBack(room); }
+        for (MergedRoom room : PinnedRooms) {
+            try { room.Flush(); }
+            catch (Exception e) { e.printStackTrace(); }
+        }
+        return rooms.size();
+    }
+}
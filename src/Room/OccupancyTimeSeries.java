@@ -0,0 +1,442 @@
+package Room;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import Utility.DataUtils;
+import Utility.ExecutorUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the append-only occupancy time-series of the "PatientRoom" (or "MedicoRoom").
+ * Every person mutation of a room (see the method AddOrUpdatePerson()) emits one event
+ * {time, room, occupancy}, where the occupancy is the number of persons in the room after the change.
+ *
+ * The events are buffered in memory and appended in batches to a columnar store (one file per column),
+ * and every completed day is compacted into two rollups: hourly and daily. After the compaction, the
+ * raw events of that day are deleted, so the queries over months only read the (small) rollup files.
+ * Once Start() is called (by the warm start, see WarmStart.java), the completed days of the two shared
+ * series are compacted every hour on the scheduler thread (see ExecutorUtils.SchedulePeriodic()), and
+ * their buffers are flushed when the program exits. A day without any event is compacted too: the
+ * occupancy of each room is carried over from its last known value.
+ *
+ *   database/Occupancy/[Patient|Medico]/raw/[yyyy-MM-dd]/{Time,Room,Value}.col
+ *   database/Occupancy/[Patient|Medico]/hourly/[yyyy-MM-dd].bin      -> 24 rows per room
+ *   database/Occupancy/[Patient|Medico]/daily/[yyyy-MM].bin          -> 1 row per room per day
+ *
+ * Each rollup row stored {StartTime, Room, Open, Close, Max, WeightedSum}. The occupancy is a step
+ * function, so WeightedSum is the sum of (occupancy x milliseconds) in the period, and the average
+ * occupancy is WeightedSum / (length of the period). The room is the packed room-code (see RoomCode.java),
+ * and the days are counted in UTC. Rooms whose ID is not a valid room-code are not recorded.
+ *
+ * Note that the buffered events of a series are lost if the program is killed, or stopped without calling
+ * Flush() (the shared series are flushed at the exit only after Start()).
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/io/DataOutputStream.html
+**/
+
+public class OccupancyTimeSeries {
+    private static final String OCCUPANCY_DIRECTORY = "database/Occupancy";
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long DAY = 24L * HOUR;
+    private static final int BATCH_SIZE = 1024;
+    private static final long COMPACTION_PERIOD = 60L;                                  // In minutes
+
+    private static final OccupancyTimeSeries PatientSeries = new OccupancyTimeSeries("Patient");
+    private static final OccupancyTimeSeries MedicoSeries = new OccupancyTimeSeries("Medico");
+    private static boolean Started = false;
+
+    private final String directory;
+    private final long[] BufferTime, BufferRoom;                // Guarded by "this"
+    private final int[] BufferValue;
+    private int BufferSize = 0;
+
+    public OccupancyTimeSeries(String name) {
+        this.directory = OccupancyTimeSeries.OCCUPANCY_DIRECTORY + "/" + name;
+        this.BufferTime = new long[BATCH_SIZE];
+        this.BufferRoom = new long[BATCH_SIZE];
+        this.BufferValue = new int[BATCH_SIZE];
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getter
+    public static OccupancyTimeSeries GetPatientSeries() { return OccupancyTimeSeries.PatientSeries; }
+    public static OccupancyTimeSeries GetMedicoSeries() { return OccupancyTimeSeries.MedicoSeries; }
+    public static long GetHourLength() { return OccupancyTimeSeries.HOUR; }
+    public static long GetDayLength() { return OccupancyTimeSeries.DAY; }
+
+    public String GetDirectory() { return this.directory; }
+
+    /**
+     * This function compacts the completed days of the two shared series, then schedules their periodic
+     * compaction and their flush at the exit. Only the first call schedules them.
+     * @return (int) The number of days compacted now.
+     */
+    public static synchronized int Start() {
+        if (!OccupancyTimeSeries.Started) {
+            ExecutorUtils.SchedulePeriodic(() -> {
+                OccupancyTimeSeries.PatientSeries.Compact();
+                OccupancyTimeSeries.MedicoSeries.Compact();
+            }, COMPACTION_PERIOD, TimeUnit.MINUTES);
+            ExecutorUtils.RunAtShutdown("OccupancyTimeSeries-Flush", () -> {
+                OccupancyTimeSeries.PatientSeries.Flush();
+                OccupancyTimeSeries.MedicoSeries.Flush();
+            });
+            OccupancyTimeSeries.Started = true;
+        }
+        return OccupancyTimeSeries.PatientSeries.Compact() + OccupancyTimeSeries.MedicoSeries.Compact();
+    }
+    private File GetRawDirectory(long day) { return new File(this.directory + "/raw/" + LocalDate.ofEpochDay(day)); }
+    private File GetHourlyFile(long day) { return new File(this.directory + "/hourly/" + LocalDate.ofEpochDay(day) + ".bin"); }
+    private File GetDailyFile(YearMonth month) { return new File(this.directory + "/daily/" + month + ".bin"); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Rollup row
+    public static class Rollup {
+        public final long StartTime, RoomCode;             // RoomCode is RoomCode.INVALID for an aggregated row
+        public final int Open, Close, Max;
+        public final long WeightedSum;
+
+        public Rollup(long StartTime, long RoomCode, int Open, int Close, int Max, long WeightedSum) {
+            this.StartTime = StartTime;
+            this.RoomCode = RoomCode;
+            this.Open = Open;
+            this.Close = Close;
+            this.Max = Max;
+            this.WeightedSum = WeightedSum;
+        }
+
+        public double GetAverage(long length) { return (double) this.WeightedSum / length; }
+        public LocalDate GetDate() { return LocalDate.ofEpochDay(Math.floorDiv(this.StartTime, DAY)); }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Recording
+    public void Record(String RoomCodeID, int occupancy) { this.Record(RoomCodeID, System.currentTimeMillis(), occupancy); }
+
+    public synchronized void Record(String RoomCodeID, long time, int occupancy) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        if (packed == RoomCode.INVALID) { return ; }
+        DataUtils.CheckArgumentCondition(occupancy >= 0, "The occupancy must be non-negative.");
+
+        // A batch never crossed a day, so each batch is appended to exactly one raw directory.
+        if (this.BufferSize > 0 && Math.floorDiv(this.BufferTime[0], DAY) != Math.floorDiv(time, DAY)) { this.Flush(); }
+        this.BufferTime[this.BufferSize] = time;
+        this.BufferRoom[this.BufferSize] = packed;
+        this.BufferValue[this.BufferSize] = occupancy;
+        this.BufferSize++;
+        if (this.BufferSize == BATCH_SIZE) { this.Flush(); }
+    }
+
+    public synchronized void Flush() {
+        if (this.BufferSize == 0) { return ; }
+        File folder = this.GetRawDirectory(Math.floorDiv(this.BufferTime[0], DAY));
+        folder.mkdirs();
+
+        try (DataOutputStream time = OccupancyTimeSeries.OpenAppend(new File(folder, "Time.col"));
+             DataOutputStream room = OccupancyTimeSeries.OpenAppend(new File(folder, "Room.col"));
+             DataOutputStream value = OccupancyTimeSeries.OpenAppend(new File(folder, "Value.col"))) {
+            for (int i = 0; i < this.BufferSize; i++) {
+                time.writeLong(this.BufferTime[i]);
+                room.writeLong(this.BufferRoom[i]);
+                value.writeInt(this.BufferValue[i]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.BufferSize = 0;
+    }
+
+    private static DataOutputStream OpenAppend(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private static DataInputStream OpenRead(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Rollup files: [count] [StartTime x count] [Room x count] [Open x count] [Close x count] [Max x count] [WeightedSum x count]
+    private static void WriteRollups(File file, List<Rollup> rows) throws IOException {
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(rows.size());
+            for (Rollup row : rows) { out.writeLong(row.StartTime); }
+            for (Rollup row : rows) { out.writeLong(row.RoomCode); }
+            for (Rollup row : rows) { out.writeInt(row.Open); }
+            for (Rollup row : rows) { out.writeInt(row.Close); }
+            for (Rollup row : rows) { out.writeInt(row.Max); }
+            for (Rollup row : rows) { out.writeLong(row.WeightedSum); }
+        }
+        if (file.exists() && !file.delete()) { throw new IOException("Cannot replace the file: " + file.getPath()); }
+        if (!temporary.renameTo(file)) { throw new IOException("Cannot rename the file: " + temporary.getPath()); }
+    }
+
+    private static List<Rollup> ReadRollups(File file) {
+        ArrayList<Rollup> rows = new ArrayList<Rollup>();
+        if (!file.exists()) { return rows; }
+        try (DataInputStream in = OccupancyTimeSeries.OpenRead(file)) {
+            int count = in.readInt();
+            long[] StartTime = new long[count], RoomCode = new long[count], WeightedSum = new long[count];
+            int[] Open = new int[count], Close = new int[count], Max = new int[count];
+            for (int i = 0; i < count; i++) { StartTime[i] = in.readLong(); }
+            for (int i = 0; i < count; i++) { RoomCode[i] = in.readLong(); }
+            for (int i = 0; i < count; i++) { Open[i] = in.readInt(); }
+            for (int i = 0; i < count; i++) { Close[i] = in.readInt(); }
+            for (int i = 0; i < count; i++) { Max[i] = in.readInt(); }
+            for (int i = 0; i < count; i++) { WeightedSum[i] = in.readLong(); }
+            for (int i = 0; i < count; i++) {
+                rows.add(new Rollup(StartTime[i], RoomCode[i], Open[i], Close[i], Max[i], WeightedSum[i]));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return rows;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Compaction
+    private List<YearMonth> GetDailyMonths() {
+        // The months which have a daily rollup file, oldest first.
+        ArrayList<YearMonth> months = new ArrayList<YearMonth>();
+        File[] files = new File(this.directory + "/daily").listFiles((folder, name) -> name.endsWith(".bin"));
+        if (files == null) { return months; }
+        for (File file : files) {
+            try { months.add(YearMonth.parse(file.getName().substring(0, file.getName().length() - 4))); }
+            catch (Exception e) { System.out.println("Warning: The file " + file.getPath() + " is not a daily rollup."); }
+        }
+        months.sort(null);
+        return months;
+    }
+
+    private HashMap<Long, Integer> GetOpenValues(long day) {
+        // The occupancy of each room at the start of the day: the close value of its last daily row before
+        // that day. The months are read backward until one of them has a row, so the last known value is
+        // carried over the days which are not compacted (yet).
+        HashMap<Long, Integer> values = new HashMap<Long, Integer>();
+        HashMap<Long, Long> LastTimes = new HashMap<Long, Long>();
+        long start = day * DAY;
+        YearMonth last = YearMonth.from(LocalDate.ofEpochDay(day - 1));
+        List<YearMonth> months = this.GetDailyMonths();
+        for (int i = months.size() - 1; i >= 0 && values.isEmpty(); i--) {
+            if (months.get(i).isAfter(last)) { continue; }
+            for (Rollup row : OccupancyTimeSeries.ReadRollups(this.GetDailyFile(months.get(i)))) {
+                if (row.StartTime >= start || row.StartTime < LastTimes.getOrDefault(row.RoomCode, Long.MIN_VALUE)) { continue; }
+                LastTimes.put(row.RoomCode, row.StartTime);
+                values.put(row.RoomCode, row.Close);
+            }
+        }
+        return values;
+    }
+
+    private long GetLastCompactedDay() {
+        // The last day which has a daily row, or Long.MIN_VALUE if none.
+        List<YearMonth> months = this.GetDailyMonths();
+        long day = Long.MIN_VALUE;
+        for (int i = months.size() - 1; i >= 0 && day == Long.MIN_VALUE; i--) {
+            for (Rollup row : OccupancyTimeSeries.ReadRollups(this.GetDailyFile(months.get(i)))) {
+                day = Math.max(day, Math.floorDiv(row.StartTime, DAY));
+            }
+        }
+        return day;
+    }
+
+    private static long[] ReadLongColumn(File file, int count) throws IOException {
+        long[] column = new long[count];
+        try (DataInputStream in = OccupancyTimeSeries.OpenRead(file)) {
+            for (int i = 0; i < count; i++) { column[i] = in.readLong(); }
+        }
+        return column;
+    }
+
+    /**
+     * This function compacts the raw events of a (completed) day into its hourly and daily rollups,
+     * and then deletes the raw events. The occupancy at the start of the day is the last known value
+     * of each room (see GetOpenValues()), so the days before should be compacted first. A day without
+     * raw events is compacted from these values only.
+     *
+     * @param date (LocalDate): The day (UTC) to be compacted.
+     * @return (boolean) True if there are raw events of that day, or an occupied room carried over.
+     */
+    public synchronized boolean Compact(LocalDate date) throws IOException {
+        this.Flush();
+        long day = date.toEpochDay();
+        File folder = this.GetRawDirectory(day);
+        boolean raw = folder.isDirectory();
+        HashMap<Long, Integer> OpenValues = this.GetOpenValues(day);
+        if (!raw && !OpenValues.values().stream().anyMatch(value -> value > 0)) { return false; }
+
+        // Step 01: Read the columns (a torn write at the end is ignored)
+        File TimeFile = new File(folder, "Time.col"), RoomFile = new File(folder, "Room.col"), ValueFile = new File(folder, "Value.col");
+        int count = raw ? (int) Math.min(Math.min(TimeFile.length() / 8, RoomFile.length() / 8), ValueFile.length() / 4) : 0;
+        long[] times = raw ? OccupancyTimeSeries.ReadLongColumn(TimeFile, count) : new long[0];
+        long[] rooms = raw ? OccupancyTimeSeries.ReadLongColumn(RoomFile, count) : new long[0];
+        int[] values = new int[count];
+        if (raw) {
+            try (DataInputStream in = OccupancyTimeSeries.OpenRead(ValueFile)) {
+                for (int i = 0; i < count; i++) { values[i] = in.readInt(); }
+            }
+        }
+
+        // Step 02: Group the events by room, sorted by time
+        TreeMap<Long, ArrayList<Integer>> EventsByRoom = new TreeMap<Long, ArrayList<Integer>>();
+        for (Long room : OpenValues.keySet()) { EventsByRoom.put(room, new ArrayList<Integer>()); }
+        for (int i = 0; i < count; i++) { EventsByRoom.computeIfAbsent(rooms[i], key -> new ArrayList<Integer>()).add(i); }
+
+        // Step 03: Sweep the step function of each room over the 24 hours
+        ArrayList<Rollup> hourly = new ArrayList<Rollup>(), daily = new ArrayList<Rollup>();
+        long DayStart = day * DAY;
+        for (Entry<Long, ArrayList<Integer>> entry : EventsByRoom.entrySet()) {
+            long room = entry.getKey();
+            Integer[] events = entry.getValue().toArray(new Integer[0]);
+            Arrays.sort(events, (a, b) -> Long.compare(times[a], times[b]));
+
+            int current = OpenValues.getOrDefault(room, 0), DayOpen = current, DayMax = current, position = 0;
+            long DayWeightedSum = 0;
+            for (long HourStart = DayStart; HourStart < DayStart + DAY; HourStart += HOUR) {
+                long HourEnd = HourStart + HOUR, cursor = HourStart, WeightedSum = 0;
+                int HourOpen = current, HourMax = current;
+                while (position < events.length && times[events[position]] < HourEnd) {
+                    long time = Math.max(times[events[position]], HourStart);
+                    WeightedSum += (long) current * (time - cursor);
+                    cursor = time;
+                    current = values[events[position++]];
+                    HourMax = Math.max(HourMax, current);
+                }
+                WeightedSum += (long) current * (HourEnd - cursor);
+                if (HourMax > 0) { hourly.add(new Rollup(HourStart, room, HourOpen, current, HourMax, WeightedSum)); }
+                DayMax = Math.max(DayMax, HourMax);
+                DayWeightedSum += WeightedSum;
+            }
+            if (DayMax > 0) { daily.add(new Rollup(DayStart, room, DayOpen, current, DayMax, DayWeightedSum)); }
+        }
+
+        // Step 04: Write the rollups (the daily rows of that day are replaced), then drop the raw events
+        OccupancyTimeSeries.WriteRollups(this.GetHourlyFile(day), hourly);
+        File DailyFile = this.GetDailyFile(YearMonth.from(date));
+        ArrayList<Rollup> month = new ArrayList<Rollup>();
+        for (Rollup row : OccupancyTimeSeries.ReadRollups(DailyFile)) { if (row.StartTime != DayStart) { month.add(row); } }
+        month.addAll(daily);
+        month.sort((a, b) -> a.StartTime != b.StartTime ? Long.compare(a.StartTime, b.StartTime) : Long.compare(a.RoomCode, b.RoomCode));
+        OccupancyTimeSeries.WriteRollups(DailyFile, month);
+
+        if (raw) {
+            for (File file : new File[] {TimeFile, RoomFile, ValueFile}) { file.delete(); }
+            folder.delete();
+        }
+        return true;
+    }
+
+    public synchronized int CompactBefore(LocalDate date) {
+        // Compact all days before the given day (oldest first), i.e CompactBefore(today) compacts all completed days:
+        // every raw day, and every day after the last compacted one (whose occupancy is carried over).
+        this.Flush();
+        TreeSet<Long> days = new TreeSet<Long>();
+        File[] folders = new File(this.directory + "/raw").listFiles(File::isDirectory);
+        for (File folder : folders == null ? new File[0] : folders) {
+            try { days.add(LocalDate.parse(folder.getName()).toEpochDay()); }
+            catch (Exception e) { System.out.println("Warning: The folder " + folder.getPath() + " is not a raw day."); }
+        }
+        long LastDay = this.GetLastCompactedDay();
+        if (LastDay != Long.MIN_VALUE || !days.isEmpty()) {
+            for (long day = LastDay != Long.MIN_VALUE ? LastDay + 1 : days.first(); day < date.toEpochDay(); day++) { days.add(day); }
+        }
+
+        int count = 0;
+        for (Long day : days) {
+            if (day >= date.toEpochDay()) { break; }
+            try { if (this.Compact(LocalDate.ofEpochDay(day))) { count++; } }
+            catch (Exception e) { e.printStackTrace(); }
+        }
+        return count;
+    }
+
+    public int Compact() { return this.CompactBefore(LocalDate.ofEpochDay(Math.floorDiv(System.currentTimeMillis(), DAY))); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query (rollup files only)
+    public List<Rollup> GetHourlyRollups(String RoomCodeID, LocalDate date) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        ArrayList<Rollup> result = new ArrayList<Rollup>(24);
+        for (Rollup row : OccupancyTimeSeries.ReadRollups(this.GetHourlyFile(date.toEpochDay()))) {
+            if (row.RoomCode == packed) { result.add(row); }
+        }
+        return result;
+    }
+
+    private List<Rollup> GetDailyRollups(LocalDate from, LocalDate to) {
+        ArrayList<Rollup> result = new ArrayList<Rollup>();
+        long FromTime = from.toEpochDay() * DAY, ToTime = to.toEpochDay() * DAY;
+        for (YearMonth month = YearMonth.from(from); !month.isAfter(YearMonth.from(to)); month = month.plusMonths(1)) {
+            for (Rollup row : OccupancyTimeSeries.ReadRollups(this.GetDailyFile(month))) {
+                if (row.StartTime >= FromTime && row.StartTime <= ToTime) { result.add(row); }
+            }
+        }
+        return result;
+    }
+
+    public List<Rollup> GetDailyRollups(String RoomCodeID, LocalDate from, LocalDate to) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        ArrayList<Rollup> result = new ArrayList<Rollup>();
+        for (Rollup row : this.GetDailyRollups(from, to)) { if (row.RoomCode == packed) { result.add(row); } }
+        return result;
+    }
+
+    /**
+     * This function aggregates the daily rollups of all rooms of a type (and its descendants) per day.
+     * The Open, Close and WeightedSum are the totals of all rooms; the Max is the sum of the maximum
+     * of each room, which is an upper bound of the peak occupancy of the type.
+     */
+    public List<Rollup> GetDailyRollups(RoomUnitEnum RoomType, LocalDate from, LocalDate to) {
+        DataUtils.CheckArgumentCondition(RoomType != null, "The room-type cannot be null.");
+        boolean[] selected = new boolean[RoomUnitEnum.values().length];
+        for (RoomUnitEnum type : RoomType.GetDescendants()) { selected[type.ordinal()] = true; }
+
+        TreeMap<Long, long[]> totals = new TreeMap<Long, long[]>();
+        for (Rollup row : this.GetDailyRollups(from, to)) {
+            if (!selected[RoomCode.GetTypeOrdinal(row.RoomCode)]) { continue; }
+            long[] total = totals.computeIfAbsent(row.StartTime, key -> new long[4]);
+            total[0] += row.Open;
+            total[1] += row.Close;
+            total[2] += row.Max;
+            total[3] += row.WeightedSum;
+        }
+
+        ArrayList<Rollup> result = new ArrayList<Rollup>(totals.size());
+        for (Entry<Long, long[]> entry : totals.entrySet()) {
+            long[] total = entry.getValue();
+            result.add(new Rollup(entry.getKey(), RoomCode.INVALID, (int) total[0], (int) total[1], (int) total[2], total[3]));
+        }
+        return result;
+    }
+}
@@ -49,9 +49,12 @@ import Patient.Patient;
 **/
 
 public class PatientRoom extends BaseRoomContainer {
+    private static final int DEFAULT_NUMBER_OF_BEDS = 3;
+    private int ReservedBeds = 0;               // The beds reserved for the incoming transfers (see PatientTransfer.java)
+
     public PatientRoom(String ID, int NumberOfBeds) throws Exception { super(ID, NumberOfBeds); }
 
-    public PatientRoom(String ID) throws Exception {super(ID, 3);}            // A common room may have 2-3 beds ?
+    public PatientRoom(String ID) throws Exception {super(ID, DEFAULT_NUMBER_OF_BEDS);}            // A common room may have 2-3 beds ?
 
     public PatientRoom(PatientRoom room) throws Exception { super((BaseRoomContainer) room); }
     
@@ -81,21 +84,61 @@ public class PatientRoom extends BaseRoomContainer {
 
     public boolean RemovePatient(Patient person) throws Exception { return this.RemovePerson(person.GetID()); }
 
+    // -----------------------------------------------------------
+    // Every person mutation (AddNewPerson/RemovePerson) is routed here, so we keep the index and the
+    // occupancy time-series updated. The mutations are guarded by the room itself (see PatientTransfer.java).
+    public synchronized int AddOrUpdatePerson(String ID, String name, String phone_number) throws Exception {
+        int state = super.AddOrUpdatePerson(ID, name, phone_number);
+        PersonLocationIndex.GetPatientIndex().Update(ID, this.GetID(), state == 1);
+        OccupancyTimeSeries.GetPatientSeries().Record(this.GetID(), this.GetCurrentCapacity());
+        this.PublishFreeBeds();
+        return state;
+    }
+
+    // -----------------------------------------------------------
+    // Bed reservation: A reserved bed is not available for the other patients until it is released.
+    public synchronized boolean ReserveBed() {
+        if (!this.IsPoolHasExtraSlot()) { return false; }
+        this.ReservedBeds++;
+        this.PublishFreeBeds();
+        return true;
+    }
+
+    public synchronized void ReleaseBed() throws Exception {
+        DataUtils.CheckCondition(this.ReservedBeds > 0, "There is no reserved bed to be released.");
+        this.ReservedBeds--;
+        this.PublishFreeBeds();
+    }
+
+    private void PublishFreeBeds() { BedAvailability.GetDefaultAvailability().Update(this.GetID(), this.GetNumberOfFreeBeds()); }
+
     // ---------------------------------------------------------------------------------------------------------------------
     // Getter & Setter Function
+    public static int GetDefaultNumberOfBeds() { return PatientRoom.DEFAULT_NUMBER_OF_BEDS; }
     public int GetNumberOfBeds() { return this.GetMaxCapacity(); }
     public int GetNumberOfOccupiedBeds()  { return this.GetCurrentCapacity(); }
+    public synchronized int GetNumberOfReservedBeds() { return this.ReservedBeds; }
+    public synchronized int GetNumberOfFreeBeds() { 
+        return Math.max(0, this.GetMaxCapacity() - this.GetCurrentCapacity() - this.ReservedBeds); 
+    }
+
+    public synchronized boolean IsPoolHasExtraSlot() { 
+        return this.GetCurrentCapacity() + this.ReservedBeds < this.GetMaxCapacity(); 
+    }
 
-    public void SetNumberOfBeds(int NumberOfBeds) { 
+    public synchronized void SetNumberOfBeds(int NumberOfBeds) { 
         DataUtils.CheckArgumentCondition(NumberOfBeds >= 0, "Number of Beds must be a non-negative integer.");
-        DataUtils.CheckArgumentCondition(NumberOfBeds >= this.GetCurrentCapacity(), 
+        DataUtils.CheckArgumentCondition(NumberOfBeds >= this.GetCurrentCapacity() + this.ReservedBeds, 
                              "The (updated) number of beds are pre-occupied. We cannot move it.");
         this.SetMaxCapacity(NumberOfBeds); 
+        this.PublishFreeBeds();
     }
 
     // ---------------------------------------------------------------------------------------------------------------------
     // Serialization & Deserialization
-    public Hashtable<String, Object> Serialize() { return super.Serialize(); }
+    // The reserved beds are the in-flight transfers (see PatientTransfer.java), which are never saved: the room
+    // may be written back by the cache in the middle of a transfer, so a loaded room always starts with none.
+    public synchronized Hashtable<String, Object> Serialize() { return super.Serialize(); }
 
     public static PatientRoom Deserialize(Hashtable<String, Object> data) throws Exception {
         return new PatientRoom(BaseRoomContainer.Deserialize(data));
@@ -0,0 +1,212 @@
+package Room;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Utility.DataUtils;
+import Utility.ExecutorUtils;
+import Utility.WriteAheadLog;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class moves a patient from one "PatientRoom" to another as a single atomic unit, instead of
+ * a RemovePatient() on one room and an AddNewPatient() on another (which can lose the patient or
+ * double-book the bed if the program crashed or another allocation happened in between).
+ *
+ * A transfer is done in four steps:
+ * 1) Reserve a bed in the destination room, so no concurrent allocation can take it.
+ * 2) Lock both rooms in a global order (the packed room-code, see RoomCode.java, then the room ID),
+ *    so two transfers in the opposite direction cannot deadlock. Then verify the patient is still in the source room.
+ * 3) Write the transfer record to the journal (write-ahead) and make it durable. The group commit
+ *    of the journal (see WriteAheadLog.java) shares one disk sync between the concurrent transfers.
+ * 4) Move the person entry and release the reservation, both under the locks of the two rooms.
+ *
+ * The journal record is the commit point. The rooms are saved later (see MergedRoomCache), so on
+ * start-up, Recover() rolls every journaled transfer forward (idempotently), saves the rooms and
+ * clears the journal. Checkpoint() does the same during the run, blocking the new transfers only
+ * while the rooms are being saved; the default transfer is checkpointed every CHECKPOINT_PERIOD on the
+ * scheduler thread (see ExecutorUtils.SchedulePeriodic()) and when the program exits.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Write-ahead_logging
+ * 2) https://en.wikipedia.org/wiki/Dining_philosophers_problem#Resource_hierarchy_solution
+**/
+
+public class PatientTransfer {
+    private static final String JOURNAL_FILE = "database/Room/PatientTransfer.journal";
+    private static final String TRANSFER_RECORD = "TRANSFER";
+    private static final long CHECKPOINT_PERIOD = 5L;                  // In minutes
+    private static volatile PatientTransfer DefaultTransfer = null;
+
+    private final WriteAheadLog journal;
+    private final MergedRoomCache cache;
+    private final ReentrantReadWriteLock CheckpointLock = new ReentrantReadWriteLock();
+
+    public PatientTransfer(String JournalFile, MergedRoomCache cache) throws IOException {
+        DataUtils.CheckArgumentCondition(cache != null, "The room cache cannot be null.");
+        this.journal = new WriteAheadLog(JournalFile);
+        this.cache = cache;
+    }
+
+    public static PatientTransfer GetDefaultTransfer() throws IOException {
+        if (PatientTransfer.DefaultTransfer == null) {
+            synchronized (PatientTransfer.class) {
+                if (PatientTransfer.DefaultTransfer == null) {
+                    PatientTransfer transfer = new PatientTransfer(JOURNAL_FILE, MergedRoomCache.GetDefaultCache());
+                    ExecutorUtils.SchedulePeriodic(() -> {
+                        try { transfer.Checkpoint(); } catch (Exception e) { e.printStackTrace(); }
+                    }, CHECKPOINT_PERIOD, TimeUnit.MINUTES);
+                    ExecutorUtils.RunAtShutdown("PatientTransfer-Checkpoint", () -> {
+                        try { transfer.Checkpoint(); } catch (Exception e) { e.printStackTrace(); }
+                    });
+                    PatientTransfer.DefaultTransfer = transfer;
+                }
+            }
+        }
+        return PatientTransfer.DefaultTransfer;
+    }
+
+    public static String GetJournalFile() { return PatientTransfer.JOURNAL_FILE; }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Transfer
+    private MergedRoom PinRoom(String RoomCodeID) throws Exception {
+        // The room stays in the cache until it is unpinned, so our change is written back with it.
+        MergedRoom room = this.cache.PinRoom(RoomCodeID);
+        if (room != null && room.GetPtRoom() == null) { this.cache.UnpinRoom(RoomCodeID); room = null; }
+        DataUtils.CheckCondition(room != null, "The room is not found: " + RoomCodeID);
+        return room;
+    }
+
+    /**
+     * This function moves a patient from the source room to the destination room atomically.
+     * @param PatientID (String): The ID of the patient.
+     * @param FromRoomCode (String): The room-code of the source room.
+     * @param ToRoomCode (String): The room-code of the destination room.
+     * @return (boolean) True if the patient is transferred; False if the patient is not in the source
+     *         room or there is no free bed in the destination room.
+     */
+    public boolean Transfer(String PatientID, String FromRoomCode, String ToRoomCode) throws Exception {
+        DataUtils.CheckArgumentCondition(PatientID != null, "The patient's ID cannot be null.");
+        DataUtils.CheckArgumentCondition(FromRoomCode != null && ToRoomCode != null, "The room-code cannot be null.");
+        if (FromRoomCode.equals(ToRoomCode)) { return false; }
+
+        MergedRoom SourceRoom = this.PinRoom(FromRoomCode);
+        try {
+            MergedRoom DestinationRoom = this.PinRoom(ToRoomCode);
+            try { return this.Transfer(PatientID, FromRoomCode, ToRoomCode, SourceRoom.GetPtRoom(), DestinationRoom.GetPtRoom()); }
+            finally { this.cache.UnpinRoom(ToRoomCode); }
+        } finally {
+            this.cache.UnpinRoom(FromRoomCode);
+        }
+    }
+
+    private boolean Transfer(String PatientID, String FromRoomCode, String ToRoomCode, PatientRoom source,
+                             PatientRoom destination) throws Exception {
+
+        boolean reserved = false, moved = false;
+        this.CheckpointLock.readLock().lock();
+        try {
+            // Step 01: Reserve the destination bed (under the checkpoint lock, so a checkpoint never saves it)
+            if (!destination.ReserveBed()) { return false; }
+            reserved = true;
+
+            // Step 02: Lock both rooms in the order of their packed room-code, then of their ID (for the
+            //          room-codes which cannot be packed), so the order is total
+            long FromKey = RoomCode.TryPack(FromRoomCode), ToKey = RoomCode.TryPack(ToRoomCode);
+            boolean SourceFirst = FromKey != ToKey ? FromKey < ToKey : FromRoomCode.compareTo(ToRoomCode) < 0;
+            PatientRoom first = SourceFirst ? source : destination, second = SourceFirst ? destination : source;
+            synchronized (first) {
+                synchronized (second) {
+                    String[] information = source.GetPatient(PatientID);
+                    if (information == null || destination.IsPatientAvailable(PatientID)) { return false; }
+
+                    // Step 03: The durable journal record is the commit point
+                    String TransferID = UUID.randomUUID().toString();
+                    this.journal.Sync(this.journal.Append(TRANSFER_RECORD, TransferID, PatientID, FromRoomCode, ToRoomCode,
+                                                          information[1], information[2]));
+
+                    // Step 04: Move the person entry (the reserved bed is given to the patient)
+                    source.RemovePatient(PatientID);
+                    destination.ReleaseBed();
+                    reserved = false;
+                    destination.AddOrUpdatePerson(PatientID, information[1], information[2]);
+                    moved = true;
+                }
+            }
+        } finally {
+            if (reserved) { destination.ReleaseBed(); }
+            this.CheckpointLock.readLock().unlock();
+        }
+        return moved;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Recovery & Checkpoint
+    private void Apply(String[] record) throws Exception {
+        // Roll a journaled transfer forward; applying it twice has no effect.
+        if (record.length < 7 || !TRANSFER_RECORD.equals(record[0])) { return ; }
+        String PatientID = record[2];
+        PatientRoom source = this.PinRoom(record[3]).GetPtRoom();
+        try {
+            PatientRoom destination = this.PinRoom(record[4]).GetPtRoom();
+            try {
+                if (!destination.IsPatientAvailable(PatientID)) {
+                    if (destination.IsPoolFull()) {
+                        // Keep the patient in the source room rather than losing the patient.
+                        System.out.println("Warning: The room " + record[4] + " is full; the transfer " + record[1] + " is dropped.");
+                        return ;
+                    }
+                    destination.AddOrUpdatePerson(PatientID, record[5], record[6]);
+                }
+                if (source.IsPatientAvailable(PatientID)) { source.RemovePatient(PatientID); }
+            } finally {
+                this.cache.UnpinRoom(record[4]);
+            }
+        } finally {
+            this.cache.UnpinRoom(record[3]);
+        }
+    }
+
+    public int Recover() throws Exception {
+        this.CheckpointLock.writeLock().lock();
+        try {
+            List<String[]> records = this.journal.ReadAll();
+            for (String[] record : records) {
+                try { this.Apply(record); }
+                catch (Exception e) { e.printStackTrace(); }
+            }
+            this.SaveAndTruncate();
+            return records.size();
+        } finally {
+            this.CheckpointLock.writeLock().unlock();
+        }
+    }
+
+    public void Checkpoint() throws Exception {
+        this.CheckpointLock.writeLock().lock();
+        try { this.SaveAndTruncate(); }
+        finally { this.CheckpointLock.writeLock().unlock(); }
+    }
+
+    private void SaveAndTruncate() throws Exception {
+        // The journal is only cleared after all changed rooms have been saved.
+        this.cache.Flush();
+        this.journal.Truncate();
+    }
+}
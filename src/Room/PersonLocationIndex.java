@@ -0,0 +1,170 @@
+package Room;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import BaseClass.BaseRoomContainer;
+import Utility.DataUtils;
+import Utility.JsonUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is a bidirectional index between the person (patient or medico) and the room(s)
+ * that person is placed in. The "PatientRoom" and "MedicoRoom" can only answer "who is in this
+ * room", so finding the room of a patient "Pt-..." or all rooms covered by a medico "Md-..."
+ * would require us to load every room.
+ *
+ * The index is fed by the "PatientRoom" and "MedicoRoom" on every person mutation (see the
+ * method AddOrUpdatePerson() in these classes), so both direction are the O(1) lookup:
+ * 1) PersonToRooms: Mapping the {Person.ID} & {RoomUnit.ID, ...}
+ * 2) RoomToPersons: Mapping the {RoomUnit.ID} & {Person.ID, ...}
+ *
+ * There are two separate index: one for the patients and one for the medicos since the
+ * "PatientRoom" and "MedicoRoom" shared the same ID (the room-code) of the "RoomUnit".
+ * At startup, the index can be rebuilt in parallel from the saved component files of all rooms.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ConcurrentHashMap.html
+ * 2) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ConcurrentHashMap.html#newKeySet--
+**/
+
+public class PersonLocationIndex {
+    private static final int INDEX_CAPACITY = 10000;
+    private static final float INDEX_LOAD_FACTOR = 0.75f;
+
+    private static final PersonLocationIndex PatientIndex = new PersonLocationIndex(0);
+    private static final PersonLocationIndex MedicoIndex = new PersonLocationIndex(1);
+
+    private final int ComponentIndex;           // The index of the component in MergedRoom.GetComponentName()
+    private final ConcurrentHashMap<String, Set<String>> PersonToRooms;
+    private final ConcurrentHashMap<String, Set<String>> RoomToPersons;
+
+    private PersonLocationIndex(int ComponentIndex) {
+        this.ComponentIndex = ComponentIndex;
+        this.PersonToRooms = new ConcurrentHashMap<String, Set<String>>(INDEX_CAPACITY, INDEX_LOAD_FACTOR);
+        this.RoomToPersons = new ConcurrentHashMap<String, Set<String>>(INDEX_CAPACITY, INDEX_LOAD_FACTOR);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getter
+    public static PersonLocationIndex GetPatientIndex() { return PersonLocationIndex.PatientIndex; }
+    public static PersonLocationIndex GetMedicoIndex() { return PersonLocationIndex.MedicoIndex; }
+
+    public int GetNumberOfPersons() { return this.PersonToRooms.size(); }
+    public int GetNumberOfRooms() { return this.RoomToPersons.size(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Updater
+    public void Register(String PersonID, String RoomID) {
+        DataUtils.CheckArgumentCondition(PersonID != null, "Person's ID cannot be null.");
+        DataUtils.CheckArgumentCondition(RoomID != null, "Room's ID cannot be null.");
+        // The add() is done inside the compute() so that it cannot be lost to a concurrent Unregister()
+        // which dropped the (empty) set of the same key.
+        this.PersonToRooms.compute(PersonID, (key, rooms) -> PersonLocationIndex.AddToSet(rooms, RoomID));
+        this.RoomToPersons.compute(RoomID, (key, persons) -> PersonLocationIndex.AddToSet(persons, PersonID));
+    }
+
+    private static Set<String> AddToSet(Set<String> set, String value) {
+        if (set == null) { set = ConcurrentHashMap.newKeySet(); }
+        set.add(value);
+        return set;
+    }
+
+    public void Unregister(String PersonID, String RoomID) {
+        DataUtils.CheckArgumentCondition(PersonID != null, "Person's ID cannot be null.");
+        DataUtils.CheckArgumentCondition(RoomID != null, "Room's ID cannot be null.");
+        this.PersonToRooms.computeIfPresent(PersonID, (key, rooms) -> {
+            rooms.remove(RoomID);
+            return rooms.isEmpty() ? null : rooms;
+        });
+        this.RoomToPersons.computeIfPresent(RoomID, (key, persons) -> {
+            persons.remove(PersonID);
+            return persons.isEmpty() ? null : persons;
+        });
+    }
+
+    public void Update(String PersonID, String RoomID, boolean IsAdded) {
+        if (IsAdded) { this.Register(PersonID, RoomID); }
+        else { this.Unregister(PersonID, RoomID); }
+    }
+
+    public void Clear() {
+        this.PersonToRooms.clear();
+        this.RoomToPersons.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query (The returned set is a read-only view, which is updated along with the index)
+    public Set<String> GetRoomsOfPerson(String PersonID) {
+        Set<String> rooms = this.PersonToRooms.get(PersonID);
+        return rooms == null ? Collections.emptySet() : Collections.unmodifiableSet(rooms);
+    }
+
+    public Set<String> GetPersonsInRoom(String RoomID) {
+        Set<String> persons = this.RoomToPersons.get(RoomID);
+        return persons == null ? Collections.emptySet() : Collections.unmodifiableSet(persons);
+    }
+
+    public String GetRoomOfPerson(String PersonID) {
+        // A patient is normally placed in one room only, so we returned the first room found.
+        Set<String> rooms = this.PersonToRooms.get(PersonID);
+        if (rooms == null) { return null; }
+        Iterator<String> it = rooms.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    public boolean IsPersonInRoom(String PersonID, String RoomID) {
+        Set<String> rooms = this.PersonToRooms.get(PersonID);
+        return rooms != null && rooms.contains(RoomID);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Rebuild from the saved component files: "database/Room/[RoomUnit.ID]/[PatientRoom|MedicoRoom].json"
+    private void LoadOneRoom(String RoomID) {
+        File file = new File(MergedRoom.GetComponentFile(RoomID, this.ComponentIndex));
+        if (!file.exists()) { return ; }
+
+        Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(file.getPath(), null);
+        Iterator<Entry<String, Object>> it = data.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Object> entry = it.next();
+            if (BaseRoomContainer.IsReservedKey(entry.getKey())) { continue; }
+            if (BaseRoomContainer.CastToInformation(entry.getValue()) == null) { continue; }
+            this.Register(entry.getKey(), RoomID);
+        }
+    }
+
+    public void RebuildFromDisk() {
+        this.Clear();
+        File[] folders = new File(MergedRoom.GetRoomDirectory()).listFiles(File::isDirectory);
+        if (folders == null) { return ; }
+
+        Arrays.stream(folders).parallel().forEach(folder -> {
+            try { this.LoadOneRoom(folder.getName()); }
+            catch (Exception e) { e.printStackTrace(); }
+        });
+    }
+
+    public static void RebuildAllFromDisk() {
+        PersonLocationIndex.GetPatientIndex().RebuildFromDisk();
+        PersonLocationIndex.GetMedicoIndex().RebuildFromDisk();
+    }
+}
@@ -0,0 +1,181 @@
+package Room;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import Utility.JsonUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the in-memory catalog of all room-codes declared in the "RoomCode.json"
+ * (see MergedRoom.GetRoomCodeFile()). Each entry is stored as {RoomCode, name, description}.
+ *
+ * The file is loaded once and indexed by three keys, so that finding a room is a hash probe
+ * instead of a whole-file parse:
+ * 1) The exact room-code: "RU-[Type]-[Block]-[Floor]-[Number]"
+ * 2) The partial key (block, floor, number): "[Block]-[Floor]-[Number]"
+ * 3) The partial key (floor, number): "[Floor]-[Number]"
+ * If there are multiple rooms sharing the same partial key, the first one in the file is used.
+ * All keys are built by RoomUnitUtils.ConstructRoomCodeID() (the case and the zero-padding of the parts),
+ * both when the catalog is indexed and when it is queried, so "ru-icu-a-1-1" finds "RU-ICU-A-01-001".
+ *
+ * Each catalog is immutable and the current one is published through a volatile reference.
+ * The catalog is reloaded (hot-reload) when the "RoomCode.json" is changed on disk. To not call
+ * the file system on every lookup, the change is checked at most once per RELOAD_CHECK_INTERVAL.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://stackoverflow.com/questions/10926353/how-to-read-json-file-into-java-with-simple-json-library
+**/
+
+public class RoomCatalog {
+    private static final long RELOAD_CHECK_INTERVAL = 1000L * 1000L * 1000L;       // 1 second (in nanoseconds)
+    private static final int CATALOG_CAPACITY = 1000;
+
+    private static volatile RoomCatalog Current = null;
+    private static volatile long LastCheckTime = 0;
+
+    private final long LastModified, FileSize;
+    private final ArrayList<String[]> Entries;
+    private final HashMap<String, String[]> ByRoomCode;
+    private final HashMap<String, String[]> ByBlockFloorNumber;
+    private final HashMap<String, String[]> ByFloorNumber;
+
+    private RoomCatalog(long LastModified, long FileSize, ArrayList<String[]> Entries) {
+        this.LastModified = LastModified;
+        this.FileSize = FileSize;
+        this.Entries = Entries;
+        this.ByRoomCode = new HashMap<String, String[]>(CATALOG_CAPACITY, 0.75f);
+        this.ByBlockFloorNumber = new HashMap<String, String[]>(CATALOG_CAPACITY, 0.75f);
+        this.ByFloorNumber = new HashMap<String, String[]>(CATALOG_CAPACITY, 0.75f);
+
+        for (String[] entry : Entries) {
+            this.ByRoomCode.putIfAbsent(RoomCatalog.NormalizeRoomCode(entry[0]), entry);
+            String[] parts = RoomUnitUtils.DecomposeRoomCodeID(entry[0]);
+            if (parts.length != 5) { continue; }
+            try {
+                this.ByBlockFloorNumber.putIfAbsent(RoomUnitUtils.ConstructRoomCodeID(parts[2], parts[3], parts[4]), entry);
+                this.ByFloorNumber.putIfAbsent(RoomUnitUtils.ConstructRoomCodeID(parts[3], parts[4]), entry);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Warning: The room-code " + entry[0] + " is only found by its exact code (" + e.getMessage() + ").");
+            }
+        }
+    }
+
+    private static String NormalizeRoomCode(String RoomCode) {
+        // A room-code which cannot be rebuilt from its parts is kept as it is.
+        String[] parts = RoomUnitUtils.DecomposeRoomCodeID(RoomCode);
+        if (parts.length != 5) { return RoomCode; }
+        try { return RoomUnitUtils.ConstructRoomCodeID(parts[1], parts[2], parts[3], parts[4]); }
+        catch (IllegalArgumentException e) { return RoomCode; }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Loader
+    private static RoomCatalog LoadFromFile(File file) {
+        ArrayList<String[]> entries = new ArrayList<String[]>(CATALOG_CAPACITY);
+        if (!file.exists()) { return new RoomCatalog(0, -1, entries); }
+
+        long LastModified = file.lastModified();
+        long FileSize = file.length();
+        Object data = JsonUtils.ReadJsonFile(file.getPath());
+        if (!(data instanceof JSONArray)) {
+            System.out.println("The room-code catalog cannot be loaded from the file: " + file.getPath());
+            return new RoomCatalog(LastModified, FileSize, entries);
+        }
+
+        String[] ArgName = MergedRoom.GetSavedName();
+        for (Object item : (JSONArray) data) {
+            if (!(item instanceof JSONObject)) { continue; }
+            JSONObject jsonObject = (JSONObject) item;
+            String RoomCode = (String) jsonObject.get(ArgName[0]);
+            if (RoomCode == null) { continue; }
+
+            String RoomName = (String) jsonObject.get(ArgName[1]);
+            String RoomDescription = (String) jsonObject.get(ArgName[2]);
+            entries.add(new String[] {RoomCode, RoomName == null ? "" : RoomName,
+                                      RoomDescription == null ? "" : RoomDescription});
+        }
+        return new RoomCatalog(LastModified, FileSize, entries);
+    }
+
+    public static synchronized RoomCatalog Reload() {
+        RoomCatalog.Current = RoomCatalog.LoadFromFile(new File(MergedRoom.GetRoomCodeFile()));
+        RoomCatalog.LastCheckTime = System.nanoTime();
+        return RoomCatalog.Current;
+    }
+
+    private static synchronized RoomCatalog ReloadIfChanged() {
+        RoomCatalog catalog = RoomCatalog.Current;
+        if (catalog != null && System.nanoTime() - RoomCatalog.LastCheckTime < RELOAD_CHECK_INTERVAL) {
+            return catalog;             // Another thread has just checked it
+        }
+
+        File file = new File(MergedRoom.GetRoomCodeFile());
+        long FileSize = file.exists() ? file.length() : -1;
+        if (catalog == null || catalog.LastModified != file.lastModified() || catalog.FileSize != FileSize) {
+            return RoomCatalog.Reload();
+        }
+        RoomCatalog.LastCheckTime = System.nanoTime();
+        return catalog;
+    }
+
+    public static RoomCatalog GetCatalog() {
+        RoomCatalog catalog = RoomCatalog.Current;
+        if (catalog != null && System.nanoTime() - RoomCatalog.LastCheckTime < RELOAD_CHECK_INTERVAL) {
+            return catalog;
+        }
+        return RoomCatalog.ReloadIfChanged();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query: Each method returned the entry {RoomCode, name, description} or null if not found
+    public String[] FindByRoomCode(String RoomCode) {
+        String[] entry = this.ByRoomCode.get(RoomCode);
+        return entry != null ? entry : this.ByRoomCode.get(RoomCatalog.NormalizeRoomCode(RoomCode));
+    }
+
+    public String[] FindByBlockFloorNumber(String RoomBlock, String RoomFloor, String RoomNumber) {
+        return this.ByBlockFloorNumber.get(RoomUnitUtils.ConstructRoomCodeID(RoomBlock, RoomFloor, RoomNumber));
+    }
+
+    public String[] FindByFloorNumber(String RoomFloor, String RoomNumber) {
+        return this.ByFloorNumber.get(RoomUnitUtils.ConstructRoomCodeID(RoomFloor, RoomNumber));
+    }
+
+    public String[] Find(String RoomType, String RoomBlock, String RoomFloor, String RoomNumber) {
+        // We used the most specific key available: exact room-code -> (block, floor, number) -> (floor, number)
+        boolean HasType = RoomType != null && RoomType.length() > 0;
+        boolean HasBlock = RoomBlock != null && RoomBlock.length() > 0;
+
+        String[] entry = null;
+        if (HasType && HasBlock) {
+            entry = this.FindByRoomCode(RoomUnitUtils.ConstructRoomCodeID(RoomType, RoomBlock, RoomFloor, RoomNumber));
+        }
+        if (entry == null && HasBlock) { entry = this.FindByBlockFloorNumber(RoomBlock, RoomFloor, RoomNumber); }
+        if (entry == null) { entry = this.FindByFloorNumber(RoomFloor, RoomNumber); }
+        return entry;
+    }
+
+    public boolean ContainsRoomCode(String RoomCode) { return this.FindByRoomCode(RoomCode) != null; }
+
+    public List<String[]> GetEntries() { return Collections.unmodifiableList(this.Entries); }
+    public int GetNumberOfRooms() { return this.ByRoomCode.size(); }
+}
@@ -0,0 +1,223 @@
+package Room;
+
+import java.util.Arrays;
+
+import Utility.DataUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the packed (binary) representation of the room-code "RU-[Type]-[Block]-[Floor]-[Number]".
+ * The room-code is parsed only once into a single "long" and all accessors are a few bit operations,
+ * so there are no split("-") and no String/array allocation on every call. The String form is still
+ * the external ID of the "RoomUnit" (see RoomUnit.GetID()); this class is used internally on the
+ * room-heavy paths such as the bed search and the index rebuild.
+ *
+ * The layout of the packed value (from the highest bit to the lowest bit) is:
+ *   [Unused: 16 bits] [Block: 16 bits] [Floor: 8 bits] [Number: 16 bits] [Type: 8 bits]
+ * 1) Block: Two characters, each of them is 8 bits. A single-letter block is stored as {letter, 0}.
+ * 2) Floor: 00 - 99 (two digits).
+ * 3) Number: 000 - 999 (three digits).
+ * 4) Type: The ordinal of the "RoomUnitEnum".
+ * Since the block is the highest part, comparing two packed values sorts the rooms by the
+ * block -> floor -> number -> type, which is the physical order of the rooms in the hospital.
+ *
+ * The static methods work directly on the packed "long" for the caller who don't want to allocate
+ * even a RoomCode object. The value INVALID (-1) is returned when the room-code cannot be parsed.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/lang/Comparable.html
+**/
+
+public final class RoomCode implements Comparable<RoomCode> {
+    public static final long INVALID = -1L;
+
+    private static final int TYPE_SHIFT = 0, NUMBER_SHIFT = 8, FLOOR_SHIFT = 24, BLOCK_SHIFT = 32;
+    private static final long TYPE_MASK = 0xFFL, NUMBER_MASK = 0xFFFFL, FLOOR_MASK = 0xFFL, BLOCK_MASK = 0xFFFFL;
+    private static final int MAX_TYPE_LENGTH = 5;
+
+    // The (upper-case) name of each RoomUnitEnum packed into a long, sorted for the binary search.
+    private static final RoomUnitEnum[] TYPES = RoomUnitEnum.values();
+    private static final long[] SORTED_TYPE_KEYS;
+    private static final int[] SORTED_TYPE_ORDINALS;
+    private static final char[][] TYPE_NAMES;
+
+    static {
+        long[][] pairs = new long[TYPES.length][2];
+        TYPE_NAMES = new char[TYPES.length][];
+        for (int i = 0; i < TYPES.length; i++) {
+            String name = TYPES[i].toString().toUpperCase();
+            TYPE_NAMES[i] = name.toCharArray();
+            pairs[i][0] = RoomCode.PackTypeName(name, 0, name.length());
+            pairs[i][1] = i;
+        }
+        Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+
+        SORTED_TYPE_KEYS = new long[TYPES.length];
+        SORTED_TYPE_ORDINALS = new int[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++) {
+            SORTED_TYPE_KEYS[i] = pairs[i][0];
+            SORTED_TYPE_ORDINALS[i] = (int) pairs[i][1];
+        }
+    }
+
+    private final long packed;
+
+    private RoomCode(long packed) { this.packed = packed; }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Constructing
+    public static RoomCode Parse(String RoomCodeID) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        DataUtils.CheckArgumentCondition(packed != INVALID, "Invalid Room Code ID: " + RoomCodeID);
+        return new RoomCode(packed);
+    }
+
+    public static RoomCode FromPacked(long packed) {
+        DataUtils.CheckArgumentCondition(packed >= 0, "Invalid packed room-code: " + packed);
+        return new RoomCode(packed);
+    }
+
+    public static long Pack(int block, RoomUnitEnum type, int floor, int number) {
+        return ((long) block << BLOCK_SHIFT) | ((long) floor << FLOOR_SHIFT) |
+               ((long) number << NUMBER_SHIFT) | ((long) type.ordinal() << TYPE_SHIFT);
+    }
+
+    private static long PackTypeName(CharSequence text, int start, int end) {
+        // Each (upper-case) letter is stored in 8 bits, so a five-letter type fits in 40 bits.
+        long key = 0;
+        for (int i = start; i < end; i++) { key = (key << 8) | Character.toUpperCase(text.charAt(i)); }
+        return key;
+    }
+
+    private static int ParseDigits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') { return -1; }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int ParseBlock(String text, int start, int end) {
+        // See RoomUnitUtils.VerifyRoomBlock(): one upper-case letter, two digits or two upper-case letters.
+        int length = end - start;
+        if (length == 1) {
+            char c = text.charAt(start);
+            return (c >= 'A' && c <= 'Z') ? (c << 8) : -1;
+        }
+        if (length != 2) { return -1; }
+        char c1 = text.charAt(start), c2 = text.charAt(start + 1);
+        boolean digits = (c1 >= '0' && c1 <= '9') && (c2 >= '0' && c2 <= '9');
+        boolean letters = (c1 >= 'A' && c1 <= 'Z') && (c2 >= 'A' && c2 <= 'Z');
+        return (digits || letters) ? ((c1 << 8) | c2) : -1;
+    }
+
+    /**
+     * This function parses the room-code without any allocation.
+     * @param RoomCodeID (String): The room-code "RU-[Type]-[Block]-[Floor]-[Number]".
+     * @return (long) The packed room-code or INVALID if the room-code is not valid.
+     */
+    public static long TryPack(String RoomCodeID) {
+        if (RoomCodeID == null) { return INVALID; }
+        String prefix = RoomUnitUtils.GetPrefixCode();
+        if (!RoomCodeID.startsWith(prefix)) { return INVALID; }
+
+        int TypeStart = prefix.length();
+        int TypeEnd = RoomCodeID.indexOf('-', TypeStart);
+        if (TypeEnd <= TypeStart || TypeEnd - TypeStart > MAX_TYPE_LENGTH) { return INVALID; }
+        int BlockEnd = RoomCodeID.indexOf('-', TypeEnd + 1);
+        if (BlockEnd < 0) { return INVALID; }
+        int FloorEnd = RoomCodeID.indexOf('-', BlockEnd + 1);
+        if (FloorEnd < 0) { return INVALID; }
+        if (FloorEnd - BlockEnd != 3 || RoomCodeID.length() - FloorEnd != 4) { return INVALID; }
+
+        for (int i = TypeStart; i < TypeEnd; i++) {
+            if (!Character.isLetter(RoomCodeID.charAt(i))) { return INVALID; }
+        }
+        int found = Arrays.binarySearch(SORTED_TYPE_KEYS, RoomCode.PackTypeName(RoomCodeID, TypeStart, TypeEnd));
+        if (found < 0) { return INVALID; }
+
+        int block = RoomCode.ParseBlock(RoomCodeID, TypeEnd + 1, BlockEnd);
+        int floor = RoomCode.ParseDigits(RoomCodeID, BlockEnd + 1, FloorEnd);
+        int number = RoomCode.ParseDigits(RoomCodeID, FloorEnd + 1, RoomCodeID.length());
+        if (block < 0 || floor < 0 || number < 0) { return INVALID; }
+        return RoomCode.Pack(block, TYPES[SORTED_TYPE_ORDINALS[found]], floor, number);
+    }
+
+    public static boolean IsValid(String RoomCodeID) { return RoomCode.TryPack(RoomCodeID) != INVALID; }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Accessors on the packed value (allocation-free)
+    public static int GetBlock(long packed) { return (int) ((packed >>> BLOCK_SHIFT) & BLOCK_MASK); }
+    public static int GetFloor(long packed) { return (int) ((packed >>> FLOOR_SHIFT) & FLOOR_MASK); }
+    public static int GetNumber(long packed) { return (int) ((packed >>> NUMBER_SHIFT) & NUMBER_MASK); }
+    public static int GetTypeOrdinal(long packed) { return (int) ((packed >>> TYPE_SHIFT) & TYPE_MASK); }
+    public static RoomUnitEnum GetTypeEnum(long packed) { return TYPES[RoomCode.GetTypeOrdinal(packed)]; }
+
+    public static long GetBlockFloorKey(long packed) { return packed >>> FLOOR_SHIFT; }
+    public static long GetLocationKey(long packed) { return packed >>> NUMBER_SHIFT; }
+
+    // Block code helper: "A" -> ('A' << 8), "AB" -> ('A' << 8 | 'B'), "01" -> ('0' << 8 | '1')
+    public static int EncodeBlock(String RoomBlock) { return RoomCode.ParseBlock(RoomBlock, 0, RoomBlock.length()); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Formatter: "RU-[Type]-[Block]-[Floor]-[Number]" with the upper-case type (see RoomUnitUtils.CastRoomType())
+    public static String Format(long packed) {
+        String prefix = RoomUnitUtils.GetPrefixCode();
+        char[] type = TYPE_NAMES[RoomCode.GetTypeOrdinal(packed)];
+        int block = RoomCode.GetBlock(packed);
+        char b1 = (char) (block >>> 8), b2 = (char) (block & 0xFF);
+
+        char[] buffer = new char[prefix.length() + type.length + (b2 == 0 ? 1 : 2) + 9];
+        int pos = 0;
+        for (int i = 0; i < prefix.length(); i++) { buffer[pos++] = prefix.charAt(i); }
+        for (char c : type) { buffer[pos++] = c; }
+        buffer[pos++] = '-';
+        buffer[pos++] = b1;
+        if (b2 != 0) { buffer[pos++] = b2; }
+        buffer[pos++] = '-';
+
+        int floor = RoomCode.GetFloor(packed);
+        buffer[pos++] = (char) ('0' + floor / 10);
+        buffer[pos++] = (char) ('0' + floor % 10);
+        buffer[pos++] = '-';
+
+        int number = RoomCode.GetNumber(packed);
+        buffer[pos++] = (char) ('0' + number / 100);
+        buffer[pos++] = (char) ('0' + (number / 10) % 10);
+        buffer[pos++] = (char) ('0' + number % 10);
+        return new String(buffer, 0, pos);
+    }
+
+    public static String FormatBlock(int block) {
+        char b1 = (char) (block >>> 8), b2 = (char) (block & 0xFF);
+        return b2 == 0 ? String.valueOf(b1) : new String(new char[] {b1, b2});
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Instance accessors
+    public long GetPacked() { return this.packed; }
+    public int GetBlock() { return RoomCode.GetBlock(this.packed); }
+    public String GetBlockAsString() { return RoomCode.FormatBlock(this.GetBlock()); }
+    public int GetFloor() { return RoomCode.GetFloor(this.packed); }
+    public int GetNumber() { return RoomCode.GetNumber(this.packed); }
+    public RoomUnitEnum GetTypeEnum() { return RoomCode.GetTypeEnum(this.packed); }
+
+    public int compareTo(RoomCode other) { return Long.compare(this.packed, other.packed); }
+    public boolean equals(Object other) { return (other instanceof RoomCode) && ((RoomCode) other).packed == this.packed; }
+    public int hashCode() { return Long.hashCode(this.packed * 0x9E3779B97F4A7C15L); }
+    public String toString() { return RoomCode.Format(this.packed); }
+}
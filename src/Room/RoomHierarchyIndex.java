@@ -0,0 +1,227 @@
+package Room;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import Utility.DataUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the hierarchical in-memory index of all "RoomUnit" declared in the "RoomCatalog".
+ * It answers the range queries such as "all rooms on floor 03 of block A" or "all rooms whose
+ * room-type is descended from ICU" without scanning the "RoomCode.json".
+ *
+ * 1) Location tree (block -> floor -> number): The rooms are stored in a sorted map keyed by the
+ *    packed room-code (see RoomCode.java). Since the packed value is ordered by the block, then the
+ *    floor, then the number, all rooms of a block (or a floor) are a contiguous key range and the
+ *    query is a sub-map view of the tree.
+ * 2) Type hierarchy: The rooms are also grouped by their "RoomUnitEnum". A type query walks over
+ *    the group of the type and the groups of its descendants (see RoomUnitEnum.GetDescendants()).
+ *
+ * Every query returns a (weakly-consistent) streaming iterator over the live index, so its cost is
+ * proportional to the number of returned rooms instead of the number of rooms in the hospital.
+ * The default index is rebuilt whenever the "RoomCatalog" is reloaded.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ConcurrentSkipListMap.html
+**/
+
+public class RoomHierarchyIndex {
+    private static final int NUMBER_OF_TYPES = RoomUnitEnum.values().length;
+    private static volatile RoomHierarchyIndex DefaultIndex = null;
+
+    private final RoomCatalog Catalog;                                      // The catalog which this index is built from
+    private final ConcurrentSkipListMap<Long, RoomUnit> ByLocation;
+    private final ArrayList<ConcurrentSkipListMap<Long, RoomUnit>> ByType;      // Indexed by RoomUnitEnum.ordinal()
+
+    public RoomHierarchyIndex(RoomCatalog Catalog) {
+        this.Catalog = Catalog;
+        this.ByLocation = new ConcurrentSkipListMap<Long, RoomUnit>();
+        this.ByType = new ArrayList<ConcurrentSkipListMap<Long, RoomUnit>>(NUMBER_OF_TYPES);
+        for (int i = 0; i < NUMBER_OF_TYPES; i++) { this.ByType.add(new ConcurrentSkipListMap<Long, RoomUnit>()); }
+
+        if (Catalog == null) { return ; }
+        for (String[] entry : Catalog.GetEntries()) {
+            if (!RoomCode.IsValid(entry[0])) { continue; }
+            try { this.Add(new RoomUnit(entry[0], entry[1], entry[2])); }
+            catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+
+    public static RoomHierarchyIndex GetDefaultIndex() {
+        RoomCatalog catalog = RoomCatalog.GetCatalog();
+        RoomHierarchyIndex index = RoomHierarchyIndex.DefaultIndex;
+        if (index != null && index.Catalog == catalog) { return index; }
+
+        synchronized (RoomHierarchyIndex.class) {
+            index = RoomHierarchyIndex.DefaultIndex;
+            if (index == null || index.Catalog != catalog) {
+                index = new RoomHierarchyIndex(catalog);
+                RoomHierarchyIndex.DefaultIndex = index;
+            }
+            return index;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Updater
+    public void Add(RoomUnit room) {
+        DataUtils.CheckArgumentCondition(room != null, "The room cannot be null.");
+        Long key = room.GetPackedCode();
+        RoomUnit previous = this.ByLocation.put(key, room);
+        if (previous == null) { this.ByType.get(RoomCode.GetTypeOrdinal(key)).put(key, room); }
+        else { this.ByType.get(RoomCode.GetTypeOrdinal(key)).replace(key, room); }
+    }
+
+    public boolean Remove(String RoomCodeID) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        if (packed == RoomCode.INVALID) { return false; }
+        if (this.ByLocation.remove(packed) == null) { return false; }
+        this.ByType.get(RoomCode.GetTypeOrdinal(packed)).remove(packed);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query: Point lookup
+    public RoomUnit GetRoom(String RoomCodeID) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        return packed == RoomCode.INVALID ? null : this.ByLocation.get(packed);
+    }
+
+    public RoomUnit GetRoom(long packed) { return this.ByLocation.get(packed); }
+
+    public int GetNumberOfRooms() { return this.ByLocation.size(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query: Location range (block -> floor -> number). The bounds are computed on the packed room-code
+    // with the lowest type (0) as the inclusive start and the next block/floor/number as the exclusive end.
+    private Iterator<RoomUnit> GetRange(long from, long to) {
+        if (from >= to) { return Collections.emptyIterator(); }
+        return this.ByLocation.subMap(from, true, to, false).values().iterator();
+    }
+
+    public Iterator<RoomUnit> GetAllRooms() { return this.ByLocation.values().iterator(); }
+
+    public Iterator<RoomUnit> GetRoomsInBlock(String RoomBlock) {
+        int block = RoomBlock == null ? -1 : RoomCode.EncodeBlock(RoomBlock);
+        if (block < 0) { return Collections.emptyIterator(); }
+        RoomUnitEnum first = RoomUnitEnum.GetEnum(0);
+        return this.GetRange(RoomCode.Pack(block, first, 0, 0), RoomCode.Pack(block + 1, first, 0, 0));
+    }
+
+    public Iterator<RoomUnit> GetRoomsOnFloor(String RoomBlock, int RoomFloor) {
+        return this.GetRoomsInRange(RoomBlock, RoomFloor, 0, RoomFloor, 999);
+    }
+
+    /**
+     * This function returns all rooms from (FromFloor, FromNumber) to (ToFloor, ToNumber) of a block.
+     * @param RoomBlock (String): The room-block, such as "A" or "01".
+     * @param FromFloor (int): The first floor (inclusive).
+     * @param FromNumber (int): The first room-number of the first floor (inclusive).
+     * @param ToFloor (int): The last floor (inclusive).
+     * @param ToNumber (int): The last room-number of the last floor (inclusive).
+     * @return (Iterator<RoomUnit>) The rooms sorted by the floor and the room-number.
+     */
+    public Iterator<RoomUnit> GetRoomsInRange(String RoomBlock, int FromFloor, int FromNumber, int ToFloor, int ToNumber) {
+        int block = RoomBlock == null ? -1 : RoomCode.EncodeBlock(RoomBlock);
+        if (block < 0) { return Collections.emptyIterator(); }
+        DataUtils.CheckArgumentCondition(FromFloor >= 0 && ToFloor <= 99, "The room-floor must be in [0, 99].");
+        DataUtils.CheckArgumentCondition(FromNumber >= 0 && ToNumber <= 999, "The room-number must be in [0, 999].");
+
+        RoomUnitEnum first = RoomUnitEnum.GetEnum(0);
+        long from = RoomCode.Pack(block, first, FromFloor, FromNumber);
+        long to = (ToNumber < 999) ? RoomCode.Pack(block, first, ToFloor, ToNumber + 1)
+                                   : RoomCode.Pack(block, first, ToFloor + 1, 0);
+        return this.GetRange(from, to);
+    }
+
+    public Iterator<RoomUnit> GetRoomsOnFloor(int block, int floor) {
+        RoomUnitEnum first = RoomUnitEnum.GetEnum(0);
+        return this.GetRange(RoomCode.Pack(block, first, floor, 0), RoomCode.Pack(block, first, floor + 1, 0));
+    }
+
+    /**
+     * This function returns the (encoded) blocks which have at least one room, by jumping from one block
+     * to the next one in the location tree, so its cost depends on the number of blocks, not rooms.
+     * @return (int[]) The blocks in the ascending order (see RoomCode.EncodeBlock()).
+     */
+    public int[] GetBlocks() {
+        RoomUnitEnum first = RoomUnitEnum.GetEnum(0);
+        ArrayList<Integer> blocks = new ArrayList<Integer>();
+        Long key = this.ByLocation.isEmpty() ? null : this.ByLocation.ceilingKey(0L);
+        while (key != null) {
+            int block = RoomCode.GetBlock(key);
+            blocks.add(block);
+            key = this.ByLocation.ceilingKey(RoomCode.Pack(block + 1, first, 0, 0));
+        }
+        return blocks.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * This function returns the floors of a block which have at least one room (see GetBlocks()).
+     * @return (int[]) The floors in the ascending order.
+     */
+    public int[] GetFloors(int block) {
+        RoomUnitEnum first = RoomUnitEnum.GetEnum(0);
+        ArrayList<Integer> floors = new ArrayList<Integer>();
+        Long key = this.ByLocation.ceilingKey(RoomCode.Pack(block, first, 0, 0));
+        while (key != null && RoomCode.GetBlock(key) == block) {
+            int floor = RoomCode.GetFloor(key);
+            floors.add(floor);
+            key = this.ByLocation.ceilingKey(RoomCode.Pack(block, first, floor + 1, 0));
+        }
+        return floors.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query: Type hierarchy
+    public Iterator<RoomUnit> GetRoomsOfType(RoomUnitEnum RoomType, boolean IncludeDescendants) {
+        DataUtils.CheckArgumentCondition(RoomType != null, "The room-type cannot be null.");
+        if (!IncludeDescendants) { return this.ByType.get(RoomType.ordinal()).values().iterator(); }
+        return new TypeIterator(this, RoomType.GetDescendants());
+    }
+
+    public Iterator<RoomUnit> GetRoomsOfType(RoomUnitEnum RoomType) { return this.GetRoomsOfType(RoomType, true); }
+
+    // Iterate over the type groups one by one; the empty groups are skipped without allocation.
+    private static class TypeIterator implements Iterator<RoomUnit> {
+        private final RoomHierarchyIndex index;
+        private final List<RoomUnitEnum> types;
+        private int position = 0;
+        private Iterator<RoomUnit> current = Collections.emptyIterator();
+
+        private TypeIterator(RoomHierarchyIndex index, List<RoomUnitEnum> types) {
+            this.index = index;
+            this.types = types;
+        }
+
+        public boolean hasNext() {
+            while (!this.current.hasNext() && this.position < this.types.size()) {
+                ConcurrentSkipListMap<Long, RoomUnit> group = this.index.ByType.get(this.types.get(this.position++).ordinal());
+                if (!group.isEmpty()) { this.current = group.values().iterator(); }
+            }
+            return this.current.hasNext();
+        }
+
+        public RoomUnit next() {
+            if (!this.hasNext()) { throw new NoSuchElementException(); }
+            return this.current.next();
+        }
+    }
+}
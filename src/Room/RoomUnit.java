@@ -69,9 +69,12 @@ import Utility.DataUtils;
 **/
 
 public class RoomUnit extends IntermediateObject {
+    private final long PackedCode;              // The room-code is parsed once (see RoomCode.java)
+
     public RoomUnit(String ID, String name, String description) throws Exception { 
         super(ID, name, description);
-        DataUtils.CheckArgumentCondition(RoomUnitUtils.VerifyRoomCodeID(ID), "Invalid Room Code ID: " + ID);
+        this.PackedCode = RoomCode.TryPack(ID);
+        DataUtils.CheckArgumentCondition(this.PackedCode != RoomCode.INVALID, "Invalid Room Code ID: " + ID);
     }
 
     public RoomUnit(String ID, String name) throws Exception { this(ID, name, ""); }
@@ -80,6 +83,8 @@ public class RoomUnit extends IntermediateObject {
     // ---------------------------------------------------------------------------------------------------------------------
     // Getter and Setter
     public String GetRoomCodeID() { return this.GetID(); }                  // Alias function of GetID()
+    public long GetPackedCode() { return this.PackedCode; }
+    public RoomCode GetRoomCode() { return RoomCode.FromPacked(this.PackedCode); }
     public static Prefix GetPrefix() { return RoomUnitUtils.GetPrefix(); }
     public static String GetPrefixCode() { return RoomUnitUtils.GetPrefix().GetPrefixCode(); }
     public static String GetPrefixCodeNotation() { return RoomUnitUtils.GetPrefix().GetPrefixCodeNotation(); }
@@ -89,7 +94,7 @@ public class RoomUnit extends IntermediateObject {
     public String[] DecomposeRoomCodeID(String RoomCodeID) { return this.GetID().split("-"); }
 
     public String GetRoomBlock() { return RoomUnitUtils.GetRoomBlock(this.GetID()); }
-    public RoomUnitEnum GetRoomTypeEnum() { return RoomUnitUtils.GetRoomTypeEnum(this.GetID()); }
+    public RoomUnitEnum GetRoomTypeEnum() { return RoomCode.GetTypeEnum(this.PackedCode); }
     public String GetRoomFloor() { return RoomUnitUtils.GetRoomFloor(this.GetID()); }
     public String GetRoomNumber() { return RoomUnitUtils.GetRoomNumber(this.GetID()); }
 
@@ -98,7 +103,7 @@ public class RoomUnit extends IntermediateObject {
     public boolean VerifyRoomCodeID() { return RoomUnitUtils.VerifyRoomCodeID(this.GetID()); }
 
     public static String ConstructRoomCodeID(String RoomBlock, String RoomType, String RoomFloor, String RoomNumber) {
-        return RoomUnitUtils.ConstructRoomCodeID(RoomBlock, RoomType, RoomFloor, RoomNumber);
+        return RoomUnitUtils.ConstructRoomCodeID(RoomType, RoomBlock, RoomFloor, RoomNumber);
     }
 
     // ---------------------------------------------------------------------------------------------------------------------
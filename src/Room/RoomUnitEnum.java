@@ -1,5 +1,11 @@
 package Room;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
 /**
  * Copyright (C) 2022-2022, HDM-Dev Team
  * All Rights Reserved
@@ -68,15 +74,57 @@ public enum RoomUnitEnum {
 
     // ----------------------------------------------------------
     // Magic here: Declare the enum constant as a static final field using the prefix.
-    public static RoomUnitEnum GetEnum(String RoomUnitCode) {
-        for (RoomUnitEnum RoomUnit : RoomUnitEnum.values()) {
-            String RU_Str = RoomUnit.toString();
-            if (RU_Str.equals(RoomUnitCode) || RU_Str == RoomUnitCode) { return RoomUnit; }
-            if (RU_Str.equalsIgnoreCase(RoomUnitCode)) { return RoomUnit; }
+    // The lookup is a hash probe on the name (exact case first, then upper-case) instead of
+    // a linear scan over all enum constants.
+    private static final RoomUnitEnum[] VALUES = RoomUnitEnum.values();
+    private static final HashMap<String, RoomUnitEnum> LOOKUP = new HashMap<String, RoomUnitEnum>(VALUES.length * 4);
+    static {
+        for (RoomUnitEnum RoomUnit : VALUES) {
+            RoomUnitEnum.LOOKUP.put(RoomUnit.toString(), RoomUnit);
+            RoomUnitEnum.LOOKUP.putIfAbsent(RoomUnit.toString().toUpperCase(), RoomUnit);
         }
-        try { return RoomUnitEnum.valueOf(RoomUnitCode); } 
-        catch (Exception e) { return null; }
+    }
+
+    public static RoomUnitEnum GetEnum(String RoomUnitCode) {
+        if (RoomUnitCode == null) { return null; }
+        RoomUnitEnum RoomUnit = RoomUnitEnum.LOOKUP.get(RoomUnitCode);
+        if (RoomUnit != null) { return RoomUnit; }
+        return RoomUnitEnum.LOOKUP.get(RoomUnitCode.toUpperCase());
+    }
+
+    public static RoomUnitEnum GetEnum(int ordinal) {
+        return (ordinal >= 0 && ordinal < VALUES.length) ? VALUES[ordinal] : null;
     }
 
     public static boolean FindEnum(String RoomUnitCode) { return RoomUnitEnum.GetEnum(RoomUnitCode) != null; }
+
+    // ----------------------------------------------------------
+    // Type hierarchy: Each room-type can have a parent (i.e NCC -> NICU -> ICU). The descendants
+    // of each type (including itself) are resolved once from the GetParent() chains.
+    private static final RoomUnitEnum[][] DESCENDANTS = new RoomUnitEnum[VALUES.length][];
+    static {
+        ArrayList<ArrayList<RoomUnitEnum>> descendants = new ArrayList<ArrayList<RoomUnitEnum>>(VALUES.length);
+        for (int i = 0; i < VALUES.length; i++) { descendants.add(new ArrayList<RoomUnitEnum>()); }
+        for (RoomUnitEnum RoomUnit : VALUES) {
+            for (RoomUnitEnum ancestor = RoomUnit; ancestor != null; ancestor = ancestor.GetParentEnum()) {
+                descendants.get(ancestor.ordinal()).add(RoomUnit);
+            }
+        }
+        for (int i = 0; i < VALUES.length; i++) {
+            RoomUnitEnum.DESCENDANTS[i] = descendants.get(i).toArray(new RoomUnitEnum[0]);
+        }
+    }
+
+    public RoomUnitEnum GetParentEnum() { return this.Parent == null ? null : RoomUnitEnum.GetEnum(this.Parent); }
+
+    public List<RoomUnitEnum> GetDescendants() { 
+        return Collections.unmodifiableList(Arrays.asList(RoomUnitEnum.DESCENDANTS[this.ordinal()])); 
+    }
+
+    public boolean IsDescendantOf(RoomUnitEnum ancestor) {
+        for (RoomUnitEnum RoomUnit = this; RoomUnit != null; RoomUnit = RoomUnit.GetParentEnum()) {
+            if (RoomUnit == ancestor) { return true; }
+        }
+        return false;
+    }
 }
@@ -36,17 +36,30 @@ public abstract class RoomUnitUtils {
     // Extracting the information of the room-code
     public static String[] DecomposeRoomCodeID(String RoomCodeID) { return RoomCodeID.split("-"); }
     
-    public static String GetRoomType(String RoomCodeID) {return RoomUnitUtils.DecomposeRoomCodeID(RoomCodeID)[1]; }
+    // Each getter scans the room-code for the n-th delimitor "-" instead of splitting the whole room-code.
+    private static String GetPart(String RoomCodeID, int index) {
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            start = RoomCodeID.indexOf('-', start) + 1;
+            if (start == 0) { throw new ArrayIndexOutOfBoundsException("Invalid Room Code ID: " + RoomCodeID); }
+        }
+        int end = RoomCodeID.indexOf('-', start);
+        return RoomCodeID.substring(start, end < 0 ? RoomCodeID.length() : end);
+    }
+
+    public static String GetRoomType(String RoomCodeID) { return RoomUnitUtils.GetPart(RoomCodeID, 1); }
     
-    public static String GetRoomBlock(String RoomCodeID) {return RoomUnitUtils.DecomposeRoomCodeID(RoomCodeID)[2]; }
+    public static String GetRoomBlock(String RoomCodeID) { return RoomUnitUtils.GetPart(RoomCodeID, 2); }
     
     public static RoomUnitEnum GetRoomTypeEnum(String RoomCodeID) { 
+        long packed = RoomCode.TryPack(RoomCodeID);
+        if (packed != RoomCode.INVALID) { return RoomCode.GetTypeEnum(packed); }
         return RoomUnitEnum.GetEnum(RoomUnitUtils.GetRoomType(RoomCodeID)); 
     }
 
-    public static String GetRoomFloor(String RoomCodeID) {return RoomUnitUtils.DecomposeRoomCodeID(RoomCodeID)[3]; }
+    public static String GetRoomFloor(String RoomCodeID) { return RoomUnitUtils.GetPart(RoomCodeID, 3); }
 
-    public static String GetRoomNumber(String RoomCodeID) {return RoomUnitUtils.DecomposeRoomCodeID(RoomCodeID)[4]; }
+    public static String GetRoomNumber(String RoomCodeID) { return RoomUnitUtils.GetPart(RoomCodeID, 4); }
     
     // -----------------------------------------------------------
     // Verifying the room-code
@@ -80,7 +93,7 @@ public abstract class RoomUnitUtils {
         for (int i = 0; i < RoomType.length(); i++) {
             if (!Character.isLetter(RoomType.charAt(i))) { return false; }
         }
-        return !RoomUnitEnum.FindEnum(RoomType);
+        return RoomUnitEnum.FindEnum(RoomType);
     }
 
     public static boolean VerifyRoomFloor(String RoomFloor) {
@@ -100,16 +113,9 @@ public abstract class RoomUnitUtils {
 
     public static boolean VerifyRoomCodeID(String RoomCodeID) {
         // This function is to verify the room-code ID as a single identity.
-        // As mentioned in the documentation above, we decompose the room-code ID into
-        // multiple parts using delimitor "-" and then verify each part.
-        String[] DecomposedRoomCodeID = RoomUnitUtils.DecomposeRoomCodeID(RoomCodeID);
-        if (DecomposedRoomCodeID.length != 5) { return false; }
-        if (!RoomUnitUtils.GetPrefixCodeNotation().equals(DecomposedRoomCodeID[0])) { return false; }
-        if (!RoomUnitUtils.VerifyRoomBlock(RoomUnitUtils.GetRoomBlock(RoomCodeID))) { return false; }
-        if (!RoomUnitUtils.VerifyRoomType(RoomUnitUtils.GetRoomType(RoomCodeID))) { return false; }
-        if (!RoomUnitUtils.VerifyRoomFloor(RoomUnitUtils.GetRoomFloor(RoomCodeID))) { return false; }
-        if (!RoomUnitUtils.VerifyRoomNumber(RoomUnitUtils.GetRoomNumber(RoomCodeID))) { return false; }
-        return true;
+        // The room-code is parsed in a single pass (see RoomCode.TryPack()) with the same rules
+        // of VerifyRoomType(), VerifyRoomBlock(), VerifyRoomFloor() and VerifyRoomNumber().
+        return RoomCode.IsValid(RoomCodeID);
     }
 
     // -----------------------------------------------------------
@@ -0,0 +1,159 @@
+package Room;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import BaseClass.BaseRoomContainer;
+import Utility.DataUtils;
+import Utility.JsonUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class kept the hospital-wide total quantity of each tool (or resource) across the
+ * global pool ("GToolPool" or "GResourcePool") and every local pool ("LToolPool" or
+ * "LResourcePool") of all rooms, broken down by the "RoomUnitEnum" of the room.
+ *
+ * The aggregate is updated incrementally on every container mutation (see the method
+ * AddOrUpdateObject() in "LToolPool" and "LResourcePool") using the striped counter "LongAdder",
+ * so the concurrent updates from multiple rooms are not contended on a single counter.
+ * Every query is then a constant-time read and we don't need to deserialize any room.
+ *
+ * The counters are grouped by "bucket": one bucket per "RoomUnitEnum" and the last bucket is the
+ * global pool. A local pool whose ID is not a valid room-code is counted in "RoomUnitEnum.UNIT".
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/atomic/LongAdder.html
+**/
+
+public class StockAggregate {
+    private static final int INDEX_CAPACITY = 10000;
+    private static final float INDEX_LOAD_FACTOR = 0.75f;
+    private static final int NUMBER_OF_BUCKETS = RoomUnitEnum.values().length + 1;
+
+    private static final StockAggregate ToolAggregate = new StockAggregate(2);
+    private static final StockAggregate ResourceAggregate = new StockAggregate(3);
+
+    private final int ComponentIndex;           // The index of the component in MergedRoom.GetComponentName()
+    private final ConcurrentHashMap<String, LongAdder[]> ObjectCounters;
+    private final LongAdder[] BucketCounters;
+
+    private StockAggregate(int ComponentIndex) {
+        this.ComponentIndex = ComponentIndex;
+        this.ObjectCounters = new ConcurrentHashMap<String, LongAdder[]>(INDEX_CAPACITY, INDEX_LOAD_FACTOR);
+        this.BucketCounters = StockAggregate.NewCounters();
+    }
+
+    private static LongAdder[] NewCounters() {
+        // The last counter (at NUMBER_OF_BUCKETS) is the total of all buckets.
+        LongAdder[] counters = new LongAdder[NUMBER_OF_BUCKETS + 1];
+        for (int i = 0; i < counters.length; i++) { counters[i] = new LongAdder(); }
+        return counters;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getter
+    public static StockAggregate GetToolAggregate() { return StockAggregate.ToolAggregate; }
+    public static StockAggregate GetResourceAggregate() { return StockAggregate.ResourceAggregate; }
+
+    public static int GetGlobalBucket() { return NUMBER_OF_BUCKETS - 1; }
+    public static int GetBucket(RoomUnitEnum RoomType) { return RoomType.ordinal(); }
+    public static int GetBucket(String RoomCodeID) {
+        long packed = RoomCode.TryPack(RoomCodeID);
+        if (packed == RoomCode.INVALID) { return StockAggregate.GetBucket(RoomUnitEnum.UNIT); }
+        return RoomCode.GetTypeOrdinal(packed);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Updater
+    public void Add(String ObjectID, int bucket, long delta) {
+        DataUtils.CheckArgumentCondition(ObjectID != null, "Object's ID cannot be null.");
+        DataUtils.CheckArgumentCondition(bucket >= 0 && bucket < NUMBER_OF_BUCKETS, "The bucket is out of range.");
+        if (delta == 0) { return ; }
+
+        LongAdder[] counters = this.ObjectCounters.computeIfAbsent(ObjectID, key -> StockAggregate.NewCounters());
+        counters[bucket].add(delta);
+        counters[NUMBER_OF_BUCKETS].add(delta);
+        this.BucketCounters[bucket].add(delta);
+        this.BucketCounters[NUMBER_OF_BUCKETS].add(delta);
+    }
+
+    public void Clear() {
+        this.ObjectCounters.clear();
+        for (LongAdder counter : this.BucketCounters) { counter.reset(); }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query
+    public long GetTotal(String ObjectID) {
+        LongAdder[] counters = this.ObjectCounters.get(ObjectID);
+        return counters == null ? 0 : counters[NUMBER_OF_BUCKETS].sum();
+    }
+
+    public long GetTotal(String ObjectID, RoomUnitEnum RoomType) {
+        LongAdder[] counters = this.ObjectCounters.get(ObjectID);
+        return counters == null ? 0 : counters[StockAggregate.GetBucket(RoomType)].sum();
+    }
+
+    public long GetGlobalTotal(String ObjectID) {
+        LongAdder[] counters = this.ObjectCounters.get(ObjectID);
+        return counters == null ? 0 : counters[StockAggregate.GetGlobalBucket()].sum();
+    }
+
+    public long GetLocalTotal(String ObjectID) { return this.GetTotal(ObjectID) - this.GetGlobalTotal(ObjectID); }
+
+    public long GetTotalOfAllObjects() { return this.BucketCounters[NUMBER_OF_BUCKETS].sum(); }
+    public long GetTotalOfAllObjects(RoomUnitEnum RoomType) {
+        return this.BucketCounters[StockAggregate.GetBucket(RoomType)].sum();
+    }
+
+    public int GetNumberOfObjects() { return this.ObjectCounters.size(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Rebuild from the saved files: "database/Room/[RoomUnit.ID]/[LToolPool|LResourcePool].json" & the global pool
+    private void LoadOneFile(String directory, int bucket) {
+        File file = new File(directory);
+        if (!file.exists()) { return ; }
+
+        Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(directory, null);
+        Iterator<Entry<String, Object>> it = data.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, Object> entry = it.next();
+            if (BaseRoomContainer.IsReservedKey(entry.getKey())) { continue; }
+            String[] information = BaseRoomContainer.CastToInformation(entry.getValue());
+            if (information == null || information.length < 3) { continue; }
+            this.Add(entry.getKey(), bucket, Long.parseLong(information[2]));
+        }
+    }
+
+    public void RebuildFromDisk(String GlobalPoolFile) {
+        this.Clear();
+        if (GlobalPoolFile != null) { this.LoadOneFile(GlobalPoolFile, StockAggregate.GetGlobalBucket()); }
+
+        File[] folders = new File(MergedRoom.GetRoomDirectory()).listFiles(File::isDirectory);
+        if (folders == null) { return ; }
+
+        Arrays.stream(folders).parallel().forEach(folder -> {
+            String RoomID = folder.getName();
+            try { this.LoadOneFile(MergedRoom.GetComponentFile(RoomID, this.ComponentIndex),
+                                   StockAggregate.GetBucket(RoomID)); }
+            catch (Exception e) { e.printStackTrace(); }
+        });
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Collections;
 import java.util.Comparator;
 
 import BaseClass.AbstractObject;
+import BaseClass.BaseRoomContainer;
 import Person.PersonUtils;
 import Treatment.MedicalRecord;
 import Treatment.Treatment;
@@ -209,8 +210,8 @@ public class MedicoTask extends AbstractObject {
             String key = entry.getKey();
             try {
                 Integer.parseInt(key);
-                String[] task = (String[]) entry.getValue();
-                medicoTask.GetLocalPool().add(task);
+                String[] task = BaseRoomContainer.CastToInformation(entry.getValue());
+                if (task != null) { medicoTask.GetLocalPool().add(task); }
             } catch (Exception e) {
                 // Do nothing
             }
@@ -0,0 +1,140 @@
+package Treatment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+
+import Utility.DataUtils;
+import Utility.SegmentArchive;
+import Utility.WriteAheadLog;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the append-only description log of a treatment: "[subfolder]/Descriptions.log".
+ * Each record is length-prefixed and check-summed (the same format as WriteAheadLog.java), and is
+ * one of the two kinds:
+ * 1) ADD: {"ADD", Index, Date, Time, Description, Medico_Name}
+ * 2) DELETE: {"DELETE", Index}, which is the tombstone of the description at that index.
+ *
+ * Adding a note is one small append at the end of the file, no matter how many notes the treatment
+ * has. A reader keeps the position it has read up to, and calls Tail() to read only the records
+ * appended after it. Replaying a record twice has no effect, so re-appending is harmless.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Append-only
+ * 2) https://docs.oracle.com/javase/8/docs/api/java/nio/channels/FileChannel.html
+**/
+
+public class DescriptionLog {
+    public static final String FILE_NAME = "Descriptions.log";
+    private static final String ADD_RECORD = "ADD";
+    private static final String DELETE_RECORD = "DELETE";
+
+    private final File file;
+
+    public DescriptionLog(String directory) {
+        DataUtils.CheckArgumentCondition(directory != null, "The directory of the description log cannot be null.");
+        this.file = new File(directory);
+    }
+
+    public String GetDirectory() { return this.file.getPath(); }
+    public boolean Exists() { return this.file.exists(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Writer
+    private void Append(List<ByteBuffer> records) throws IOException {
+        if (records.isEmpty()) { return ; }
+        if (this.file.getParentFile() != null) { this.file.getParentFile().mkdirs(); }
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (ByteBuffer record : records) {
+                while (record.hasRemaining()) { channel.write(record); }
+            }
+        }
+    }
+
+    public static ByteBuffer EncodeDescription(String index, String[] information) throws IOException {
+        return WriteAheadLog.EncodeRecord(ADD_RECORD, index, information[0], information[1], information[2], information[3]);
+    }
+
+    public static ByteBuffer EncodeTombstone(String index) throws IOException {
+        return WriteAheadLog.EncodeRecord(DELETE_RECORD, index);
+    }
+
+    public void AppendDescription(String index, String[] information) throws IOException {
+        ArrayList<ByteBuffer> records = new ArrayList<ByteBuffer>(1);
+        records.add(DescriptionLog.EncodeDescription(index, information));
+        this.Append(records);
+    }
+
+    public void AppendTombstone(String index) throws IOException {
+        ArrayList<ByteBuffer> records = new ArrayList<ByteBuffer>(1);
+        records.add(DescriptionLog.EncodeTombstone(index));
+        this.Append(records);
+    }
+
+    public void AppendAll(List<ByteBuffer> records) throws IOException { this.Append(records); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Reader
+    /**
+     * This function reads the records appended after a position of the log.
+     * @param position (long): The position returned by the previous call (0 for the whole log).
+     * @param records (List<String[]>): The output of the new records.
+     * @return (long) The position to continue the tail next time.
+     */
+    public long Tail(long position, List<String[]> records) throws IOException {
+        if (!this.file.exists()) {
+            // The log of a closed record can be moved to the cold-tier archive (see RecordArchiver.java).
+            byte[] archived = SegmentArchive.GetDefaultArchive().Read(this.file.getPath());
+            return archived == null ? position : WriteAheadLog.ReadRecords(archived, (int) position, records);
+        }
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            return WriteAheadLog.ReadRecords(channel, position, records);
+        }
+    }
+
+    public long Repair() throws IOException {
+        // Cut off the torn tail written during a crash, so the next records are not appended behind it.
+        if (!this.file.exists()) { return 0; }
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = WriteAheadLog.ReadRecords(channel, 0, null);
+            if (end < channel.size()) { channel.truncate(end); }
+            return end;
+        }
+    }
+
+    /**
+     * This function applies the records to the descriptions of a treatment.
+     * @param records (List<String[]>): The records read by Tail().
+     * @param descriptions (Hashtable<String, Object>): The {Index} - {Date, Time, Description, Medico_Name}.
+     * @param deleted (HashSet<String>): The indexes of the deleted descriptions.
+     */
+    public static void Apply(List<String[]> records, Hashtable<String, Object> descriptions, HashSet<String> deleted) {
+        for (String[] record : records) {
+            if (ADD_RECORD.equals(record[0]) && record.length >= 6) {
+                descriptions.put(record[1], new String[] {record[2], record[3], record[4], record[5]});
+            } else if (DELETE_RECORD.equals(record[0]) && record.length >= 2) {
+                deleted.add(record[1]);
+            }
+        }
+    }
+}
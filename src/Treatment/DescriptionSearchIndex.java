@@ -0,0 +1,792 @@
+package Treatment;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import BaseClass.BaseRoomContainer;
+import Person.PersonUtils;
+import Utility.DataUtils;
+import Utility.ExecutorUtils;
+import Utility.JsonUtils;
+import Utility.SegmentArchive;
+import Utility.WriteAheadLog;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the full-text (inverted) index over the descriptions (notes) of all treatments, so a
+ * search never has to deserialize the treatments. Each note is a document with a sequential ID, and
+ * each token of a note maps to a postings list of {document, positions}, which answers the boolean
+ * and the phrase queries.
+ *
+ * The index is stored under "database/DescriptionIndex/":
+ * 1) "Documents.log": The metadata of every document (see WriteAheadLog.java) and the deletions.
+ * 2) "Pending.log": The text of the documents not yet written into a segment.
+ * 3) "Segment-[FirstDocument].seg": An immutable segment of the documents [From, To). The postings are
+ *    compressed by the delta and varint coding, and the file is memory-mapped when it is opened.
+ * 4) "Closed": The marker written by Close(), which is removed when the index is opened or changed again.
+ * A new note is appended to the two logs and to the in-memory buffer. When the buffer has SEGMENT_SIZE
+ * documents, it is written as a new segment and the "Pending.log" is cleared. The segments are merged by
+ * their size tier (SEGMENT_SIZE x MERGE_FACTOR^tier documents): when the last MERGE_FACTOR segments are in
+ * the same tier, they are merged into one of the next tier, where the deleted documents are dropped. So a
+ * document is rewritten once per tier, and there are at most MERGE_FACTOR segments per tier.
+ * A segment which cannot be read when the index is opened is written again from the description logs of
+ * the treatments (see DescriptionLog.java); the opening fails if a note cannot be found there. When the
+ * index is opened without the "Closed" marker (a new index, or a crash), it is reconciled with the logs
+ * and the legacy "Descriptions.json": the notes written before the index existed, or between the log and
+ * the index, are indexed. The logs are synced every SYNC_INTERVAL on the scheduler thread, and the index is
+ * closed when the program exits.
+ *
+ * The query is a list of clauses, all of them must match:
+ * - A word (i.e penicillin), or a "quoted phrase" (i.e "penicillin reaction") whose words are adjacent.
+ * - Two clauses joined by OR (i.e rash OR itching), where either of them must match.
+ * - A clause with the "-" prefix (i.e -allergy), which must NOT match.
+ * The result can be filtered by the date (of the note) and by the medico who wrote the note.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Inverted_index
+ * 2) https://nlp.stanford.edu/IR-book/html/htmledition/variable-byte-codes-1.html
+ * 3) https://nlp.stanford.edu/IR-book/html/htmledition/positional-indexes-1.html
+**/
+
+public class DescriptionSearchIndex {
+    private static final String INDEX_DIRECTORY = "database/DescriptionIndex/";
+    private static final String DOCUMENT_RECORD = "DOCUMENT";
+    private static final String DELETE_RECORD = "DELETE";
+    private static final int SEGMENT_MAGIC = 0x48444D53;                // "HDMS"
+    private static final int SEGMENT_SIZE = 8192;                       // The number of documents per segment
+    private static final int MERGE_FACTOR = 8;                          // The number of segments merged into the next tier
+    private static final String CLOSED_MARKER = "Closed";
+    private static final String LEGACY_FILE_NAME = "Descriptions.json";
+    private static final long SYNC_INTERVAL = 10L * 1000L;
+    private static volatile DescriptionSearchIndex DefaultIndex = null;
+
+    private final File directory;
+    private final WriteAheadLog documents;
+    private final WriteAheadLog pending;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // The metadata of the documents; the document ID is the index of these lists.
+    private final ArrayList<String[]> DocumentInfo = new ArrayList<String[]>();     // {PatientID, MedicalRecordID, TreatmentIndex, DescriptionIndex, Date, Medico}
+    private final HashMap<String, Integer> DocumentKeys = new HashMap<String, Integer>();
+    private int[] DocumentDates = new int[1024];                                    // The epoch-day of the note
+    private final BitSet Deleted = new BitSet();
+
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+    private TreeMap<String, Postings> buffer = new TreeMap<String, Postings>();
+    private int BufferFrom = 0;                                                     // The first document in the buffer
+    private boolean closed = false;
+
+    public DescriptionSearchIndex(String directory) throws IOException {
+        DataUtils.CheckArgumentCondition(directory != null, "The directory of the index cannot be null.");
+        this.directory = new File(directory);
+        this.directory.mkdirs();
+        this.documents = new WriteAheadLog(new File(this.directory, "Documents.log").getPath());
+        this.pending = new WriteAheadLog(new File(this.directory, "Pending.log").getPath());
+        this.Open();
+    }
+
+    public static DescriptionSearchIndex GetDefaultIndex() throws IOException {
+        if (DescriptionSearchIndex.DefaultIndex == null) {
+            synchronized (DescriptionSearchIndex.class) {
+                if (DescriptionSearchIndex.DefaultIndex == null) {
+                    DescriptionSearchIndex index = new DescriptionSearchIndex(INDEX_DIRECTORY);
+                    ExecutorUtils.SchedulePeriodic(() -> {
+                        try { index.Sync(); } catch (IOException e) { e.printStackTrace(); }
+                    }, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+                    ExecutorUtils.RunAtShutdown("DescriptionSearchIndex-Close", () -> {
+                        try { index.Close(); } catch (IOException e) { e.printStackTrace(); }
+                    });
+                    DescriptionSearchIndex.DefaultIndex = index;
+                }
+            }
+        }
+        return DescriptionSearchIndex.DefaultIndex;
+    }
+
+    public static String GetDocumentKey(String MedicalRecordID, int TreatmentIndex, String DescriptionIndex) {
+        return MedicalRecordID + "/" + TreatmentIndex + "/" + DescriptionIndex;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Result
+    public static class Hit {
+        public final String PatientID;
+        public final String MedicalRecordID;
+        public final int TreatmentIndex;
+        public final String DescriptionIndex;
+        public final String Date;
+        public final String MedicoName;
+
+        private Hit(String[] info) {
+            this.PatientID = info[0];
+            this.MedicalRecordID = info[1];
+            this.TreatmentIndex = Integer.parseInt(info[2]);
+            this.DescriptionIndex = info[3];
+            this.Date = info[4];
+            this.MedicoName = info[5];
+        }
+
+        public String toString() {
+            return GetDocumentKey(this.MedicalRecordID, this.TreatmentIndex, this.DescriptionIndex) + " (" + this.Date + ", " + this.MedicoName + ")";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Tokenizer & Varint coding
+    public static List<String> Tokenize(String text) {
+        // The lower-case runs of letters and digits; the position of a token is its index in the list.
+        ArrayList<String> tokens = new ArrayList<String>();
+        if (text == null) { return tokens; }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) { start = i; }
+            if (!word && start >= 0) { tokens.add(text.substring(start, i).toLowerCase()); start = -1; }
+        }
+        return tokens;
+    }
+
+    private static void WriteVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) { out.write((value & 0x7F) | 0x80); value >>>= 7; }
+        out.write(value);
+    }
+
+    private static int ReadVarInt(ByteBuffer in) {
+        int value = 0, shift = 0;
+        byte b;
+        do { b = in.get(); value |= (b & 0x7F) << shift; shift += 7; } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int ToEpochDay(String date) {
+        try { return (int) LocalDate.parse(date).toEpochDay(); }
+        catch (Exception e) { return Integer.MIN_VALUE; }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Postings: [count] x {document delta, frequency, position deltas...} in the varint coding
+    private static class Postings {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        private int count = 0;
+        private int LastDocument = -1;
+
+        private void Add(int document, int[] positions, int length) {
+            DescriptionSearchIndex.WriteVarInt(this.bytes, document - this.LastDocument);
+            DescriptionSearchIndex.WriteVarInt(this.bytes, length);
+            for (int i = 0, previous = 0; i < length; previous = positions[i], i++) {
+                DescriptionSearchIndex.WriteVarInt(this.bytes, positions[i] - previous);
+            }
+            this.LastDocument = document;
+            this.count++;
+        }
+    }
+
+    private static class PostingList {
+        // The decoded postings of a term: the documents in the ascending order and their positions.
+        private int[] documents = new int[8];
+        private int[][] positions = new int[8][];
+        private int size = 0;
+
+        private void Add(int document, int[] position) {
+            if (this.size == this.documents.length) {
+                this.documents = Arrays.copyOf(this.documents, this.size * 2);
+                this.positions = Arrays.copyOf(this.positions, this.size * 2);
+            }
+            this.documents[this.size] = document;
+            this.positions[this.size++] = position;
+        }
+
+        private void Decode(ByteBuffer data, int count) {
+            int document = -1;
+            for (int i = 0; i < count; i++) {
+                document += DescriptionSearchIndex.ReadVarInt(data);
+                int[] position = new int[DescriptionSearchIndex.ReadVarInt(data)];
+                for (int j = 0, previous = 0; j < position.length; j++) {
+                    previous += DescriptionSearchIndex.ReadVarInt(data);
+                    position[j] = previous;
+                }
+                this.Add(document, position);
+            }
+        }
+
+        private int[] GetPositions(int document) {
+            int index = Arrays.binarySearch(this.documents, 0, this.size, document);
+            return index >= 0 ? this.positions[index] : null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Segment: [magic] [From] [To] [term count] {term (UTF-8), count, offset, length}* [postings...]
+    private static class Segment {
+        private final File file;
+        private final int from, to;
+        private final HashMap<String, int[]> dictionary;                    // term -> {count, offset, length}
+        private final MappedByteBuffer data;
+        private final int DataStart;
+
+        private Segment(File file) throws IOException {
+            this.file = file;
+            try (RandomAccessFile handle = new RandomAccessFile(file, "r")) {
+                this.data = handle.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, handle.length());
+            }
+            if (this.data.getInt() != SEGMENT_MAGIC) { throw new IOException("Invalid segment file: " + file.getPath()); }
+            this.from = this.data.getInt();
+            this.to = this.data.getInt();
+            int terms = this.data.getInt();
+            this.dictionary = new HashMap<String, int[]>(terms * 2);
+            for (int i = 0; i < terms; i++) {
+                byte[] term = new byte[this.data.getShort() & 0xFFFF];
+                this.data.get(term);
+                this.dictionary.put(new String(term, StandardCharsets.UTF_8), new int[] {this.data.getInt(), this.data.getInt(), this.data.getInt()});
+            }
+            this.DataStart = this.data.position();
+        }
+
+        private void Decode(String term, PostingList output) {
+            int[] entry = this.dictionary.get(term);
+            if (entry == null) { return ; }
+            ByteBuffer slice = this.data.duplicate();
+            slice.limit(this.DataStart + entry[1] + entry[2]).position(this.DataStart + entry[1]);
+            output.Decode(slice, entry[0]);
+        }
+
+        private static void Write(File file, int from, int to, TreeMap<String, Postings> postings) throws IOException {
+            // Written into a temporary file first, so a crash never leaves a half-written segment.
+            File temporary = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(SEGMENT_MAGIC);
+                out.writeInt(from);
+                out.writeInt(to);
+                out.writeInt(postings.size());
+                int offset = 0;
+                for (Entry<String, Postings> entry : postings.entrySet()) {
+                    byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(term.length);
+                    out.write(term);
+                    out.writeInt(entry.getValue().count);
+                    out.writeInt(offset);
+                    out.writeInt(entry.getValue().bytes.size());
+                    offset += entry.getValue().bytes.size();
+                }
+                for (Postings item : postings.values()) { item.bytes.writeTo(out); }
+            }
+            if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+                throw new IOException("Cannot write the segment: " + file.getPath());
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Opening
+    private void Open() throws IOException {
+        // Step 00: The index is reconciled with the description logs unless it was closed.
+        File marker = new File(this.directory, CLOSED_MARKER);
+        boolean reconcile = !marker.exists();
+        marker.delete();
+
+        // Step 01: The metadata and the deletions
+        for (String[] record : this.documents.ReadAll()) {
+            if (DOCUMENT_RECORD.equals(record[0]) && record.length >= 8) {
+                this.AddDocumentInfo(Arrays.copyOfRange(record, 2, 8));
+            } else if (DELETE_RECORD.equals(record[0]) && record.length >= 2) {
+                this.Deleted.set(Integer.parseInt(record[1]));
+            }
+        }
+
+        // Step 02: The segments; a segment covered by a merged segment (a crash during the merge) is dropped.
+        // The documents of a segment which cannot be read are indexed again from the description logs.
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        ArrayList<Segment> loaded = new ArrayList<Segment>();
+        ArrayList<File> broken = new ArrayList<File>();
+        for (File file : (files != null ? files : new File[0])) {
+            try { loaded.add(new Segment(file)); }
+            catch (Exception e) { System.out.println("Warning: The segment " + file.getPath() + " is rebuilt (" + e.getMessage() + ")."); broken.add(file); }
+        }
+        loaded.sort((a, b) -> a.from != b.from ? Integer.compare(a.from, b.from) : Integer.compare(b.to, a.to));
+        DescriptionSource source = broken.isEmpty() ? null : new DescriptionSource();
+        for (Segment segment : loaded) {
+            if (segment.from < this.BufferFrom) { segment.file.delete(); continue; }
+            if (segment.from > this.BufferFrom) { this.RebuildSegment(this.BufferFrom, segment.from, source); }
+            this.segments.add(segment);
+            this.BufferFrom = segment.to;
+        }
+
+        // Step 03: The documents after the last segment are indexed into the buffer again, from the pending log
+        // or (i.e the last segment is broken) from the description logs.
+        HashMap<Integer, String> texts = new HashMap<Integer, String>();
+        for (String[] record : this.pending.ReadAll()) { texts.put(Integer.parseInt(record[0]), record[1]); }
+        for (int document = this.BufferFrom; document < this.DocumentInfo.size(); document++) {
+            String text = texts.get(document);
+            if (text == null) {
+                if (source == null) { source = new DescriptionSource(); }
+                text = source.GetText(document, this.DocumentInfo.get(document), this.Deleted.get(document));
+                this.pending.Append(Integer.toString(document), text);
+            }
+            this.AddToBuffer(document, text);
+        }
+        for (File file : broken) { if (file.exists() && !this.IsSegmentFile(file)) { file.delete(); } }
+        if (this.DocumentInfo.size() - this.BufferFrom >= SEGMENT_SIZE) { this.FlushBuffer(); }
+
+        // Step 04: The notes in the description logs which are not in the index
+        if (reconcile) { this.Reconcile(source != null ? source : new DescriptionSource()); }
+    }
+
+    private void Reconcile(DescriptionSource source) throws IOException {
+        // The treatment folder is "[...]/[Patient.ID]/[MedicalRecord.ID]/[Standardized-TreatmentIndex]/".
+        int added = 0, removed = 0;
+        for (String path : source.logs.values()) {
+            File treatment = new File(path).getParentFile();
+            if (treatment.getParentFile().getParentFile() == null) { continue; }
+            String PatientID = treatment.getParentFile().getParentFile().getName();
+            String MedicalRecordID = treatment.getParentFile().getName();
+            int TreatmentIndex;
+            try { TreatmentIndex = Integer.parseInt(treatment.getName().trim()); }
+            catch (NumberFormatException e) { continue; }
+
+            Hashtable<String, Object> descriptions = new Hashtable<String, Object>();
+            HashSet<String> deleted = new HashSet<String>();
+            DescriptionSource.Read(path, descriptions, deleted);
+            for (Entry<String, Object> entry : descriptions.entrySet()) {
+                if (deleted.contains(entry.getKey()) || this.DocumentKeys.containsKey(GetDocumentKey(MedicalRecordID, TreatmentIndex, entry.getKey()))) { continue; }
+                this.Add(PatientID, MedicalRecordID, TreatmentIndex, entry.getKey(), (String[]) entry.getValue());
+                added++;
+            }
+            for (String index : deleted) {
+                Integer document = this.DocumentKeys.get(GetDocumentKey(MedicalRecordID, TreatmentIndex, index));
+                if (document == null || this.Deleted.get(document)) { continue; }
+                this.Delete(MedicalRecordID, TreatmentIndex, index);
+                removed++;
+            }
+        }
+        if (added + removed > 0) {
+            System.out.println("Warning: The description index is reconciled (" + added + " note(s) added, " + removed + " deleted).");
+        }
+    }
+
+    private boolean IsSegmentFile(File file) {
+        for (Segment segment : this.segments) { if (segment.file.equals(file)) { return true; } }
+        return false;
+    }
+
+    private void RebuildSegment(int from, int to, DescriptionSource source) throws IOException {
+        // The documents [from, to) are indexed again into a new segment.
+        TreeMap<String, Postings> saved = this.buffer;
+        this.buffer = new TreeMap<String, Postings>();
+        try {
+            for (int document = from; document < to; document++) {
+                this.AddToBuffer(document, source.GetText(document, this.DocumentInfo.get(document), this.Deleted.get(document)));
+            }
+            File file = new File(this.directory, "Segment-" + from + "-" + to + ".seg");
+            Segment.Write(file, from, to, this.buffer);
+            this.segments.add(new Segment(file));
+        } finally {
+            this.buffer = saved;
+        }
+    }
+
+    /**
+     * This class reads the text of the documents from the description logs of the treatments (see
+     * DescriptionLog.java), or the legacy "Descriptions.json" of a treatment without a log, which are
+     * found by scanning the record folders (and the archive) once.
+     */
+    private static class DescriptionSource {
+        // "<MedicalRecordID>/<Treatment folder>" -> the path of its description log (or legacy file)
+        private final HashMap<String, String> logs = new HashMap<String, String>();
+        private final HashMap<String, Hashtable<String, Object>> treatments = new HashMap<String, Hashtable<String, Object>>();
+
+        private DescriptionSource() throws IOException {
+            String directory = PersonUtils.GetPatientRecordDirectory();
+            this.FindLogs(new File(directory));
+            for (String path : SegmentArchive.GetDefaultArchive().GetPathsWithPrefix(SegmentArchive.NormalizePath(directory))) {
+                if (path.endsWith("/" + DescriptionLog.FILE_NAME) || path.endsWith("/" + LEGACY_FILE_NAME)) { this.AddLog(new File(path)); }
+            }
+        }
+
+        private void FindLogs(File folder) {
+            File[] children = folder.listFiles();
+            if (children == null) { return ; }
+            for (File child : children) {
+                if (child.isDirectory()) { this.FindLogs(child); }
+                else if (child.getName().equals(DescriptionLog.FILE_NAME) || child.getName().equals(LEGACY_FILE_NAME)) { this.AddLog(child); }
+            }
+        }
+
+        private void AddLog(File log) {
+            File treatment = log.getParentFile();
+            if (treatment == null || treatment.getParentFile() == null) { return ; }
+            String key = treatment.getParentFile().getName() + "/" + treatment.getName();
+            if (log.getName().equals(DescriptionLog.FILE_NAME)) { this.logs.put(key, log.getPath()); }
+            else { this.logs.putIfAbsent(key, log.getPath()); }
+        }
+
+        private static void Read(String path, Hashtable<String, Object> descriptions, HashSet<String> deleted) throws IOException {
+            if (path.endsWith(DescriptionLog.FILE_NAME)) {
+                ArrayList<String[]> records = new ArrayList<String[]>();
+                new DescriptionLog(path).Tail(0, records);
+                DescriptionLog.Apply(records, descriptions, deleted);
+                return ;
+            }
+            // The legacy "Descriptions.json", where the deletion is the "[Deleted] " prefix (see Treatment.java)
+            for (Entry<String, Object> entry : JsonUtils.LoadJsonFileToHashtable(path, null).entrySet()) {
+                String[] information = BaseRoomContainer.CastToInformation(entry.getValue());
+                if (information == null || information.length < 4) { continue; }
+                if (information[2].startsWith("[Deleted] ")) {
+                    information[2] = information[2].substring("[Deleted] ".length());
+                    deleted.add(entry.getKey());
+                }
+                descriptions.put(entry.getKey(), information);
+            }
+        }
+
+        private String GetText(int document, String[] info, boolean deleted) throws IOException {
+            String key = info[1] + "/" + TreatmentUtils.GetStandardizedIndex(Integer.parseInt(info[2]));
+            Hashtable<String, Object> descriptions = this.treatments.get(key);
+            if (descriptions == null) {
+                descriptions = new Hashtable<String, Object>();
+                String path = this.logs.get(key);
+                if (path != null) { DescriptionSource.Read(path, descriptions, new HashSet<String>()); }
+                this.treatments.put(key, descriptions);
+            }
+            Object information = descriptions.get(info[3]);
+            if (information instanceof String[]) { return ((String[]) information)[2]; }
+
+            // A deleted document is never returned by a search, so its text is not needed.
+            if (deleted) { return ""; }
+            throw new IOException("The document " + document + " (" + GetDocumentKey(info[1], Integer.parseInt(info[2]), info[3]) +
+                                  ") cannot be found in the description logs; the index cannot be opened.");
+        }
+    }
+
+    private int AddDocumentInfo(String[] info) {
+        int document = this.DocumentInfo.size();
+        this.DocumentInfo.add(info);
+        this.DocumentKeys.put(GetDocumentKey(info[1], Integer.parseInt(info[2]), info[3]), document);
+        if (document == this.DocumentDates.length) { this.DocumentDates = Arrays.copyOf(this.DocumentDates, document * 2); }
+        this.DocumentDates[document] = DescriptionSearchIndex.ToEpochDay(info[4]);
+        return document;
+    }
+
+    private void AddToBuffer(int document, String text) {
+        List<String> tokens = DescriptionSearchIndex.Tokenize(text);
+        TreeMap<String, int[]> positions = new TreeMap<String, int[]>();      // term -> {length, positions...}
+        for (int i = 0; i < tokens.size(); i++) {
+            int[] list = positions.get(tokens.get(i));
+            if (list == null) { list = new int[5]; positions.put(tokens.get(i), list); }
+            if (list[0] + 1 == list.length) { list = Arrays.copyOf(list, list.length * 2); positions.put(tokens.get(i), list); }
+            list[++list[0]] = i;
+        }
+        for (Entry<String, int[]> entry : positions.entrySet()) {
+            Postings postings = this.buffer.get(entry.getKey());
+            if (postings == null) { postings = new Postings(); this.buffer.put(entry.getKey(), postings); }
+            postings.Add(document, Arrays.copyOfRange(entry.getValue(), 1, entry.getValue()[0] + 1), entry.getValue()[0]);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Updater
+    /**
+     * This function indexes a note; a note which has been indexed is ignored.
+     * @param PatientID (String): The ID of the patient.
+     * @param MedicalRecordID (String): The ID of the medical record.
+     * @param TreatmentIndex (int): The index of the treatment in the medical record.
+     * @param DescriptionIndex (String): The index of the description in the treatment.
+     * @param information (String[]): The {Date, Time, Description, Medico_Name} of the note.
+     */
+    public void Add(String PatientID, String MedicalRecordID, int TreatmentIndex, String DescriptionIndex,
+                    String[] information) throws IOException {
+        String key = GetDocumentKey(MedicalRecordID, TreatmentIndex, DescriptionIndex);
+        this.lock.writeLock().lock();
+        try {
+            if (this.DocumentKeys.containsKey(key)) { return ; }
+            this.Reopen();
+            String[] info = {PatientID, MedicalRecordID, Integer.toString(TreatmentIndex), DescriptionIndex,
+                             information[0], information[3]};
+            this.documents.Append(DOCUMENT_RECORD, Integer.toString(this.DocumentInfo.size()), info[0], info[1], info[2],
+                                  info[3], info[4], info[5]);
+            int document = this.AddDocumentInfo(info);
+            this.pending.Append(Integer.toString(document), information[2]);
+            this.AddToBuffer(document, information[2]);
+            if (this.DocumentInfo.size() - this.BufferFrom >= SEGMENT_SIZE) { this.FlushBuffer(); }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void Delete(String MedicalRecordID, int TreatmentIndex, String DescriptionIndex) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            Integer document = this.DocumentKeys.get(GetDocumentKey(MedicalRecordID, TreatmentIndex, DescriptionIndex));
+            if (document == null || this.Deleted.get(document)) { return ; }
+            this.Reopen();
+            this.documents.Append(DELETE_RECORD, Integer.toString(document));
+            this.Deleted.set(document);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void Sync() throws IOException {
+        // The logs are forced to the disk, without writing a new segment.
+        this.lock.readLock().lock();
+        try {
+            this.documents.Sync(Long.MAX_VALUE);
+            this.pending.Sync(Long.MAX_VALUE);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public void Flush() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.FlushBuffer();
+            this.documents.Sync(Long.MAX_VALUE);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public void Close() throws IOException {
+        // The index is flushed, and the marker tells the next opening that no reconciliation is needed.
+        this.lock.writeLock().lock();
+        try {
+            this.Flush();
+            this.pending.Sync(Long.MAX_VALUE);
+            new File(this.directory, CLOSED_MARKER).createNewFile();
+            this.closed = true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void Reopen() {
+        // Called under the write lock: a change after Close() (i.e by another shutdown hook) removes the marker.
+        if (!this.closed) { return ; }
+        new File(this.directory, CLOSED_MARKER).delete();
+        this.closed = false;
+    }
+
+    private void FlushBuffer() throws IOException {
+        // Called under the write lock.
+        int to = this.DocumentInfo.size();
+        if (to == this.BufferFrom) { return ; }
+        File file = new File(this.directory, "Segment-" + this.BufferFrom + ".seg");
+        Segment.Write(file, this.BufferFrom, to, this.buffer);
+        this.segments.add(new Segment(file));
+        this.buffer = new TreeMap<String, Postings>();
+        this.BufferFrom = to;
+        this.pending.Truncate();
+        this.MergeTiers();
+    }
+
+    private static int GetTier(Segment segment) {
+        // The tier of a segment of n documents is floor(log_MERGE_FACTOR(n / SEGMENT_SIZE)); a small segment is tier 0.
+        int tier = 0;
+        for (long size = (long) SEGMENT_SIZE * MERGE_FACTOR; segment.to - segment.from >= size; size *= MERGE_FACTOR) { tier++; }
+        return tier;
+    }
+
+    private void MergeTiers() throws IOException {
+        // The segments are sorted by their documents, and the newest (smallest) ones are at the end. While the
+        // last MERGE_FACTOR segments are in the same tier, they are merged, which can cascade to the next tier.
+        while (this.segments.size() >= MERGE_FACTOR) {
+            int first = this.segments.size() - MERGE_FACTOR;
+            int tier = DescriptionSearchIndex.GetTier(this.segments.get(first));
+            for (int i = first + 1; i < this.segments.size() && tier >= 0; i++) {
+                if (DescriptionSearchIndex.GetTier(this.segments.get(i)) != tier) { tier = -1; }
+            }
+            if (tier < 0) { return ; }
+            this.Merge(first);
+        }
+    }
+
+    private void Merge(int first) throws IOException {
+        // Merge the segments [first, end) into one, dropping the deleted documents.
+        List<Segment> inputs = this.segments.subList(first, this.segments.size());
+        TreeMap<String, Postings> merged = new TreeMap<String, Postings>();
+        TreeMap<String, Boolean> terms = new TreeMap<String, Boolean>();
+        for (Segment segment : inputs) {
+            for (String term : segment.dictionary.keySet()) { terms.put(term, Boolean.TRUE); }
+        }
+        for (String term : terms.keySet()) {
+            PostingList list = new PostingList();
+            for (Segment segment : inputs) { segment.Decode(term, list); }
+            Postings postings = new Postings();
+            for (int i = 0; i < list.size; i++) {
+                if (!this.Deleted.get(list.documents[i])) { postings.Add(list.documents[i], list.positions[i], list.positions[i].length); }
+            }
+            if (postings.count > 0) { merged.put(term, postings); }
+        }
+
+        int from = inputs.get(0).from, to = inputs.get(inputs.size() - 1).to;
+        File file = new File(this.directory, "Segment-" + from + "-" + to + ".seg");
+        Segment.Write(file, from, to, merged);
+        Segment result = new Segment(file);
+        for (Segment segment : inputs) { segment.file.delete(); }
+        inputs.clear();
+        this.segments.add(result);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Search
+    private PostingList GetPostings(String term) {
+        PostingList list = new PostingList();
+        for (Segment segment : this.segments) { segment.Decode(term, list); }
+        Postings postings = this.buffer.get(term);
+        if (postings != null) { list.Decode(ByteBuffer.wrap(postings.bytes.toByteArray()), postings.count); }
+        return list;
+    }
+
+    private BitSet MatchClause(List<String> terms) {
+        // A single term, or a phrase whose terms are at the consecutive positions.
+        BitSet result = new BitSet();
+        if (terms.isEmpty()) { return result; }
+        PostingList[] lists = new PostingList[terms.size()];
+        for (int i = 0; i < lists.length; i++) { lists[i] = this.GetPostings(terms.get(i)); }
+
+        for (int i = 0; i < lists[0].size; i++) {
+            int document = lists[0].documents[i];
+            for (int start : lists[0].positions[i]) {
+                boolean match = true;
+                for (int j = 1; j < lists.length && match; j++) {
+                    int[] positions = lists[j].GetPositions(document);
+                    match = positions != null && Arrays.binarySearch(positions, start + j) >= 0;
+                }
+                if (match) { result.set(document); break; }
+            }
+        }
+        return result;
+    }
+
+    private static List<String> ParseClauses(String query) {
+        // Split the query into the words, the "quoted phrases", the "OR" and the "-" prefix.
+        ArrayList<String> clauses = new ArrayList<String>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) { i++; continue; }
+            int start = i;
+            if (c == '-' && i + 1 < query.length() && query.charAt(i + 1) == '"') { i++; c = '"'; }
+            if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                i = end < 0 ? query.length() : end + 1;
+            } else {
+                while (i < query.length() && !Character.isWhitespace(query.charAt(i))) { i++; }
+            }
+            clauses.add(query.substring(start, i));
+        }
+        return clauses;
+    }
+
+    /**
+     * This function searches the notes matching the query (see the class description).
+     * @param query (String): The query, i.e: "penicillin reaction" -mild rash OR itching
+     * @param FromDate (LocalDate): The first date of the notes (inclusive), or null.
+     * @param ToDate (LocalDate): The last date of the notes (inclusive), or null.
+     * @param MedicoName (String): The medico who wrote the notes, or null for all medicos.
+     * @param limit (int): The maximum number of results.
+     * @return (List<Hit>) The matching notes, from the newest indexed.
+     */
+    public List<Hit> Search(String query, LocalDate FromDate, LocalDate ToDate, String MedicoName, int limit) {
+        DataUtils.CheckArgumentCondition(query != null, "The query cannot be null.");
+        DataUtils.CheckArgumentCondition(limit > 0, "The number of results must be positive.");
+        int from = FromDate == null ? Integer.MIN_VALUE : (int) FromDate.toEpochDay();
+        int to = ToDate == null ? Integer.MAX_VALUE : (int) ToDate.toEpochDay();
+
+        this.lock.readLock().lock();
+        try {
+            BitSet result = null, excluded = new BitSet(), group = null;
+            boolean union = false;
+            for (String clause : DescriptionSearchIndex.ParseClauses(query)) {
+                if (clause.equals("OR")) { union = group != null; continue; }
+                boolean negated = clause.startsWith("-");
+                BitSet match = this.MatchClause(DescriptionSearchIndex.Tokenize(negated ? clause.substring(1) : clause));
+                if (negated) { excluded.or(match); union = false; continue; }
+
+                if (union) { group.or(match); }
+                else {
+                    if (group != null) { if (result == null) { result = group; } else { result.and(group); } }
+                    group = match;
+                }
+                union = false;
+            }
+            if (group != null) { if (result == null) { result = group; } else { result.and(group); } }
+            if (result == null) { return new ArrayList<Hit>(0); }
+            result.andNot(excluded);
+            result.andNot(this.Deleted);
+
+            ArrayList<Hit> hits = new ArrayList<Hit>(Math.min(limit, result.cardinality()));
+            for (int document = result.length() - 1; document >= 0 && hits.size() < limit; document = result.previousSetBit(document - 1)) {
+                if (this.DocumentDates[document] < from || this.DocumentDates[document] > to) { continue; }
+                String[] info = this.DocumentInfo.get(document);
+                if (MedicoName != null && !MedicoName.equalsIgnoreCase(info[5])) { continue; }
+                hits.add(new Hit(info));
+            }
+            return hits;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public List<Hit> Search(String query, int limit) { return this.Search(query, null, null, null, limit); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getter
+    public int GetNumberOfDocuments() {
+        this.lock.readLock().lock();
+        try { return this.DocumentInfo.size() - this.Deleted.cardinality(); }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    public int GetNumberOfSegments() {
+        this.lock.readLock().lock();
+        try { return this.segments.size(); }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    public Iterator<String> GetTerms() {
+        // The terms of the buffer and of all segments (a term may be repeated among the segments).
+        this.lock.readLock().lock();
+        try {
+            ArrayList<String> terms = new ArrayList<String>(this.buffer.keySet());
+            for (Segment segment : this.segments) { terms.addAll(segment.dictionary.keySet()); }
+            return terms.iterator();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package Treatment;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import BaseClass.BaseRecord;
+import BaseClass.PatientHeader;
 import PrefixState.Prefix;
 import Staff.Medico;
 import Utility.DataUtils;
+import Utility.ExecutorUtils;
 import Utility.JsonUtils;
 
 
@@ -33,6 +38,9 @@ import Utility.JsonUtils;
  *    is sometimes useless in some scenarios, for example, during an traffic-rescuing emergency.
  *    Thus these information is not needed in some scenarios.
  * 
+ * When a "MedicalRecord" is loaded, only the headers of its treatments (see TreatmentHeader.java) are
+ * read from the record file; a "Treatment" is loaded from its own file when it is opened by GetTreatment().
+ * Until then, its slot in the local pool is null.
  * 
  * @author Ichiru Take
  * @version 0.0.1
@@ -46,27 +54,31 @@ public class MedicalRecord extends BaseRecord {
     // ---------------------------------------------------------------------------------------------------------------------
     // Synchronized with Treatment.StandardizeIndex()
     private static final int NUMBER_OF_MAX_TREATMENTS = TreatmentUtils.GetMaxTreatmentInMedicalRecords();       
-    private final ArrayList<Treatment> LocalPool;
+    private final TreatmentAppendList Treatments;           // The treatment, or its header if not yet loaded
 
     // ----------------------------------------------------------                         
     private String MedicalRecordID;
     private String RDoc_MedicoID, RNurse_MedicoID;             // This is the ID of the doctor and nurse who created the record    
     protected Prefix prefix;
 
-    public MedicalRecord(String Patient_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, String Pt_Gender, 
-                         boolean writable, String MedicalRecord_ID) {
-        super(Patient_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender, writable);
+    public MedicalRecord(PatientHeader header, boolean writable, String MedicalRecord_ID) {
+        super(header, writable);
         
         DataUtils.CheckArgumentCondition(MedicalRecord_ID != null, "The MedicalRecord_ID cannot be null.");
         DataUtils.CheckArgumentCondition(MedicalRecord_ID.length() > 0, "The MedicalRecord_ID cannot be empty.");
         this.MedicalRecordID = MedicalRecord_ID;
         this.prefix = MedicalRecord.GetPrefix();
-        this.LocalPool = new ArrayList<Treatment>(MedicalRecord.NUMBER_OF_MAX_TREATMENTS);
+        this.Treatments = new TreatmentAppendList(MedicalRecord.NUMBER_OF_MAX_TREATMENTS);
         
         this.RDoc_MedicoID = "";                            // Default is empty field
         this.RNurse_MedicoID = "";                          // Default is empty field
     }
 
+    public MedicalRecord(String Patient_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, String Pt_Gender, 
+                         boolean writable, String MedicalRecord_ID) {
+        this(PatientHeader.Intern(Patient_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender), writable, MedicalRecord_ID);
+    }
+
     public MedicalRecord(String Patient_ID, String Pt_FirstName, String Pt_LastName, String Pt_Age, String Pt_Gender, 
                          String MedicalRecord_ID) {
         this(Patient_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender, true, 
@@ -88,7 +100,13 @@ public class MedicalRecord extends BaseRecord {
     // Getter & Setter
     public static int GetMaxNumberOfTreatments() { return MedicalRecord.NUMBER_OF_MAX_TREATMENTS; }
 
-    public ArrayList<Treatment> GetLocalPool() { return this.LocalPool; }
+    public ArrayList<Treatment> GetLocalPool() { 
+        // A snapshot of the treatments by their indexes; a treatment not yet loaded is null.
+        int count = this.Treatments.Size();
+        ArrayList<Treatment> pool = new ArrayList<Treatment>(count);
+        for (int i = 0; i < count; i++) { pool.add(this.Treatments.Get(i)); }
+        return pool;
+    }
     public String GetMedicalRecordID() {  return this.MedicalRecordID; }
 
     public void SetMedicalRecordID(String MedicalRecordID) throws Exception { 
@@ -132,54 +150,74 @@ public class MedicalRecord extends BaseRecord {
 
     // --------------------------------------------------------------------------------------------------------------------
     // Treatment-related methods
-    private void AttemptToSetTreatmentIndex(Treatment treatment) {
-        if (treatment.GetTreatmentIndex() == -1) { treatment.SetTreatmentIndex(this.GetLocalPool().size()); }
+    public void AddTreatment(Treatment treatment) throws Exception {
+        this.AddTreatment(treatment, true);
     }
 
-    public void AddTreatment(Treatment treatment) throws Exception {
+    private void AddTreatment(Treatment treatment, boolean created) throws Exception {
+        // The treatments of a legacy record file are re-added when it is loaded; they are not counted again.
         DataUtils.CheckArgumentCondition(this.IsWritable(), "This record is not writable.");
         DataUtils.CheckArgumentCondition(treatment != null, "The treatment cannot be null.");
-        DataUtils.CheckCondition(this.GetLocalPool().size() < MedicalRecord.GetMaxNumberOfTreatments(), 
-                                 "The number of treatments stored is too large.");
-        
         DataUtils.CheckCondition(treatment.GetMedicalRecordID() == this.GetMedicalRecordID(), 
                                  "This treatment does not belong to this medical record.");
         BaseRecord.ValidateTwoNeighborRecords(this, treatment, true);
-        this.AttemptToSetTreatmentIndex(treatment);
-        if (treatment.GetTreatmentIndex() == - 1) { this.LocalPool.add(treatment); }
-        else { this.LocalPool.add(treatment.GetTreatmentIndex(), treatment); }
+        if (created) { this.Treatments.Append(treatment); }
+        else { this.Treatments.Put(treatment.GetTreatmentIndex(), treatment); }      // The stored index is kept
+        if (created) { 
+            TreatmentStatistics.GetDefaultStatistics().RecordCreated(treatment.GetClassificationCode(), treatment.GetDate()); 
+            // The medicos added before the treatment had its index are indexed now (see MedicoTreatmentIndex.java).
+            if (!treatment.GetMedicoInfo().isEmpty()) { MedicoTreatmentIndex.GetDefaultIndex().AddAll(treatment); }
+        }
     }
 
     public Treatment CreateNewTreatment(String code) throws Exception {
         // Note that this method does not add the new treatment to the local pool.
         // It only creates a new treatment object.
-        String Pt_ID = this.GetPtID();
-        String Pt_FirstName = this.GetPtFirstName();
-        String Pt_LastName = this.GetPtLastName();
-        String Pt_Age = this.GetPtAge();
-        String Pt_Gender = this.GetPtGender();
-        String MedicalRecord_ID = this.GetMedicalRecordID();
-
-        Treatment newTreatment = new Treatment(Pt_ID, MedicalRecord_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender, 
-                                               -1, code, true) ;
+        // The new treatment shares the patient header of this record.
+        Treatment newTreatment = new Treatment(this.GetPatientHeader(), this.GetMedicalRecordID(), -1, code, true);
         return newTreatment;  
     }
 
     public Treatment AddNewTreatment(String code) throws Exception {
         DataUtils.CheckArgumentCondition(this.IsWritable(), "This record is not writable.");
-        DataUtils.CheckCondition(this.GetLocalPool().size() < MedicalRecord.GetMaxNumberOfTreatments(), 
-                                 "The number of treatments stored is too large.");
-        
         Treatment treatment = this.CreateNewTreatment(code);
-        this.AttemptToSetTreatmentIndex(treatment);
-        this.LocalPool.add(treatment);
+        this.Treatments.Append(treatment);                          // The index is assigned atomically
+        TreatmentStatistics.GetDefaultStatistics().RecordCreated(treatment.GetClassificationCode(), treatment.GetDate());
         return treatment;
     }
 
     public Treatment GetTreatment(int index) throws Exception {
+        // Load the treatment from its file at the first time it is opened.
         DataUtils.CheckArgumentCondition(index >= 0, "The index cannot be negative.");
-        DataUtils.CheckArgumentCondition(index < this.GetLocalPool().size(), "The index is out of range.");
-        return this.GetLocalPool().get(index);
+        DataUtils.CheckArgumentCondition(index < this.GetNumberOfTreatments(), "The index is out of range.");
+        Treatment treatment = this.Treatments.Get(index);
+        TreatmentHeader header = this.Treatments.GetHeader(index);
+        if (treatment == null && header != null) {
+            // Two threads may load it at once; the first one to replace the header wins.
+            Treatment loaded = Treatment.DeserializeFromFile(header.GetTreatmentFile(), this.GetPatientHeader());
+            this.Treatments.SetLoaded(index, header, loaded);
+            treatment = this.Treatments.Get(index);
+        }
+        return treatment;
+    }
+
+    public int GetNumberOfTreatments() { return this.Treatments.Size(); }
+    public boolean IsTreatmentLoaded(int index) { return this.Treatments.Get(index) != null; }
+
+    public TreatmentHeader GetTreatmentHeader(int index) {
+        DataUtils.CheckArgumentCondition(index >= 0 && index < this.GetNumberOfTreatments(), "The index is out of range.");
+        Treatment treatment = this.Treatments.Get(index);
+        return treatment != null ? TreatmentHeader.FromTreatment(treatment) : this.Treatments.GetHeader(index);
+    }
+
+    public List<TreatmentHeader> GetTreatmentHeaders(int from, int count) {
+        // A page of the treatment headers, without loading any treatment.
+        ArrayList<TreatmentHeader> headers = new ArrayList<TreatmentHeader>(Math.max(0, count));
+        for (int i = Math.max(0, from); i < this.GetNumberOfTreatments() && headers.size() < count; i++) {
+            TreatmentHeader header = this.GetTreatmentHeader(i);
+            if (header != null) { headers.add(header); }
+        }
+        return headers;
     }
 
     // --------------------------------------------------------------------------------------------------------------------
@@ -191,7 +229,12 @@ public class MedicalRecord extends BaseRecord {
 	 * serialize the "MedicalRecord" into a JSON file.
 	 * 
 	 * The "folder" key is the core following path: "database/PatientRecord/[FirstName-Tree]/[Patient.ID]/[MedicalRecord.ID]/"
-	 * The "MedicalRecord" is stored at the following path: "[folder]/<MedicalRecord.ID>.json"
+	 * The "MedicalRecord" is stored at the following path: "[folder]/<MedicalRecord.ID>.json", where the
+	 * "Treatments" key is the list of the treatment headers (see TreatmentHeader.java).
+	 * 
+	 * The loaded treatments are independent of each other, so they are serialized in parallel on the shared I/O
+	 * executor (see ExecutorUtils.java). The "MedicalRecord" file (the manifest of the treatments) is
+	 * written last, after all treatments are done; it is not written if any treatment failed.
 	 * 
 	 */
     public Hashtable<String, Object> Serialize() {
@@ -205,34 +248,89 @@ public class MedicalRecord extends BaseRecord {
 
         String filename = folder + this.GetMedicalRecordID() + ".json";
         
-        for (Treatment TM: this.GetLocalPool()) {
-            if (TM == null) { continue ; }
-            TM.Serialize();  // This is a must-have operation and it have returning value.
-            RecordInfo.put(TM.GetStandardizedIndex(), TM.GetToTreatmentFile());
+        this.RecordTimeline();
+        int count = this.GetNumberOfTreatments();
+        ArrayList<Callable<TreatmentHeader>> tasks = new ArrayList<Callable<TreatmentHeader>>(count);
+        for (int i = 0; i < count; i++) {
+            Treatment TM = this.Treatments.Get(i);
+            TreatmentHeader header = this.Treatments.GetHeader(i);
+            if (TM == null) { 
+                if (header != null) { tasks.add(() -> header); }                // Not loaded, thus not changed
+                continue ; 
+            }
+            tasks.add(() -> {
+                TM.Save();      // An error fails the barrier below, so the manifest is not written.
+                return TreatmentHeader.FromTreatment(TM);
+            });
         }
         RecordInfo.put("MedicalRecord", filename);
 
-        try { JsonUtils.SaveHashTableIntoJsonFile(filename, RecordInfo, null); }
-        catch (Exception e) { e.printStackTrace(); }
+        try { 
+            List<TreatmentHeader> headers = ExecutorUtils.InvokeAll(tasks);    // The completion barrier
+            String[][] manifest = new String[headers.size()][];
+            for (int i = 0; i < manifest.length; i++) { manifest[i] = headers.get(i).Serialize(); }
+            RecordInfo.put("Treatments", manifest);
+            DataUtils.CheckCondition(JsonUtils.SaveHashTableIntoJsonFile(filename, RecordInfo, null), 
+                                     "The file cannot be written: " + filename);
+            this.UpdateIntegrity(filename);
+        } catch (Exception e) { e.printStackTrace(); }
 		return RecordInfo;
 	}
 
-	public static MedicalRecord Deserialize(Hashtable<String, Object> data) {
-		String Pt_ID = (String) data.get("Pt_ID");
-        String Pt_FirstName = (String) data.get("Pt_FirstName");
-        String Pt_LastName = (String) data.get("Pt_LastName");
-        String Pt_Age = (String) data.get("Pt_Age");
-        String Pt_Gender = (String) data.get("Pt_Gender");
+    private void UpdateIntegrity(String filename) throws Exception {
+        // Only the files written by this serialization are re-hashed (see RecordIntegrity.java).
+        ArrayList<File> written = new ArrayList<File>();
+        written.add(new File(filename));
+        for (Treatment TM : this.Treatments.GetLoadedTreatments()) {
+            written.add(new File(TM.GetToTreatmentFile()));
+            RecordIntegrity.ListRecordFiles(new File(TM.GetToTreatmentFolder()), written);
+        }
+        RecordIntegrity.GetIntegrity(this).Update(written);
+    }
 
-		String MedicalRecordID = (String) data.get("MedicalRecordID");
+    private void RecordTimeline() {
+        // Append the opening of this record and its new treatments to the patient's timeline (see PatientTimeline.java).
+        try {
+            PatientTimeline timeline = PatientTimeline.GetTimeline(this);
+            String ID = this.GetMedicalRecordID();
+            ArrayList<PatientTimeline.Event> events = new ArrayList<PatientTimeline.Event>();
+            if (!timeline.HasRecord(ID)) {
+                events.add(new PatientTimeline.Event(PatientTimeline.ToTimeKey(this.GetDate(), this.GetTime()), PatientTimeline.RECORD_EVENT, 
+                                                     ID, -1, this.GetRDoc_MedicoID(), this.GetRNurse_MedicoID(), ""));
+            }
+            int count = this.GetNumberOfTreatments();
+            for (int i = timeline.GetNumberOfTreatments(ID); i < count; i++) {
+                Treatment TM = this.Treatments.Get(i);
+                if (TM == null) { continue ; }
+                Object description = TreatmentCode.GetValue(TM.GetClassificationCode());
+                events.add(new PatientTimeline.Event(PatientTimeline.ToTimeKey(TM.GetDate(), TM.GetTime()), PatientTimeline.TREATMENT_EVENT, 
+                                                     ID, TM.GetTreatmentIndex(), TM.GetClassificationCode(), "", 
+                                                     description == null ? "" : description.toString()));
+            }
+            timeline.Append(ID, events, count);
+        } catch (Exception e) { e.printStackTrace(); }
+    }
 
-        MedicalRecord record = new MedicalRecord(Pt_ID, Pt_FirstName, Pt_LastName, Pt_Age, 
-                                                Pt_Gender, MedicalRecordID);
+	public static MedicalRecord Deserialize(Hashtable<String, Object> data) {
+		String MedicalRecordID = (String) data.get("MedicalRecordID");
+        MedicalRecord record = new MedicalRecord(PatientHeader.Deserialize(data), true, MedicalRecordID);
         record.SetDate((String) data.get("date"));
         record.SetTime((String) data.get("time"));
 
-		// Deserialize Medico, Supplementary, Resources, and Descriptions. These are stored in JSON files.
-		// So we need to call them
+        // The treatment headers are loaded; the treatments are loaded when they are opened.
+        Object manifest = data.get("Treatments");
+        if (manifest instanceof List) {
+            for (Object item : (List<?>) manifest) {
+                TreatmentHeader header = TreatmentHeader.Deserialize(item);
+                if (header == null) { continue; }
+                record.Treatments.Put(header.GetTreatmentIndex(), header);
+            }
+            if (!(boolean) data.get("writable")) { record.CloseRecord(); }
+            return record;
+        }
+
+		// The legacy record file (without the headers): Deserialize Medico, Supplementary, Resources, and 
+        // Descriptions. These are stored in JSON files. So we need to call them
         Iterator<Entry<String, Object>> iter = data.entrySet().iterator();
         while (iter.hasNext()) {
             Entry<String, Object> entry = iter.next();
@@ -240,8 +338,8 @@ public class MedicalRecord extends BaseRecord {
             try {
                 Integer.parseInt(key);
                 try {
-                    Treatment TM = Treatment.DeserializeFromFile((String) entry.getValue());
-                    record.AddTreatment(TM);
+                    Treatment TM = Treatment.DeserializeFromFile((String) entry.getValue(), record.GetPatientHeader());
+                    record.AddTreatment(TM, false);
                 } catch (Exception e) { e.printStackTrace(); }
 
             } catch (NumberFormatException e) {
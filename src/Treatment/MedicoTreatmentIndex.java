@@ -0,0 +1,404 @@
+package Treatment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Person.PersonUtils;
+import Utility.DataUtils;
+import Utility.ExecutorUtils;
+import Utility.JsonUtils;
+import Utility.SegmentArchive;
+import Utility.WriteAheadLog;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the secondary index of the treatments by medico: the medico's ID is mapped to the
+ * treatments {PatientID, MedicalRecordID, TreatmentIndex, Date} the medico participated in, so finding
+ * them never scans the "MedicoInfo" of the treatments.
+ *
+ * The treatments of a medico are sorted by {Date, MedicalRecordID, TreatmentIndex}, so a range of dates is
+ * a sub-map. The index is updated by Treatment.AddMedico() and Treatment.RemoveMedico() (and by
+ * MedicalRecord.AddTreatment(), when the medicos were added before the treatment had its index), and
+ * every update is appended to "database/MedicoIndex/Medico.log" (see WriteAheadLog.java):
+ *   {ADD, Medico, PatientID, MedicalRecordID, TreatmentIndex, Date} or {REMOVE, Medico, MedicalRecordID, TreatmentIndex}
+ * The log is replayed when the index is opened and rewritten with the live entries only when it has too
+ * many dead records (see Compact(), which is called by the warm start and every COMPACTION_PERIOD). The
+ * updates are durable after Flush(); the default index is flushed every SYNC_INTERVAL on the scheduler
+ * thread (see ExecutorUtils.SchedulePeriodic()) and when the program exits.
+ *
+ * Rebuild() drops the index and reads it again from the record files (in the hot tree and in the archive,
+ * see SegmentArchive.java); the record files are read in parallel on the I/O executor.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Database_index#Secondary_index
+**/
+
+public class MedicoTreatmentIndex {
+    private static final String INDEX_DIRECTORY = "database/MedicoIndex/";
+    private static final String LOG_FILE = "Medico.log";
+    private static final String ADD_RECORD = "ADD";
+    private static final String REMOVE_RECORD = "REMOVE";
+    private static final long SYNC_INTERVAL = 10L * 1000L;
+    private static final long COMPACTION_PERIOD = 60L;                              // In minutes
+    private static volatile MedicoTreatmentIndex DefaultIndex = null;
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Entry
+    public static class Entry {
+        public final String PatientID;
+        public final String MedicalRecordID;
+        public final int TreatmentIndex;
+        public final String Date;
+
+        public Entry(String PatientID, String MedicalRecordID, int TreatmentIndex, String Date) {
+            this.PatientID = PatientID;
+            this.MedicalRecordID = MedicalRecordID;
+            this.TreatmentIndex = TreatmentIndex;
+            this.Date = Date;
+        }
+
+        private String GetTreatmentKey() { return MedicoTreatmentIndex.GetTreatmentKey(this.MedicalRecordID, this.TreatmentIndex); }
+        private String GetSortKey() { return this.Date + "/" + this.GetTreatmentKey(); }
+
+        public String toString() { return this.GetTreatmentKey() + " (" + this.PatientID + ", " + this.Date + ")"; }
+    }
+
+    private static String GetTreatmentKey(String MedicalRecordID, int TreatmentIndex) {
+        return MedicalRecordID + "/" + String.format("%04d", TreatmentIndex);
+    }
+
+    private static class MedicoEntries {
+        // Guarded by "this"
+        private final TreeMap<String, Entry> ByDate = new TreeMap<String, Entry>();
+        private final HashMap<String, String> SortKeys = new HashMap<String, String>();        // Treatment key -> sort key
+    }
+
+    private final File directory;
+    private final ConcurrentHashMap<String, MedicoEntries> medicos = new ConcurrentHashMap<String, MedicoEntries>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();         // The write lock replaces the log
+    private WriteAheadLog log;
+    private int LogRecords = 0;                                                      // Guarded by "this"
+
+    public MedicoTreatmentIndex(String directory) throws IOException {
+        DataUtils.CheckArgumentCondition(directory != null, "The directory of the index cannot be null.");
+        this.directory = new File(directory);
+        this.log = new WriteAheadLog(this.GetLogFile().getPath());
+        this.Open();
+    }
+
+    public static MedicoTreatmentIndex GetDefaultIndex() throws IOException {
+        if (MedicoTreatmentIndex.DefaultIndex == null) {
+            synchronized (MedicoTreatmentIndex.class) {
+                if (MedicoTreatmentIndex.DefaultIndex == null) {
+                    MedicoTreatmentIndex index = new MedicoTreatmentIndex(INDEX_DIRECTORY);
+                    ExecutorUtils.SchedulePeriodic(() -> {
+                        try { index.Flush(); } catch (IOException e) { e.printStackTrace(); }
+                    }, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+                    ExecutorUtils.SchedulePeriodic(() -> {
+                        try { index.Compact(); } catch (IOException e) { e.printStackTrace(); }
+                    }, COMPACTION_PERIOD, TimeUnit.MINUTES);
+                    ExecutorUtils.RunAtShutdown("MedicoTreatmentIndex-Flush", () -> {
+                        try { index.Flush(); } catch (IOException e) { e.printStackTrace(); }
+                    });
+                    MedicoTreatmentIndex.DefaultIndex = index;
+                }
+            }
+        }
+        return MedicoTreatmentIndex.DefaultIndex;
+    }
+
+    private File GetLogFile() { return new File(this.directory, LOG_FILE); }
+    public int GetNumberOfMedicos() { return this.medicos.size(); }
+
+    private void Open() throws IOException {
+        List<String[]> records = this.log.ReadAll();
+        for (String[] record : records) {
+            if (ADD_RECORD.equals(record[0]) && record.length >= 6) {
+                this.Put(record[1], new Entry(record[2], record[3], Integer.parseInt(record[4]), record[5]));
+            } else if (REMOVE_RECORD.equals(record[0]) && record.length >= 4) {
+                this.Delete(record[1], GetTreatmentKey(record[2], Integer.parseInt(record[3])));
+            }
+        }
+        this.LogRecords = records.size();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // In-memory updates
+    private boolean Put(String MedicoID, Entry entry) {
+        MedicoEntries entries = this.medicos.computeIfAbsent(MedicoID, key -> new MedicoEntries());
+        synchronized (entries) {
+            String previous = entries.SortKeys.put(entry.GetTreatmentKey(), entry.GetSortKey());
+            if (previous != null) { entries.ByDate.remove(previous); }
+            entries.ByDate.put(entry.GetSortKey(), entry);
+            return previous == null || !previous.equals(entry.GetSortKey());
+        }
+    }
+
+    private boolean Delete(String MedicoID, String TreatmentKey) {
+        MedicoEntries entries = this.medicos.get(MedicoID);
+        if (entries == null) { return false; }
+        synchronized (entries) {
+            String previous = entries.SortKeys.remove(TreatmentKey);
+            if (previous == null) { return false; }
+            entries.ByDate.remove(previous);
+            // An empty medico is kept; it is dropped by the next compaction or rebuild.
+            return true;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Updater
+    /**
+     * This function records that a medico participated in a treatment; a recorded treatment is ignored.
+     * @param MedicoID (String): The ID of the medico.
+     * @param treatment (Treatment): The treatment, which must have its index (see MedicalRecord.AddTreatment()).
+     */
+    public void Add(String MedicoID, Treatment treatment) throws IOException {
+        DataUtils.CheckArgumentCondition(MedicoID != null, "The medico's ID cannot be null.");
+        if (treatment.GetTreatmentIndex() < 0) { return ; }
+        Entry entry = new Entry(treatment.GetPtID(), treatment.GetMedicalRecordID(), treatment.GetTreatmentIndex(),
+                                treatment.GetDateAsString());
+        this.lock.readLock().lock();
+        try {
+            if (!this.Put(MedicoID, entry)) { return ; }
+            this.Append(ADD_RECORD, MedicoID, entry.PatientID, entry.MedicalRecordID, Integer.toString(entry.TreatmentIndex), entry.Date);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public void AddAll(Treatment treatment) throws IOException {
+        for (String MedicoID : treatment.GetMedicoInfo().keySet()) { this.Add(MedicoID, treatment); }
+    }
+
+    public void Remove(String MedicoID, Treatment treatment) throws IOException {
+        if (MedicoID == null || treatment.GetTreatmentIndex() < 0) { return ; }
+        this.lock.readLock().lock();
+        try {
+            if (!this.Delete(MedicoID, GetTreatmentKey(treatment.GetMedicalRecordID(), treatment.GetTreatmentIndex()))) { return ; }
+            this.Append(REMOVE_RECORD, MedicoID, treatment.GetMedicalRecordID(), Integer.toString(treatment.GetTreatmentIndex()));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void Append(String... fields) throws IOException {
+        // Called under the read lock. Two updates of the same medico and treatment are never concurrent
+        // (the treatment is updated by one thread at a time), so the log keeps their order.
+        this.log.Append(fields);
+        synchronized (this) { this.LogRecords++; }
+    }
+
+    public void Flush() throws IOException {
+        this.lock.readLock().lock();
+        try { this.log.Sync(Long.MAX_VALUE); }
+        finally { this.lock.readLock().unlock(); }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query
+    /**
+     * This function returns the treatments of a medico in the range of dates, sorted by the date.
+     * @param MedicoID (String): The ID of the medico.
+     * @param FromDate (LocalDate): The first date (inclusive); null for no lower bound.
+     * @param ToDate (LocalDate): The last date (inclusive); null for no upper bound.
+     * @return (List<Entry>) The treatments.
+     */
+    public List<Entry> GetTreatments(String MedicoID, LocalDate FromDate, LocalDate ToDate) {
+        MedicoEntries entries = MedicoID == null ? null : this.medicos.get(MedicoID);
+        if (entries == null) { return new ArrayList<Entry>(); }
+        // "/" < "~" in ASCII, so "[ToDate]~" is after all sort keys "[ToDate]/..." of the last date.
+        String from = FromDate == null ? "" : FromDate.toString();
+        String to = ToDate == null ? "~" : ToDate.toString() + "~";
+        synchronized (entries) {
+            if (from.compareTo(to) > 0) { return new ArrayList<Entry>(); }
+            return new ArrayList<Entry>(entries.ByDate.subMap(from, true, to, false).values());
+        }
+    }
+
+    public List<Entry> GetTreatments(String MedicoID) { return this.GetTreatments(MedicoID, null, null); }
+
+    public int GetNumberOfTreatments(String MedicoID) {
+        MedicoEntries entries = MedicoID == null ? null : this.medicos.get(MedicoID);
+        if (entries == null) { return 0; }
+        synchronized (entries) { return entries.ByDate.size(); }
+    }
+
+    public boolean Contains(String MedicoID, String MedicalRecordID, int TreatmentIndex) {
+        MedicoEntries entries = MedicoID == null ? null : this.medicos.get(MedicoID);
+        if (entries == null) { return false; }
+        synchronized (entries) { return entries.SortKeys.containsKey(GetTreatmentKey(MedicalRecordID, TreatmentIndex)); }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Compaction & Rebuild
+    /**
+     * This function rewrites the log with the live entries only, if it has more dead records than live ones.
+     * @return (boolean) True if the log is rewritten.
+     */
+    public boolean Compact() throws IOException {
+        // Checked first without the write lock, so a periodic call never blocks the updates for nothing.
+        if (!this.NeedsCompaction()) { return false; }
+        this.lock.writeLock().lock();
+        try {
+            if (!this.NeedsCompaction()) { return false; }
+            this.RewriteLog();
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private boolean NeedsCompaction() {
+        int live = 0;
+        for (MedicoEntries entries : this.medicos.values()) { synchronized (entries) { live += entries.ByDate.size(); } }
+        synchronized (this) { return this.LogRecords > 2 * live + 64; }
+    }
+
+    private void RewriteLog() throws IOException {
+        // Called under the write lock; the new log replaces the old one atomically.
+        File temporary = new File(this.directory, LOG_FILE + ".tmp");
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (java.util.Map.Entry<String, MedicoEntries> item : this.medicos.entrySet()) {
+                synchronized (item.getValue()) {
+                    if (item.getValue().ByDate.isEmpty()) { this.medicos.remove(item.getKey(), item.getValue()); continue; }
+                    for (Entry entry : item.getValue().ByDate.values()) {
+                        ByteBuffer record = WriteAheadLog.EncodeRecord(ADD_RECORD, item.getKey(), entry.PatientID, entry.MedicalRecordID,
+                                                                       Integer.toString(entry.TreatmentIndex), entry.Date);
+                        while (record.hasRemaining()) { channel.write(record); }
+                        count++;
+                    }
+                }
+            }
+            channel.force(false);
+        }
+        this.log.Close();
+        Files.move(temporary.toPath(), this.GetLogFile().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.log = new WriteAheadLog(this.GetLogFile().getPath());
+        synchronized (this) { this.LogRecords = count; }
+    }
+
+    private static boolean Exists(SegmentArchive archive, String path) {
+        return path != null && (new File(path).isFile() || (archive != null && archive.Contains(path)));
+    }
+
+    private static List<String[]> ReadRecordFile(String RecordFile, SegmentArchive archive) {
+        // The {Medico, PatientID, MedicalRecordID, TreatmentIndex, Date} of all treatments of a record file.
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(RecordFile, null);
+        if (data == null || data.get("MedicalRecord") == null) { return rows; }
+        String PatientID = (String) data.get("Pt_ID");
+        String MedicalRecordID = (String) data.get("MedicalRecordID");
+
+        // {TreatmentIndex, Date, MedicoInfo file} of each treatment, from the headers or from the legacy treatment files
+        ArrayList<String[]> treatments = new ArrayList<String[]>();
+        Object manifest = data.get("Treatments");
+        if (manifest instanceof List) {
+            for (Object item : (List<?>) manifest) {
+                TreatmentHeader header = TreatmentHeader.Deserialize(item);
+                if (header == null) { continue; }
+                treatments.add(new String[] {Integer.toString(header.GetTreatmentIndex()), header.GetDateAsString(),
+                                             header.GetTreatmentFolder() + "MedicoInfo.json"});
+            }
+        } else {
+            for (java.util.Map.Entry<String, Object> entry : data.entrySet()) {
+                if (!entry.getKey().matches("\\d+") || !MedicoTreatmentIndex.Exists(archive, (String) entry.getValue())) { continue; }
+                Hashtable<String, Object> treatment = JsonUtils.LoadJsonFileToHashtable((String) entry.getValue(), null);
+                if (treatment == null) { continue; }
+                treatments.add(new String[] {String.valueOf(treatment.get("TreatmentIndex")), (String) treatment.get("date"),
+                                             (String) treatment.get("MedicoInfo")});
+            }
+        }
+
+        for (String[] treatment : treatments) {
+            if (!MedicoTreatmentIndex.Exists(archive, treatment[2])) { continue; }
+            Hashtable<String, Object> MedicoInfo = JsonUtils.LoadJsonFileToHashtable(treatment[2], null);
+            if (MedicoInfo == null) { continue; }
+            for (String MedicoID : MedicoInfo.keySet()) {
+                rows.add(new String[] {MedicoID, PatientID, MedicalRecordID, treatment[0], treatment[1]});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * This function drops the index and rebuilds it from the record files under a directory (and from the
+     * archived record files), which are read in parallel. The updates made during the rebuild may be lost,
+     * so it is run when no treatment is updated (i.e at the warm start, or after restoring a backup).
+     * @param directory (String): The root of the records (i.e "database/PatientRecord/").
+     * @return (int) The number of indexed {medico, treatment} pairs.
+     */
+    public int Rebuild(String directory) throws Exception {
+        SegmentArchive archive = SegmentArchive.GetDefaultArchive();
+        List<String> RecordFiles = TreatmentUtils.FindRecordFiles(new File(directory), new ArrayList<String>());
+        String prefix = SegmentArchive.NormalizePath(directory);
+        for (String path : archive.GetPathsWithPrefix(prefix)) {
+            File file = new File(path);
+            if (file.getParentFile() != null && file.getName().equals(file.getParentFile().getName() + ".json") && !file.exists()) {
+                RecordFiles.add(path);
+            }
+        }
+
+        ArrayList<Callable<List<String[]>>> tasks = new ArrayList<Callable<List<String[]>>>(RecordFiles.size());
+        for (String RecordFile : RecordFiles) {
+            tasks.add(() -> {
+                // A broken record file is skipped; it never fails the rebuild.
+                try { return MedicoTreatmentIndex.ReadRecordFile(RecordFile, archive); }
+                catch (Exception e) { e.printStackTrace(); return new ArrayList<String[]>(); }
+            });
+        }
+        List<List<String[]>> results = ExecutorUtils.InvokeAll(tasks);
+
+        this.lock.writeLock().lock();
+        try {
+            this.medicos.clear();
+            int count = 0;
+            for (List<String[]> rows : results) {
+                for (String[] row : rows) {
+                    if (this.Put(row[0], new Entry(row[1], row[2], Integer.parseInt(row[3]), row[4]))) { count++; }
+                }
+            }
+            this.RewriteLog();
+            return count;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    public int Rebuild() throws Exception { return this.Rebuild(PersonUtils.GetPatientRecordDirectory()); }
+
+    public void Close() throws IOException {
+        this.lock.writeLock().lock();
+        try { this.log.Close(); }
+        finally { this.lock.writeLock().unlock(); }
+    }
+}
@@ -0,0 +1,403 @@
+package Treatment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import BaseClass.BaseRecord;
+import Person.PersonUtils;
+import Utility.DataUtils;
+import Utility.WriteAheadLog;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the timeline of a patient: every event (the medical record opened, the treatment added,
+ * the description written and the resource used) of all the medical records, in the time order.
+ *
+ * The events are stored compactly (see WriteAheadLog.java for the record format):
+ * 1) "[MedicalRecord folder]/Timeline.log": The events of a medical record, appended in the time order.
+ *    An event is {TimeKey, Type, MedicalRecordID, TreatmentIndex, Reference, Actor, Detail}.
+ * 2) "[Patient folder]/Timeline.manifest": The summary of each medical record {MedicalRecordID, FirstKey,
+ *    LastKey, Events, Treatments, Sorted}. An updated summary is appended, and the last one wins.
+ *
+ * Read() returns one page of the events in [From, To]. The medical records whose time range does not
+ * overlap the requested range are skipped by the manifest alone. The others are merged by a k-way merge
+ * (a priority queue of one cursor per record), where a cursor reads its file in small chunks, so only
+ * the files and the parts of the files which are needed for the page are read. The page token is the
+ * last returned event, followed by the file position of each cursor {MedicalRecordID, ChunkPosition,
+ * ChunkOrdinal, Taken}, so the next page seeks to there (re-reading at most one chunk per record) instead
+ * of reading the files again from their start. The first page of a range reads a record up to From.
+ *
+ * If an event older than the last event of its record is appended (i.e a treatment serialized late),
+ * the record is marked as unsorted, and its file is rewritten in the order when it is read next, so it is
+ * sorted once and its cursor can seek like the others.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/K-way_merge_algorithm
+ * 2) https://docs.oracle.com/javase/8/docs/api/java/util/PriorityQueue.html
+**/
+
+public class PatientTimeline {
+    public static final String TIMELINE_FILE = "Timeline.log";
+    public static final String MANIFEST_FILE = "Timeline.manifest";
+    public static final String RECORD_EVENT = "RECORD";
+    public static final String TREATMENT_EVENT = "TREATMENT";
+    public static final String DESCRIPTION_EVENT = "DESCRIPTION";
+    public static final String RESOURCE_EVENT = "RESOURCE";
+
+    private static final int CHUNK_SIZE = 64;                               // The events read at once by a cursor
+    private static final Object[] LOCKS = new Object[64];                   // The writers are striped by the patient folder
+    static { for (int i = 0; i < LOCKS.length; i++) { LOCKS[i] = new Object(); } }
+
+    private final File folder;
+
+    public PatientTimeline(String PatientFolder) {
+        DataUtils.CheckArgumentCondition(PatientFolder != null, "The patient folder cannot be null.");
+        this.folder = new File(PatientFolder);
+    }
+
+    public static PatientTimeline GetTimeline(BaseRecord record) throws Exception {
+        // "database/PatientRecord/[FirstName-Tree]/[Patient.ID]/"
+        return new PatientTimeline(PersonUtils.GetPatientRecordDirectory(record.GetPtFirstName(), false) + record.GetPtID() + "/");
+    }
+
+    private Object GetLock() { return LOCKS[(this.folder.getPath().hashCode() & 0x7FFFFFFF) % LOCKS.length]; }
+    private File GetManifestFile() { return new File(this.folder, MANIFEST_FILE); }
+    private File GetTimelineFile(String MedicalRecordID) { return new File(new File(this.folder, MedicalRecordID), TIMELINE_FILE); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Time Key: The nanoseconds since the epoch (UTC), which orders the events as a single long.
+    public static long ToTimeKey(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1000000000L + time.getNano();
+    }
+
+    public static long ToTimeKey(LocalDate date, LocalTime time) { return PatientTimeline.ToTimeKey(LocalDateTime.of(date, time)); }
+
+    public static LocalDateTime FromTimeKey(long key) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(key, 1000000000L), (int) Math.floorMod(key, 1000000000L), ZoneOffset.UTC);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Event & Page
+    public static class Event {
+        public final long TimeKey;
+        public final String Type;
+        public final String MedicalRecordID;
+        public final int TreatmentIndex;
+        public final String Reference;
+        public final String Actor;
+        public final String Detail;
+        private int ordinal = 0;                                            // The position in the timeline file
+
+        public Event(long TimeKey, String Type, String MedicalRecordID, int TreatmentIndex, String Reference,
+                     String Actor, String Detail) {
+            this.TimeKey = TimeKey;
+            this.Type = Type;
+            this.MedicalRecordID = MedicalRecordID;
+            this.TreatmentIndex = TreatmentIndex;
+            this.Reference = Reference;
+            this.Actor = Actor;
+            this.Detail = Detail;
+        }
+
+        private Event(String[] record, int ordinal) {
+            this(Long.parseLong(record[0]), record[1], record[2], Integer.parseInt(record[3]), record[4], record[5], record[6]);
+            this.ordinal = ordinal;
+        }
+
+        private String[] ToRecord() {
+            return new String[] {Long.toString(this.TimeKey), this.Type, this.MedicalRecordID, Integer.toString(this.TreatmentIndex),
+                                 this.Reference, this.Actor, this.Detail};
+        }
+
+        public LocalDateTime GetTime() { return PatientTimeline.FromTimeKey(this.TimeKey); }
+
+        public String toString() {
+            return this.GetTime() + " " + this.Type + " " + this.MedicalRecordID + "#" + this.TreatmentIndex + " " + this.Reference +
+                   (this.Detail == null || this.Detail.isEmpty() ? "" : ": " + this.Detail);
+        }
+    }
+
+    // The events are ordered by {TimeKey, MedicalRecordID, ordinal}, which is also the page token.
+    private static final Comparator<Event> ORDER = (a, b) -> {
+        if (a.TimeKey != b.TimeKey) { return Long.compare(a.TimeKey, b.TimeKey); }
+        int compare = a.MedicalRecordID.compareTo(b.MedicalRecordID);
+        return compare != 0 ? compare : Integer.compare(a.ordinal, b.ordinal);
+    };
+
+    public static class Page {
+        public final List<Event> Events;
+        public final String NextToken;                                      // Null if there is no more event
+
+        private Page(List<Event> Events, String NextToken) {
+            this.Events = Events;
+            this.NextToken = NextToken;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Manifest: MedicalRecordID -> {MedicalRecordID, FirstKey, LastKey, Events, Treatments, Sorted}
+    private HashMap<String, String[]> LoadManifest() throws IOException {
+        HashMap<String, String[]> manifest = new HashMap<String, String[]>();
+        File file = this.GetManifestFile();
+        if (!file.exists()) { return manifest; }
+        ArrayList<String[]> records = new ArrayList<String[]>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WriteAheadLog.ReadRecords(channel, 0, records);
+        }
+        for (String[] record : records) { if (record.length >= 6) { manifest.put(record[0], record); } }
+        if (records.size() > 2 * manifest.size() + 16) { this.RewriteManifest(manifest); }
+        return manifest;
+    }
+
+    private void RewriteManifest(HashMap<String, String[]> manifest) throws IOException {
+        // Drop the superseded summaries (called under the lock).
+        File file = this.GetManifestFile(), temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String[] entry : manifest.values()) { PatientTimeline.Write(channel, WriteAheadLog.EncodeRecord(entry)); }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void Write(FileChannel channel, ByteBuffer record) throws IOException {
+        while (record.hasRemaining()) { channel.write(record); }
+    }
+
+    private static void Append(File file, List<ByteBuffer> records) throws IOException {
+        if (file.getParentFile() != null) { file.getParentFile().mkdirs(); }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.APPEND)) {
+            for (ByteBuffer record : records) { PatientTimeline.Write(channel, record); }
+        }
+    }
+
+    public boolean HasRecord(String MedicalRecordID) throws IOException {
+        synchronized (this.GetLock()) { return this.LoadManifest().containsKey(MedicalRecordID); }
+    }
+
+    public int GetNumberOfTreatments(String MedicalRecordID) throws IOException {
+        // The number of treatments of the medical record which are in the timeline.
+        synchronized (this.GetLock()) {
+            String[] entry = this.LoadManifest().get(MedicalRecordID);
+            return entry == null ? 0 : Integer.parseInt(entry[4]);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Writer
+    /**
+     * This function appends the events of a medical record to the timeline.
+     * @param MedicalRecordID (String): The ID of the medical record.
+     * @param events (List<Event>): The new events of the medical record.
+     * @param treatments (int): The number of treatments in the timeline after this append (-1 if unchanged).
+     */
+    public void Append(String MedicalRecordID, List<Event> events, int treatments) throws IOException {
+        DataUtils.CheckArgumentCondition(MedicalRecordID != null, "The MedicalRecordID cannot be null.");
+        if (events.isEmpty() && treatments < 0) { return ; }
+        ArrayList<Event> sorted = new ArrayList<Event>(events);
+        sorted.sort((a, b) -> Long.compare(a.TimeKey, b.TimeKey));
+
+        synchronized (this.GetLock()) {
+            HashMap<String, String[]> manifest = this.LoadManifest();
+            String[] entry = manifest.get(MedicalRecordID);
+            if (entry == null) { entry = new String[] {MedicalRecordID, Long.toString(Long.MAX_VALUE), Long.toString(Long.MIN_VALUE), "0", "0", "1"}; }
+            long first = Long.parseLong(entry[1]), last = Long.parseLong(entry[2]);
+            boolean InOrder = "1".equals(entry[5]);
+
+            ArrayList<ByteBuffer> records = new ArrayList<ByteBuffer>(sorted.size());
+            for (Event event : sorted) {
+                records.add(WriteAheadLog.EncodeRecord(event.ToRecord()));
+                InOrder = InOrder && event.TimeKey >= last;
+                first = Math.min(first, event.TimeKey);
+                last = Math.max(last, event.TimeKey);
+            }
+            PatientTimeline.Append(this.GetTimelineFile(MedicalRecordID), records);
+
+            String[] updated = {MedicalRecordID, Long.toString(first), Long.toString(last),
+                                Integer.toString(Integer.parseInt(entry[3]) + sorted.size()),
+                                treatments >= 0 ? Integer.toString(treatments) : entry[4], InOrder ? "1" : "0"};
+            ArrayList<ByteBuffer> summary = new ArrayList<ByteBuffer>(1);
+            summary.add(WriteAheadLog.EncodeRecord(updated));
+            PatientTimeline.Append(this.GetManifestFile(), summary);
+        }
+    }
+
+    private void SortRecord(String MedicalRecordID) throws IOException {
+        // The events of an unsorted record are rewritten in the order, and the record is marked as sorted.
+        synchronized (this.GetLock()) {
+            HashMap<String, String[]> manifest = this.LoadManifest();
+            String[] entry = manifest.get(MedicalRecordID);
+            if (entry == null || "1".equals(entry[5])) { return ; }
+            File file = this.GetTimelineFile(MedicalRecordID), temporary = new File(file.getPath() + ".tmp");
+            ArrayList<String[]> records = new ArrayList<String[]>();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                WriteAheadLog.ReadRecords(channel, 0, records);
+            }
+            ArrayList<Event> events = new ArrayList<Event>(records.size());
+            for (int i = 0; i < records.size(); i++) { events.add(new Event(records.get(i), i)); }
+            Collections.sort(events, ORDER);
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Event event : events) { PatientTimeline.Write(channel, WriteAheadLog.EncodeRecord(event.ToRecord())); }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            String[] updated = entry.clone();
+            updated[5] = "1";
+            ArrayList<ByteBuffer> summary = new ArrayList<ByteBuffer>(1);
+            summary.add(WriteAheadLog.EncodeRecord(updated));
+            PatientTimeline.Append(this.GetManifestFile(), summary);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Reader
+    private static class Cursor {
+        // Stream the events of a medical record in the order, which are after the token and in [from, to].
+        private final String MedicalRecordID;
+        private final FileChannel channel;
+        private final ArrayDeque<Event> chunk = new ArrayDeque<Event>(CHUNK_SIZE);
+        private long position = 0;
+        private int ordinal = 0;
+        private boolean exhausted = false;
+        private long ChunkPosition = 0;                                     // The file position of the current chunk
+        private int ChunkOrdinal = 0;
+        private int taken = 0;                                              // The events polled from the current chunk
+
+        private Cursor(String MedicalRecordID, FileChannel channel) {
+            this.MedicalRecordID = MedicalRecordID;
+            this.channel = channel;
+        }
+
+        private Event Peek() throws IOException {
+            while (this.chunk.isEmpty() && !this.exhausted) {
+                this.ChunkPosition = this.position;
+                this.ChunkOrdinal = this.ordinal;
+                this.taken = 0;
+                ArrayList<String[]> records = new ArrayList<String[]>(CHUNK_SIZE);
+                this.position = WriteAheadLog.ReadRecords(this.channel, this.position, records, CHUNK_SIZE);
+                if (records.isEmpty()) { this.exhausted = true; }
+                for (String[] record : records) { this.chunk.add(new Event(record, this.ordinal++)); }
+            }
+            return this.chunk.peek();
+        }
+
+        private Event Poll() { this.taken++; return this.chunk.poll(); }
+
+        private void Seek(String[] state) throws IOException {
+            // Continue from the chunk at {ChunkPosition, ChunkOrdinal}, without its first Taken events.
+            this.position = Long.parseLong(state[1]);
+            this.ordinal = Integer.parseInt(state[2]);
+            for (int i = Integer.parseInt(state[3]); i > 0 && this.Peek() != null; i--) { this.Poll(); }
+        }
+
+        private String ToState() { return this.MedicalRecordID + "/" + this.ChunkPosition + "/" + this.ChunkOrdinal + "/" + this.taken; }
+    }
+
+    // The token is "TimeKey/ordinal/MedicalRecordID" of the last event, then "|" + Cursor.ToState() of each record.
+    private static String ToToken(Event event, List<Cursor> cursors) {
+        StringBuilder token = new StringBuilder().append(event.TimeKey).append('/').append(event.ordinal).append('/').append(event.MedicalRecordID);
+        for (Cursor cursor : cursors) { token.append('|').append(cursor.ToState()); }
+        return token.toString();
+    }
+
+    private static Event FromToken(String token, HashMap<String, String[]> states) {
+        String[] sections = token.split("\\|");
+        String[] parts = sections[0].split("/", 3);
+        DataUtils.CheckArgumentCondition(parts.length == 3, "Invalid page token: " + token);
+        Event event = new Event(Long.parseLong(parts[0]), null, parts[2], -1, null, null, null);
+        event.ordinal = Integer.parseInt(parts[1]);
+        for (int i = 1; i < sections.length; i++) {
+            String[] state = sections[i].split("/");
+            DataUtils.CheckArgumentCondition(state.length == 4, "Invalid page token: " + token);
+            states.put(state[0], state);
+        }
+        return event;
+    }
+
+    /**
+     * This function reads a page of the events in the time order.
+     * @param from (LocalDateTime): The first time of the events (inclusive), or null.
+     * @param to (LocalDateTime): The last time of the events (inclusive), or null.
+     * @param token (String): The NextToken of the previous page, or null for the first page.
+     * @param size (int): The maximum number of events in the page.
+     * @return (Page) The events and the token of the next page.
+     */
+    public Page Read(LocalDateTime from, LocalDateTime to, String token, int size) throws IOException {
+        DataUtils.CheckArgumentCondition(size > 0, "The page size must be positive.");
+        long FromKey = from == null ? Long.MIN_VALUE : PatientTimeline.ToTimeKey(from);
+        long ToKey = to == null ? Long.MAX_VALUE : PatientTimeline.ToTimeKey(to);
+        HashMap<String, String[]> states = new HashMap<String, String[]>();
+        Event after = token == null ? null : PatientTimeline.FromToken(token, states);
+        if (after != null) { FromKey = Math.max(FromKey, after.TimeKey); }
+
+        HashMap<String, String[]> manifest;
+        synchronized (this.GetLock()) { manifest = this.LoadManifest(); }
+
+        ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+        PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(1, manifest.size()), (a, b) -> {
+            try { return ORDER.compare(a.Peek(), b.Peek()); }
+            catch (IOException e) { throw new IllegalStateException(e); }
+        });
+        try {
+            // Step 01: Open the records overlapping the range, and skip their events before the range (or the token).
+            for (String[] entry : manifest.values()) {
+                if (Long.parseLong(entry[2]) < FromKey || Long.parseLong(entry[1]) > ToKey) { continue; }
+                File file = this.GetTimelineFile(entry[0]);
+                if (!file.exists()) { continue; }
+                if (!"1".equals(entry[5])) { this.SortRecord(entry[0]); }
+                Cursor cursor = new Cursor(entry[0], FileChannel.open(file.toPath(), StandardOpenOption.READ));
+                cursors.add(cursor);
+                if (states.containsKey(entry[0])) { cursor.Seek(states.get(entry[0])); }
+                while (cursor.Peek() != null && (cursor.Peek().TimeKey < FromKey ||
+                       (after != null && ORDER.compare(cursor.Peek(), after) <= 0))) { cursor.Poll(); }
+                if (cursor.Peek() != null) { heap.add(cursor); }
+            }
+
+            // Step 02: The k-way merge
+            ArrayList<Event> events = new ArrayList<Event>(size);
+            while (!heap.isEmpty() && events.size() < size) {
+                Cursor cursor = heap.poll();
+                Event event = cursor.Poll();
+                if (event.TimeKey > ToKey) { continue; }                    // This record has no more event in the range
+                events.add(event);
+                if (cursor.Peek() != null) { heap.add(cursor); }
+            }
+
+            boolean more = false;
+            for (Cursor cursor : heap) { more = more || cursor.Peek().TimeKey <= ToKey; }
+            String next = (more && !events.isEmpty()) ? PatientTimeline.ToToken(events.get(events.size() - 1), cursors) : null;
+            return new Page(events, next);
+        } finally {
+            for (Cursor cursor : cursors) { cursor.channel.close(); }
+        }
+    }
+}
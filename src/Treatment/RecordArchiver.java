@@ -0,0 +1,158 @@
+package Treatment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import Person.PersonUtils;
+import Utility.DataUtils;
+import Utility.JsonUtils;
+import Utility.SegmentArchive;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class moves the closed medical records (see AbstractRecord.CloseRecord()) from the hot tree
+ * "database/PatientRecord/" into the cold-tier archive (see SegmentArchive.java). A closed record is
+ * never written again, so all of its files (the record file, the treatment files and their sub-files)
+ * are packed into the archive and deleted from the hot tree, which stays small and fast to walk.
+ *
+ * The archived files keep their original paths as the keys of the archive, and the readers fall back to
+ * the archive when a file is missing (see JsonUtils.ReadJsonFile() and DescriptionLog.Tail()). Hence,
+ * MedicalRecord.DeserializeFromFile() and the lazy loading of the treatments are unchanged.
+ *
+ * The "Timeline.log" of the record is kept in the hot tree, since it is read by the patient's timeline
+ * (see PatientTimeline.java) with positional reads.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Hierarchical_storage_management
+**/
+
+public class RecordArchiver {
+    private static volatile RecordArchiver DefaultArchiver = null;
+    private final SegmentArchive archive;
+
+    public RecordArchiver(SegmentArchive archive) {
+        DataUtils.CheckArgumentCondition(archive != null, "The archive cannot be null.");
+        this.archive = archive;
+    }
+
+    public static RecordArchiver GetDefaultArchiver() throws IOException {
+        if (RecordArchiver.DefaultArchiver == null) {
+            synchronized (RecordArchiver.class) {
+                if (RecordArchiver.DefaultArchiver == null) {
+                    RecordArchiver.DefaultArchiver = new RecordArchiver(SegmentArchive.GetDefaultArchive());
+                }
+            }
+        }
+        return RecordArchiver.DefaultArchiver;
+    }
+
+    public SegmentArchive GetArchive() { return this.archive; }
+
+    public boolean IsArchived(String RecordFile) { return !new File(RecordFile).exists() && this.archive.Contains(RecordFile); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Archiving
+    /**
+     * This function archives a closed medical record, which must have been saved (see MedicalRecord.Serialize()).
+     * @param record (MedicalRecord): The closed record.
+     * @return (int) The number of files moved into the archive.
+     */
+    public int Archive(MedicalRecord record) throws Exception {
+        DataUtils.CheckArgumentCondition(record != null, "The medical record cannot be null.");
+        DataUtils.CheckCondition(!record.IsWritable(), "Only a closed record can be archived.");
+        String folder = record.GetToMedicalRecordFolder();
+        File RecordFile = new File(folder + record.GetMedicalRecordID() + ".json");
+        if (this.IsArchived(RecordFile.getPath())) { return 0; }
+        DataUtils.CheckCondition(RecordFile.exists(), "The record must be saved before it is archived.");
+        return this.ArchiveFolder(new File(folder));
+    }
+
+    /**
+     * This function archives a medical record by its record file "[folder]/<MedicalRecord.ID>.json".
+     * @param RecordFile (String): The path of the record file.
+     * @return (int) The number of files moved into the archive; 0 if the record is already archived.
+     */
+    public int Archive(String RecordFile) throws Exception {
+        DataUtils.CheckArgumentCondition(RecordFile != null, "The record file cannot be null.");
+        if (this.IsArchived(RecordFile)) { return 0; }
+        DataUtils.CheckCondition(RecordArchiver.IsClosedRecordFile(RecordFile), "Only a closed record can be archived: " + RecordFile);
+        return this.ArchiveFolder(new File(RecordFile).getParentFile());
+    }
+
+    private static boolean IsClosedRecordFile(String RecordFile) {
+        Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(RecordFile, null);
+        return data != null && data.get("MedicalRecord") != null && Boolean.FALSE.equals(data.get("writable"));
+    }
+
+    /**
+     * This function walks the hot tree and archives all closed records found in it.
+     * @param directory (String): The root to walk (i.e "database/PatientRecord/", or the folder of a patient).
+     * @return (int) The number of archived records.
+     */
+    public int ArchiveClosedRecords(String directory) {
+        int count = 0;
+        for (File RecordFile : RecordArchiver.FindRecordFiles(new File(directory), new ArrayList<File>())) {
+            try {
+                if (RecordArchiver.IsClosedRecordFile(RecordFile.getPath()) && this.ArchiveFolder(RecordFile.getParentFile()) > 0) { count++; }
+            } catch (Exception e) { e.printStackTrace(); }
+        }
+        return count;
+    }
+
+    public int ArchiveClosedRecords() { return this.ArchiveClosedRecords(PersonUtils.GetPatientRecordDirectory()); }
+
+    private static List<File> FindRecordFiles(File folder, List<File> output) {
+        // A record folder "[...]/<MedicalRecord.ID>/" contains its record file "<MedicalRecord.ID>.json".
+        File RecordFile = new File(folder, folder.getName() + ".json");
+        if (RecordFile.isFile()) { output.add(RecordFile); return output; }
+        File[] children = folder.listFiles(File::isDirectory);
+        if (children != null) { for (File child : children) { RecordArchiver.FindRecordFiles(child, output); } }
+        return output;
+    }
+
+    private static void ListFiles(File folder, List<File> output) {
+        File[] children = folder.listFiles();
+        if (children == null) { return ; }
+        for (File child : children) {
+            if (child.isDirectory()) { RecordArchiver.ListFiles(child, output); }
+            else if (!child.getName().equals(PatientTimeline.TIMELINE_FILE)) { output.add(child); }
+        }
+    }
+
+    private int ArchiveFolder(File folder) throws IOException {
+        ArrayList<File> files = new ArrayList<File>();
+        RecordArchiver.ListFiles(folder, files);
+        LinkedHashMap<String, byte[]> contents = new LinkedHashMap<String, byte[]>(files.size() * 2);
+        for (File file : files) { contents.put(file.getPath(), Files.readAllBytes(file.toPath())); }
+        int count = this.archive.PutAll(contents);
+
+        // The hot copies are deleted only after the archive has made them durable.
+        for (File file : files) { file.delete(); }
+        RecordArchiver.DeleteEmptyFolders(folder);
+        return count;
+    }
+
+    private static void DeleteEmptyFolders(File folder) {
+        File[] children = folder.listFiles(File::isDirectory);
+        if (children != null) { for (File child : children) { RecordArchiver.DeleteEmptyFolders(child); } }
+        String[] remaining = folder.list();
+        if (remaining != null && remaining.length == 0) { folder.delete(); }
+    }
+}
@@ -0,0 +1,448 @@
+package Treatment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import BaseClass.BaseRecord;
+import Person.PersonUtils;
+import Utility.DataUtils;
+import Utility.ExecutorUtils;
+import Utility.SegmentArchive;
+import Utility.WriteAheadLog;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class keeps the content hashes (SHA-256) of the records of a patient as a Merkle tree, so the
+ * records can be proven unaltered without comparing every file against a copy. The tree follows the
+ * folders of the patient "database/PatientRecord/[FirstName-Tree]/[Patient.ID]/":
+ * 1) Leaf: a file of a record, i.e "[MedicalRecord.ID]/0001/Resources.json".
+ * 2) Group: the files of a treatment (its file "0001.json" and its sub-folder "0001/"), or the record file.
+ * 3) Record: the groups of a medical record "[MedicalRecord.ID]/".
+ * 4) Root: the records of the patient. The roots of all patients are rolled up into the data root.
+ * A node's hash is the hash of its children's (name, hash) in the name order. The "Timeline.log"
+ * (see PatientTimeline.java) is appended outside of the serialization, so it is not a part of the tree.
+ *
+ * The leaves are stored in "[Patient folder]/Integrity.manifest", an append-only log (see WriteAheadLog.java)
+ * of {"LEAF", Path, Hash, Size, LastModified}, where the last entry of a path wins. They are updated when
+ * a medical record is serialized (see MedicalRecord.Serialize()), hashing only the files just written, and
+ * the leaf of a "Descriptions.log" is also updated when a note is appended to it (see Treatment.java).
+ *
+ * Verify() first checks each group cheaply against the stored leaves: the same files, with the same size
+ * and last-modified time. Only the groups which changed are re-hashed (in parallel, see ExecutorUtils.java);
+ * the other groups keep their stored hashes. Then the hashes are rolled up and the roots are compared, and
+ * only when the roots are different, it descends into the mismatched records and groups to find the files.
+ * This quick mode catches every change made through the file system but not the silent corruption of
+ * the disk. The full mode re-reads every file, including the archived ones (see RecordArchiver.java) which
+ * are read back from the archive: it is the slow path, meant for a periodic audit.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Merkle_tree
+ * 2) https://docs.oracle.com/javase/8/docs/api/java/security/MessageDigest.html
+**/
+
+public class RecordIntegrity {
+    public static final String MANIFEST_FILE = "Integrity.manifest";
+    private static final String LEAF_RECORD = "LEAF";
+    private static final String EMPTY_HASH = "";
+    private static final Object[] LOCKS = new Object[64];
+    static { for (int i = 0; i < LOCKS.length; i++) { LOCKS[i] = new Object(); } }
+
+    public static class Leaf {
+        public final String path;                                  // Relative to the patient folder
+        public final String hash;
+        public final long size, LastModified;
+
+        public Leaf(String path, String hash, long size, long LastModified) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+            this.LastModified = LastModified;
+        }
+    }
+
+    public static class Report {
+        public final String PatientFolder;
+        public final String ExpectedRoot, ActualRoot;
+        public final List<String> MismatchedRecords = new ArrayList<String>();
+        public final List<String> ModifiedFiles = new ArrayList<String>();
+        public final List<String> MissingFiles = new ArrayList<String>();
+        public final List<String> UntrackedFiles = new ArrayList<String>();
+        public int HashedFiles = 0, RehashedGroups = 0;
+
+        private Report(String PatientFolder, String ExpectedRoot, String ActualRoot) {
+            this.PatientFolder = PatientFolder;
+            this.ExpectedRoot = ExpectedRoot;
+            this.ActualRoot = ActualRoot;
+        }
+
+        public boolean IsIntact() { return this.ExpectedRoot.equals(this.ActualRoot); }
+
+        public String toString() {
+            if (this.IsIntact()) { 
+                return this.PatientFolder + ": intact (" + this.RehashedGroups + " re-hashed group(s), " + this.HashedFiles + " file(s) hashed)"; 
+            }
+            return this.PatientFolder + ": mismatched records " + this.MismatchedRecords + ", modified " + this.ModifiedFiles +
+                   ", missing " + this.MissingFiles + ", untracked " + this.UntrackedFiles;
+        }
+    }
+
+    private final File folder;
+
+    public RecordIntegrity(String PatientFolder) {
+        DataUtils.CheckArgumentCondition(PatientFolder != null, "The patient folder cannot be null.");
+        this.folder = new File(PatientFolder);
+    }
+
+    public static RecordIntegrity GetIntegrity(BaseRecord record) throws Exception {
+        // "database/PatientRecord/[FirstName-Tree]/[Patient.ID]/"
+        return new RecordIntegrity(PersonUtils.GetPatientRecordDirectory(record.GetPtFirstName(), false) + record.GetPtID() + "/");
+    }
+
+    public String GetPatientFolder() { return this.folder.getPath(); }
+    private Object GetLock() { return LOCKS[(this.folder.getPath().hashCode() & 0x7FFFFFFF) % LOCKS.length]; }
+    private File GetManifestFile() { return new File(this.folder, MANIFEST_FILE); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Hashing
+    private static MessageDigest NewDigest() {
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException("SHA-256 is not supported.", e); }
+    }
+
+    public static String HashBytes(byte[] data) { return HexFormat.of().formatHex(RecordIntegrity.NewDigest().digest(data)); }
+
+    private static String HashChildren(TreeMap<String, String> children) {
+        // The hash of a node: the children's (name, hash) in the name order.
+        if (children.isEmpty()) { return EMPTY_HASH; }
+        MessageDigest digest = RecordIntegrity.NewDigest();
+        for (Entry<String, String> child : children.entrySet()) {
+            digest.update(child.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(child.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String GetRecordName(String path) { return path.indexOf('/') < 0 ? path : path.substring(0, path.indexOf('/')); }
+
+    private static String GetGroupName(String path) {
+        // "MR/0001.json" and "MR/0001/Resources.json" are both in the group "MR/0001".
+        int first = path.indexOf('/'), second = path.indexOf('/', first + 1);
+        String group = second < 0 ? path : path.substring(0, second);
+        return group.endsWith(".json") ? group.substring(0, group.length() - ".json".length()) : group;
+    }
+
+    private static TreeMap<String, TreeMap<String, String>> GroupBy(TreeMap<String, String> hashes, boolean ByRecord) {
+        TreeMap<String, TreeMap<String, String>> groups = new TreeMap<String, TreeMap<String, String>>();
+        for (Entry<String, String> entry : hashes.entrySet()) {
+            String name = ByRecord ? RecordIntegrity.GetRecordName(entry.getKey()) : RecordIntegrity.GetGroupName(entry.getKey());
+            groups.computeIfAbsent(name, k -> new TreeMap<String, String>()).put(entry.getKey(), entry.getValue());
+        }
+        return groups;
+    }
+
+    private static TreeMap<String, String> RollUp(TreeMap<String, String> hashes, boolean ByRecord) {
+        TreeMap<String, String> parents = new TreeMap<String, String>();
+        for (Entry<String, TreeMap<String, String>> group : RecordIntegrity.GroupBy(hashes, ByRecord).entrySet()) {
+            parents.put(group.getKey(), RecordIntegrity.HashChildren(group.getValue()));
+        }
+        return parents;
+    }
+
+    /**
+     * This function rolls the leaf hashes up to the record hashes (file -> group -> record).
+     * @param leaves (TreeMap<String, String>): The relative path of each file mapped to its hash.
+     * @return (TreeMap<String, String>) The ID of each medical record mapped to its hash.
+     */
+    public static TreeMap<String, String> GetRecordHashes(TreeMap<String, String> leaves) {
+        return RecordIntegrity.RollUp(RecordIntegrity.RollUp(leaves, false), true);
+    }
+
+    public static String GetRoot(TreeMap<String, String> leaves) { return RecordIntegrity.HashChildren(RecordIntegrity.GetRecordHashes(leaves)); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Manifest
+    public TreeMap<String, Leaf> LoadLeaves() throws IOException {
+        TreeMap<String, Leaf> leaves = new TreeMap<String, Leaf>();
+        File file = this.GetManifestFile();
+        if (!file.exists()) { return leaves; }
+        ArrayList<String[]> records = new ArrayList<String[]>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WriteAheadLog.ReadRecords(channel, 0, records);
+        }
+        for (String[] record : records) {
+            if (record.length < 5 || !LEAF_RECORD.equals(record[0])) { continue; }
+            if (record[2].isEmpty()) { leaves.remove(record[1]); continue; }            // The file is removed
+            leaves.put(record[1], new Leaf(record[1], record[2], Long.parseLong(record[3]), Long.parseLong(record[4])));
+        }
+        if (records.size() > 2 * leaves.size() + 64) { this.Compact(leaves); }
+        return leaves;
+    }
+
+    private void Compact(TreeMap<String, Leaf> leaves) throws IOException {
+        // Rewrite the manifest with the live leaves only; the new file replaces the old one atomically.
+        File temporary = new File(this.folder, MANIFEST_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Leaf leaf : leaves.values()) {
+                ByteBuffer record = RecordIntegrity.EncodeLeaf(leaf);
+                while (record.hasRemaining()) { channel.write(record); }
+            }
+            channel.force(false);
+        }
+        Files.move(temporary.toPath(), this.GetManifestFile().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ByteBuffer EncodeLeaf(Leaf leaf) throws IOException {
+        return WriteAheadLog.EncodeRecord(LEAF_RECORD, leaf.path, leaf.hash, Long.toString(leaf.size), Long.toString(leaf.LastModified));
+    }
+
+    private String GetRelativePath(File file) {
+        return this.folder.toPath().toAbsolutePath().normalize().relativize(file.toPath().toAbsolutePath().normalize())
+                   .toString().replace('\\', '/');
+    }
+
+    private static boolean IsTracked(File file) {
+        return !file.getName().equals(PatientTimeline.TIMELINE_FILE) && !file.getName().equals(MANIFEST_FILE);
+    }
+
+    private static Leaf HashFile(String path, File file) throws IOException {
+        // Read the size and the time before the content, so a change made meanwhile is seen by the next quick check.
+        long size = file.length(), LastModified = file.lastModified();
+        return new Leaf(path, RecordIntegrity.HashBytes(Files.readAllBytes(file.toPath())), size, LastModified);
+    }
+
+    /**
+     * This function updates the leaves of the written files; the files are hashed in parallel.
+     * @param files (List<File>): The files written by the serialization (a missing file is removed from the tree).
+     * @return (int) The number of leaves changed.
+     */
+    public int Update(List<File> files) throws Exception {
+        ArrayList<Callable<Leaf>> tasks = new ArrayList<Callable<Leaf>>(files.size());
+        for (File file : files) {
+            if (!RecordIntegrity.IsTracked(file)) { continue; }
+            String path = this.GetRelativePath(file);
+            tasks.add(() -> file.exists() ? RecordIntegrity.HashFile(path, file) : new Leaf(path, EMPTY_HASH, 0, 0));
+        }
+        List<Leaf> updated = ExecutorUtils.InvokeAll(tasks);
+
+        synchronized (this.GetLock()) {
+            TreeMap<String, Leaf> leaves = this.LoadLeaves();
+            ArrayList<ByteBuffer> records = new ArrayList<ByteBuffer>();
+            for (Leaf leaf : updated) {
+                Leaf previous = leaves.get(leaf.path);
+                if (leaf.hash.isEmpty() && previous == null) { continue; }
+                if (previous != null && previous.hash.equals(leaf.hash) && previous.size == leaf.size &&
+                    previous.LastModified == leaf.LastModified) { continue; }
+                records.add(RecordIntegrity.EncodeLeaf(leaf));
+            }
+            if (records.isEmpty()) { return 0; }
+
+            this.folder.mkdirs();
+            try (FileChannel channel = FileChannel.open(this.GetManifestFile().toPath(), StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                for (ByteBuffer record : records) {
+                    while (record.hasRemaining()) { channel.write(record); }
+                }
+                channel.force(false);
+            }
+            return records.size();
+        }
+    }
+
+    public static List<File> ListRecordFiles(File RecordFolder, List<File> output) {
+        File[] children = RecordFolder.listFiles();
+        if (children == null) { return output; }
+        for (File child : children) {
+            if (child.isDirectory()) { RecordIntegrity.ListRecordFiles(child, output); }
+            else if (RecordIntegrity.IsTracked(child)) { output.add(child); }
+        }
+        return output;
+    }
+
+    public String GetExpectedRoot() throws IOException {
+        TreeMap<String, Leaf> leaves;
+        synchronized (this.GetLock()) { leaves = this.LoadLeaves(); }
+        TreeMap<String, String> hashes = new TreeMap<String, String>();
+        for (Leaf leaf : leaves.values()) { hashes.put(leaf.path, leaf.hash); }
+        return RecordIntegrity.GetRoot(hashes);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Verification
+    /**
+     * This function verifies the records of the patient against the tree.
+     * @param full (boolean): True to re-read every file (the slow path); False to re-read only the groups
+     *        whose files, sizes or last-modified times changed (the archived files are re-read only in the
+     *        full mode).
+     * @return (Report) The roots and the mismatched records and files.
+     */
+    public Report Verify(boolean full) throws Exception {
+        TreeMap<String, Leaf> leaves;
+        synchronized (this.GetLock()) { leaves = this.LoadLeaves(); }
+
+        // Step 01: The files on the disk, which include the files written without updating the tree
+        TreeMap<String, File> present = new TreeMap<String, File>();
+        File[] records = this.folder.listFiles(File::isDirectory);
+        if (records != null) {
+            for (File record : records) {
+                for (File file : RecordIntegrity.ListRecordFiles(record, new ArrayList<File>())) { present.put(this.GetRelativePath(file), file); }
+            }
+        }
+
+        // Step 02: The cheap check of each group: a group changed if one of its files is added, removed (and not
+        //          archived), or has another size or last-modified time than its leaf. In the full mode, all changed.
+        SegmentArchive archive = SegmentArchive.GetDefaultArchive();
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (Leaf leaf : leaves.values()) { expected.put(leaf.path, leaf.hash); }
+        List<String> AllPaths = RecordIntegrity.Union(expected, present);
+        TreeSet<String> changed = new TreeSet<String>();
+        for (String path : AllPaths) {
+            String group = RecordIntegrity.GetGroupName(path);
+            if (full || changed.contains(group)) { changed.add(group); continue; }
+            File file = present.get(path);
+            Leaf leaf = leaves.get(path);
+            if (leaf == null || (file == null && !archive.Contains(new File(this.folder, path).getPath())) ||
+                (file != null && (leaf.size != file.length() || leaf.LastModified != file.lastModified()))) { changed.add(group); }
+        }
+
+        // Step 03: Re-hash the files of the changed groups in parallel; the other groups keep their stored hashes
+        TreeMap<String, String> actual = new TreeMap<String, String>();
+        ArrayList<String> paths = new ArrayList<String>();
+        ArrayList<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        AtomicInteger hashed = new AtomicInteger();
+        for (String path : AllPaths) {
+            if (!changed.contains(RecordIntegrity.GetGroupName(path))) { actual.put(path, expected.get(path)); continue; }
+            File file = present.get(path);
+            Leaf leaf = leaves.get(path);
+            paths.add(path);
+            if (file != null) {
+                tasks.add(() -> { hashed.incrementAndGet(); return RecordIntegrity.HashFile(path, file).hash; });
+            } else {
+                String ArchivedPath = new File(this.folder, path).getPath();
+                tasks.add(() -> {
+                    if (!archive.Contains(ArchivedPath)) { return null; }
+                    if (!full) { return leaf.hash; }
+                    hashed.incrementAndGet();
+                    try { return RecordIntegrity.HashBytes(archive.Read(ArchivedPath)); }
+                    catch (IOException e) { return EMPTY_HASH; }                                // Corrupted in the archive
+                });
+            }
+        }
+        List<String> results = ExecutorUtils.InvokeAll(tasks);
+        for (int i = 0; i < paths.size(); i++) {
+            if (results.get(i) != null) { actual.put(paths.get(i), results.get(i)); }
+        }
+
+        // Step 04: Compare the roots, then descend into the mismatched records and groups only
+        TreeMap<String, String> ExpectedRecords = RecordIntegrity.GetRecordHashes(expected);
+        TreeMap<String, String> ActualRecords = RecordIntegrity.GetRecordHashes(actual);
+        Report report = new Report(this.GetPatientFolder(), RecordIntegrity.HashChildren(ExpectedRecords), RecordIntegrity.HashChildren(ActualRecords));
+        report.HashedFiles = hashed.get();
+        report.RehashedGroups = changed.size();
+        if (report.IsIntact()) { return report; }
+
+        TreeMap<String, TreeMap<String, String>> ExpectedByRecord = RecordIntegrity.GroupBy(expected, true);
+        TreeMap<String, TreeMap<String, String>> ActualByRecord = RecordIntegrity.GroupBy(actual, true);
+        for (String record : RecordIntegrity.Union(ExpectedRecords, ActualRecords)) {
+            if (String.valueOf(ExpectedRecords.get(record)).equals(ActualRecords.get(record))) { continue; }
+            report.MismatchedRecords.add(record);
+            RecordIntegrity.Descend(ExpectedByRecord.getOrDefault(record, new TreeMap<String, String>()),
+                                    ActualByRecord.getOrDefault(record, new TreeMap<String, String>()), report);
+        }
+        return report;
+    }
+
+    private static void Descend(TreeMap<String, String> expected, TreeMap<String, String> actual, Report report) {
+        TreeMap<String, TreeMap<String, String>> ExpectedGroups = RecordIntegrity.GroupBy(expected, false);
+        TreeMap<String, TreeMap<String, String>> ActualGroups = RecordIntegrity.GroupBy(actual, false);
+        for (String group : RecordIntegrity.Union(ExpectedGroups, ActualGroups)) {
+            TreeMap<String, String> ExpectedFiles = ExpectedGroups.getOrDefault(group, new TreeMap<String, String>());
+            TreeMap<String, String> ActualFiles = ActualGroups.getOrDefault(group, new TreeMap<String, String>());
+            if (RecordIntegrity.HashChildren(ExpectedFiles).equals(RecordIntegrity.HashChildren(ActualFiles))) { continue; }
+            for (String path : RecordIntegrity.Union(ExpectedFiles, ActualFiles)) {
+                String hash = ExpectedFiles.get(path), current = ActualFiles.get(path);
+                if (hash == null) { report.UntrackedFiles.add(path); }
+                else if (current == null) { report.MissingFiles.add(path); }
+                else if (!hash.equals(current)) { report.ModifiedFiles.add(path); }
+            }
+        }
+    }
+
+    private static List<String> Union(TreeMap<String, ?> first, TreeMap<String, ?> second) {
+        TreeMap<String, Boolean> keys = new TreeMap<String, Boolean>();
+        for (String key : first.keySet()) { keys.put(key, true); }
+        for (String key : second.keySet()) { keys.put(key, true); }
+        return new ArrayList<String>(keys.keySet());
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Data Root
+    private static List<File> FindPatientFolders(File folder, List<File> output) {
+        if (new File(folder, MANIFEST_FILE).isFile()) { output.add(folder); return output; }
+        File[] children = folder.listFiles(File::isDirectory);
+        if (children != null) { for (File child : children) { RecordIntegrity.FindPatientFolders(child, output); } }
+        return output;
+    }
+
+    /**
+     * This function verifies all patients under a data root, one patient per task on the I/O executor.
+     * @param directory (String): The data root (i.e "database/PatientRecord/").
+     * @param full (boolean): See Verify().
+     * @return (List<Report>) The reports of all patients, in the path order.
+     */
+    public static List<Report> VerifyAll(String directory, boolean full) throws Exception {
+        List<File> folders = RecordIntegrity.FindPatientFolders(new File(directory), new ArrayList<File>());
+        folders.sort(null);
+        ArrayList<Callable<Report>> tasks = new ArrayList<Callable<Report>>(folders.size());
+        for (File folder : folders) { tasks.add(() -> new RecordIntegrity(folder.getPath()).Verify(full)); }
+        return ExecutorUtils.InvokeAll(tasks);
+    }
+
+    public static List<Report> VerifyAll(boolean full) throws Exception {
+        return RecordIntegrity.VerifyAll(PersonUtils.GetPatientRecordDirectory(), full);
+    }
+
+    /**
+     * This function returns the data root: the hash of the expected roots of all patients under a directory.
+     * Two copies of the data (i.e a backup) are equal if their data roots are equal.
+     */
+    public static String GetDataRoot(String directory) throws IOException {
+        TreeMap<String, String> roots = new TreeMap<String, String>();
+        File root = new File(directory);
+        for (File folder : RecordIntegrity.FindPatientFolders(root, new ArrayList<File>())) {
+            String path = root.toPath().relativize(folder.toPath()).toString().replace('\\', '/');
+            roots.put(path, new RecordIntegrity(folder.getPath()).GetExpectedRoot());
+        }
+        return RecordIntegrity.HashChildren(roots);
+    }
+}
@@ -1,9 +1,25 @@
 package Treatment;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
 import BaseClass.BaseRecord;
+import BaseClass.PatientHeader;
+import BaseClass.BaseRoomContainer;
+import GlobalPool.ResourceConsumptionPipeline;
 import Object.Resource;
+import Staff.DepartmentEnum;
 import Staff.Medico;
 import Utility.DataUtils;
 import Utility.JsonUtils;
@@ -35,6 +51,11 @@ import Utility.JsonUtils;
  * 3) Resources: The drug/medicine information: Mapping the {ID}-{ID, name, amount}
  * 4) Descriptions: The desciption of the treatment: Mapping the {Index} - { Date, Time, Description, Medico_Name }.
  * 	  The {Date, Time} here is its creation time. Not the recording time by patient.
+ * 	  The descriptions are persisted into an append-only log (see DescriptionLog.java), where the deletion
+ * 	  is a separate tombstone record. A note is appended when it is added or deleted; the notes of a treatment
+ * 	  without its index (so without its folder) are appended by the next save.
+ * 
+ * When the treatment is saved, its file is always written, but the other files (1-3) only if they changed.
  * 
  * Note that the "index" (integer) attribute started from ZERO (0), NOT from one (1).
  * 
@@ -58,9 +79,15 @@ public class Treatment extends BaseRecord {
 	private static final int MAX_NUM_DESCRIPTIONS = 100;		// 100 descriptions are pre-allocated
 	private static final int MAX_NUM_RESOURCES = 100;			// 100 resources are pre-allocated
 
+	// The flags of the files changed since the last save (see Save())
+	private static final int MEDICO_FILE = 1;
+	private static final int SUPPLEMENTARY_FILE = 2;
+	private static final int RESOURCES_FILE = 4;
+	private static final int ALL_FILES = MEDICO_FILE | SUPPLEMENTARY_FILE | RESOURCES_FILE;
+
 	// ---------------------------------------------------------------------------------------------------------------------
 	private String MedicalRecord_ID; 					// Patient's Data
-	private int index; 								    // This represented the index placed in the medical-record		
+	private volatile int index; 								    // This represented the index placed in the medical-record		
 	private String ClassificationCode;					// This told us the type of the treatment
 
 	// ----------------------------------------------------------
@@ -69,11 +96,18 @@ public class Treatment extends BaseRecord {
 	private ArrayList<String> Supplementary;			// The directory of supplementary materials
 	private Hashtable<String, Object> Resources;		// The drug/medicine information
 	private Hashtable<String, Object> Descriptions;		// The desciption of the treatment
-
-	public Treatment(String Patient_ID, String MedicalRecord_ID, String Pt_FirstName, String Pt_LastName, 
-		String Pt_Age, String Pt_Gender, int index, String code, boolean writable) {
-		super(Patient_ID, Pt_FirstName, Pt_LastName, Pt_Age, 
-		      Pt_Gender, writable);
+	private HashSet<String> DeletedDescriptions;		// The index of the deleted (tombstoned) descriptions
+	private ArrayList<String> PendingTombstones;		// The tombstones not yet appended to the log
+	private int PersistedDescriptions = 0;				// The descriptions [0, PersistedDescriptions) are in the log
+	private boolean LegacyDescriptions = false;			// The descriptions are loaded from "Descriptions.json"
+	private int DirtyFiles = ALL_FILES;					// The files to be written by the next save (under the SaveLock)
+	private final Object SaveLock = new Object();		// Guards the dirty files, the pending notes, events and movements
+	private ArrayList<PatientTimeline.Event> PendingEvents;	// The resource events not yet appended to the timeline
+	private int ResourceSequence = 0;					// The number of resource changes; saved with the treatment
+	private ArrayList<String[]> PendingMovements;		// The stock movements {Sequence, ID, Name, Amount} not yet applied
+
+	public Treatment(PatientHeader header, String MedicalRecord_ID, int index, String code, boolean writable) {
+		super(header, writable);
 
 		DataUtils.CheckArgumentCondition(index >= -1, "The treatment index must started from -1. If -1, " + 
 										 "this treatment may not be available in the medical record.");
@@ -88,6 +122,16 @@ public class Treatment extends BaseRecord {
 		this.Supplementary = new ArrayList<String>(Treatment.MAX_NUM_SUPPLEMENTARY);
 		this.Resources = new Hashtable<String, Object>(Treatment.MAX_NUM_RESOURCES, 0.75f);
 		this.Descriptions = new Hashtable<String, Object>(Treatment.MAX_NUM_DESCRIPTIONS, 0.75f);
+		this.DeletedDescriptions = new HashSet<String>();
+		this.PendingTombstones = new ArrayList<String>();
+		this.PendingEvents = new ArrayList<PatientTimeline.Event>();
+		this.PendingMovements = new ArrayList<String[]>();
+	}
+
+	public Treatment(String Patient_ID, String MedicalRecord_ID, String Pt_FirstName, String Pt_LastName, 
+		String Pt_Age, String Pt_Gender, int index, String code, boolean writable) {
+		this(PatientHeader.Intern(Patient_ID, Pt_FirstName, Pt_LastName, Pt_Age, Pt_Gender), MedicalRecord_ID, 
+		     index, code, writable);
 	}
 
 	public Treatment(String Patient_ID, String MedicalRecord_ID, String Pt_FirstName, String Pt_LastName,
@@ -101,16 +145,47 @@ public class Treatment extends BaseRecord {
 	public void AddMedico(Medico medico) {
 		if (!this.IsWritable()) { return; }
 		if (!this.GetMedicoInfo().containsKey(medico.GetID())) {
-			String[] MedicoInformation = {medico.GetID(), medico.GetName(), medico.GetPhoneNumber()};
+			// A department is counted once per treatment (see TreatmentStatistics.java)
+			DepartmentEnum department = medico.GetDepartment();
+			String DepartmentName = department == null ? "" : department.name();
+			if (department != null && !this.HasDepartment(DepartmentName)) { 
+				TreatmentStatistics.GetDefaultStatistics().RecordDepartment(department, LocalDate.now()); 
+			}
+			String[] MedicoInformation = {medico.GetID(), medico.GetName(), medico.GetPhoneNumber(), DepartmentName};
 			this.GetMedicoInfo().put(medico.GetID(), MedicoInformation);
+			this.MarkDirty(MEDICO_FILE);
+			try { MedicoTreatmentIndex.GetDefaultIndex().Add(medico.GetID(), this); } 
+			catch (IOException e) { e.printStackTrace(); }
 		}
 	}
 
+	private boolean HasDepartment(String DepartmentName) {
+		for (Object info : this.GetMedicoInfo().values()) {
+			if (info instanceof String[] && ((String[]) info).length > 3 && DepartmentName.equals(((String[]) info)[3])) { return true; }
+			if (info instanceof List && ((List<?>) info).size() > 3 && DepartmentName.equals(((List<?>) info).get(3))) { return true; }
+		}
+		return false;
+	}
+
+	public void CloseRecord() {
+		// Only the transition from open to closed is counted, not the closed treatments loaded from files.
+		if (this.IsWritable()) { TreatmentStatistics.GetDefaultStatistics().RecordClosed(this.GetClassificationCode(), LocalDate.now()); }
+		super.CloseRecord();
+	}
+
 	public void AddSupplementary(String path) {
 		if (!this.IsWritable()) { return; }
-		if (!this.GetSupplementary().contains(path)) { this.GetSupplementary().add(path); return ;}
-		for (String s : this.GetSupplementary()) { if (s.contains(path)) { return; } }
-		this.GetSupplementary().add(path);
+		synchronized (this.SaveLock) {
+			if (!this.GetSupplementary().contains(path)) { this.GetSupplementary().add(path); this.DirtyFiles |= SUPPLEMENTARY_FILE; return ;}
+			for (String s : this.GetSupplementary()) { if (s.contains(path)) { return; } }
+			this.GetSupplementary().add(path);
+			this.DirtyFiles |= SUPPLEMENTARY_FILE;
+		}
+	}
+
+	private void MarkDirty(int file) {
+		// Called after the change, so a save which has not seen the change writes the file again next time.
+		synchronized (this.SaveLock) { this.DirtyFiles |= file; }
 	}
 
 	public void AddResource(String ID, String name, int amount) {
@@ -118,9 +193,59 @@ public class Treatment extends BaseRecord {
 		if (!this.GetResources().containsKey(ID)) {
 			String[] ResourceInformation = {ID, name, Integer.toString(amount)};
 			this.GetResources().put(ID, ResourceInformation);
+			this.MarkDirty(RESOURCES_FILE);
+			this.AddResourceEvent(ResourceInformation, amount);
 		}
 	}
 
+	private void AddResourceEvent(String[] ResourceInformation, int consumed) {
+		// The recorded amount is the consumption, so its change (consumed) is a stock movement. Its idempotency
+		// key is the number of the change, which is saved with the treatment: the same change of a reloaded
+		// treatment always gets the same key. The movement is submitted after the save (see SubmitMovements()).
+		long TimeKey = PatientTimeline.ToTimeKey(LocalDateTime.now());
+		PatientTimeline.Event event = new PatientTimeline.Event(TimeKey, PatientTimeline.RESOURCE_EVENT,
+								 this.GetMedicalRecordID(), this.GetTreatmentIndex(), ResourceInformation[0], "", 
+								 ResourceInformation[1] + " x" + ResourceInformation[2]);
+		synchronized (this.SaveLock) {
+			this.PendingEvents.add(event);
+			if (consumed == 0) { return ; }
+			this.ResourceSequence++;
+			this.PendingMovements.add(new String[] {Integer.toString(this.ResourceSequence), ResourceInformation[0], 
+													ResourceInformation[1], Integer.toString(consumed)});
+		}
+	}
+
+	private String GetMovementKey(String[] movement) {
+		return this.GetMedicalRecordID() + "/" + this.GetTreatmentIndex() + "/" + movement[1] + "/" + movement[0];
+	}
+
+	private void SubmitMovements() {
+		// Called after the treatment file is saved (or loaded), so a movement is never charged for a change which
+		// is not saved. The movements are kept (and saved with the treatment) until the pipeline has applied them,
+		// so a movement still queued when the program stops is submitted again by the next load; the same keys are
+		// ignored by the pipeline.
+		ResourceConsumptionPipeline pipeline = ResourceConsumptionPipeline.GetDefaultPipeline();
+		if (pipeline == null) { return ; }
+		synchronized (this.SaveLock) {
+			for (String[] movement : this.PendingMovements) {
+				pipeline.Submit(this.GetMovementKey(movement), this.GetPtID(), movement[1], movement[2], Integer.parseInt(movement[3]));
+			}
+		}
+	}
+
+	private ArrayList<Object> GetUnappliedMovements() {
+		// The movements applied since the last save are dropped; the others are saved with the treatment.
+		ResourceConsumptionPipeline pipeline = ResourceConsumptionPipeline.GetDefaultPipeline();
+		synchronized (this.SaveLock) {
+			if (pipeline != null) { this.PendingMovements.removeIf(movement -> pipeline.IsKeyApplied(this.GetMovementKey(movement))); }
+			ArrayList<Object> movements = new ArrayList<Object>(this.PendingMovements.size());
+			for (String[] movement : this.PendingMovements) { movements.add(JsonUtils.CastValueToJson(movement)); }
+			return movements;
+		}
+	}
+
+	public int GetResourceSequence() { return this.ResourceSequence; }
+
 	public void AddResource(Resource resource, int amount) {
 		this.AddResource(resource.GetID(), resource.GetName(), amount);
 	}
@@ -130,29 +255,48 @@ public class Treatment extends BaseRecord {
 		Description desc = new Description(description, writer_name);
 		String[] DescriptionInformation = {desc.GetDateAsString(), desc.GetTimeAsString(), 
 										   desc.GetDescription(), desc.GetMedicoName()};
-		int index = this.GetDescriptions().size();
-		this.GetDescriptions().put(Integer.toString(index), DescriptionInformation);
+		synchronized (this.SaveLock) {
+			int index = this.GetDescriptions().size();
+			this.GetDescriptions().put(Integer.toString(index), DescriptionInformation);
+			this.PersistDescriptions();
+		}
 	}
 
 	// -----------------------------------------------------------
 	// Remover
 	public void RemoveMedico(String medico_ID) {
 		if (!this.IsWritable()) { return; }
-		if (this.GetMedicoInfo().containsKey(medico_ID)) { this.GetMedicoInfo().remove(medico_ID); }
+		if (this.GetMedicoInfo().containsKey(medico_ID)) { 
+			this.GetMedicoInfo().remove(medico_ID); 
+			this.MarkDirty(MEDICO_FILE);
+			try { MedicoTreatmentIndex.GetDefaultIndex().Remove(medico_ID, this); } 
+			catch (IOException e) { e.printStackTrace(); }
+		}
 	}
 	public void RemoveMedico(Medico medico) { this.RemoveMedico(medico.GetID()); }
 
 	public void RemoveSupplementary(String path, boolean force) {
 		if (!this.IsWritable()) { return; }
-		for (String s : this.GetSupplementary()) {
-			if (s.equals(path)) { this.GetSupplementary().remove(s); break; }
-			if (force && s.contains(path)) { this.GetSupplementary().remove(s); break; }
+		synchronized (this.SaveLock) {
+			for (String s : this.GetSupplementary()) {
+				if (s.equals(path) || (force && s.contains(path))) { 
+					this.GetSupplementary().remove(s); 
+					this.DirtyFiles |= SUPPLEMENTARY_FILE;
+					break; 
+				}
+			}
 		}
 	}
 
 	public void RemoveResource(String ID) {
 		if (!this.IsWritable()) { return; }
-		if (this.GetResources().containsKey(ID)) { this.GetResources().remove(ID); }
+		if (this.GetResources().containsKey(ID)) { 
+			String[] ResourceInformation = BaseRoomContainer.CastToInformation(this.GetResources().remove(ID));
+			this.MarkDirty(RESOURCES_FILE);
+			if (ResourceInformation != null) {
+				this.AddResourceEvent(new String[] {ID, ResourceInformation[1], "0"}, -Integer.parseInt(ResourceInformation[2]));
+			}
+		}
 	}
 	public void RemoveResource(Resource resource) { this.RemoveResource(resource.GetID()); }
 
@@ -160,21 +304,25 @@ public class Treatment extends BaseRecord {
 		if (!this.IsWritable()) { return; }
 		if (amount == 0) { this.RemoveResource(ID); return; }
 		if (this.GetResources().containsKey(ID)) {
-			String[] ResourceInformation = (String[]) this.GetResources().get(ID);
+			String[] ResourceInformation = BaseRoomContainer.CastToInformation(this.GetResources().get(ID));
+			int previous = Integer.parseInt(ResourceInformation[2]);
 			ResourceInformation[2] = Integer.toString(amount);
 			this.GetResources().put(ID, ResourceInformation);
+			this.MarkDirty(RESOURCES_FILE);
+			this.AddResourceEvent(ResourceInformation, amount - previous);
 		}
 	}
 	public void UpdateResource(Resource resource, int amount) { this.UpdateResource(resource.GetID(), amount); }
 
 	public void RemoveDescription(String index) {
 		// This operation is a little bit tricky since old description can be traversed back for legacy purpose.
-		// Thus we can added a new prefix "[Deleted]" to the description.
+		// Thus the description is kept, and a tombstone is recorded (see IsDescriptionDeleted()).
 		if (!this.IsWritable()) { return; }
-		if (this.GetDescriptions().containsKey(index)) { 
-			String[] DescriptionInformation = (String[]) this.GetDescriptions().get(index);
-			DescriptionInformation[2] = "[Deleted] " + DescriptionInformation[2];
-			this.GetDescriptions().put(index, DescriptionInformation);
+		synchronized (this.SaveLock) {
+			if (this.GetDescriptions().containsKey(index) && this.DeletedDescriptions.add(index)) { 
+				this.PendingTombstones.add(index);
+				this.PersistDescriptions();
+			}
 		}
 	}
 	public void IgnoreDescription(String index) { this.RemoveDescription(index); }
@@ -199,12 +347,13 @@ public class Treatment extends BaseRecord {
 
 	public int GetTreatmentIndex() { return this.index; }
 
-	public void SetTreatmentIndex(int index) {
-		if (!this.IsWritable()) { return; }
-		DataUtils.CheckArgumentCondition(this.GetTreatmentIndex() >= 0, 
-										"Treatment Index must be a non-negative integer.");
+	public synchronized void SetTreatmentIndex(int index) {
+		// Unlike the other setters, this is not ignored on a closed treatment: a treatment without index is lost.
+		DataUtils.CheckArgumentCondition(this.IsWritable(), "The treatment index cannot be set on a closed treatment.");
+		DataUtils.CheckArgumentCondition(this.GetTreatmentIndex() == -1, 
+										"Treatment Index can only be set once (from -1).");
 		DataUtils.CheckArgumentCondition(index >= 0, "Updated index must be a non-negative integer.");								
-		if (this.index == -1) { this.index = index; }
+		this.index = index;
 	}
 
 	public String GetClassificationCode() { return this.ClassificationCode; }
@@ -214,6 +363,9 @@ public class Treatment extends BaseRecord {
 	public ArrayList<String> GetSupplementary() { return this.Supplementary; }
 	public Hashtable<String, Object> GetResources() { return this.Resources; }
 	public Hashtable<String, Object> GetDescriptions() { return this.Descriptions; }
+	public HashSet<String> GetDeletedDescriptions() { return this.DeletedDescriptions; }
+	public boolean IsDescriptionDeleted(String index) { return this.DeletedDescriptions.contains(index); }
+	public boolean IsDescriptionDeleted(int index) { return this.IsDescriptionDeleted(Integer.toString(index)); }
 
 	// ---------------------------------------------------------------------------------------------------------------------
 	// Serialization & Deserialization
@@ -224,6 +376,119 @@ public class Treatment extends BaseRecord {
 	// This is the directory of the file after serialization.
 	public String GetToTreatmentFile() { return this.GetToMedicalRecordFolder() + this.GetStandardizedIndex() + ".json";  }
 
+	public String GetToDescriptionLog() { return this.GetToTreatmentFolder() + DescriptionLog.FILE_NAME; }
+
+	/**
+	 * This function appends the descriptions added and deleted since the last save to the description log,
+	 * so the cost is proportional to the new notes, not to all notes of the treatment. The new notes and
+	 * the resource events are also appended to the patient's timeline (see PatientTimeline.java).
+	 */
+	public void FlushDescriptions() throws IOException {
+		synchronized (this.SaveLock) {
+			int from = this.PersistedDescriptions, count = this.GetDescriptions().size();
+			if (from < count || !this.PendingTombstones.isEmpty()) { this.AppendDescriptions(count); }
+			this.FlushTimeline(from, count);
+		}
+	}
+
+	private void PersistDescriptions() {
+		// Called when a note is added or deleted. A treatment without its index has no folder yet, and the
+		// legacy notes are migrated by the save (which points the treatment file to the log); a failed append
+		// is retried by the next save.
+		if (this.GetTreatmentIndex() < 0 || this.LegacyDescriptions) { return ; }
+		try { this.FlushDescriptions(); } 
+		catch (IOException e) { e.printStackTrace(); }
+	}
+
+	private static int GetMissingFile(int file, String directory) {
+		// A file which is missing from the disk (i.e archived, see RecordArchiver.java) is written again.
+		return new File(directory).isFile() ? 0 : file;
+	}
+
+	private void AppendDescriptions(int count) throws IOException {
+		ArrayList<ByteBuffer> records = new ArrayList<ByteBuffer>(count - this.PersistedDescriptions + this.PendingTombstones.size());
+		for (int i = this.PersistedDescriptions; i < count; i++) {
+			String index = Integer.toString(i);
+			String[] information = BaseRoomContainer.CastToInformation(this.GetDescriptions().get(index));
+			if (information != null) { records.add(DescriptionLog.EncodeDescription(index, information)); }
+		}
+		for (String index : this.PendingTombstones) { records.add(DescriptionLog.EncodeTombstone(index)); }
+
+		new DescriptionLog(this.GetToDescriptionLog()).AppendAll(records);
+		this.UpdateIntegrity();
+		this.IndexDescriptions(this.PersistedDescriptions, count);
+		this.PersistedDescriptions = count;
+		this.PendingTombstones.clear();
+	}
+
+	private void UpdateIntegrity() {
+		// The log is appended outside of the serialization of the record, so its leaf is re-hashed here
+		// (see RecordIntegrity.java); a failure never fails the note.
+		try { RecordIntegrity.GetIntegrity(this).Update(Collections.singletonList(new File(this.GetToDescriptionLog()))); }
+		catch (Exception e) { e.printStackTrace(); }
+	}
+
+	private void FlushTimeline(int from, int to) {
+		if (from >= to && this.PendingEvents.isEmpty()) { return ; }
+		try {
+			ArrayList<PatientTimeline.Event> events = new ArrayList<PatientTimeline.Event>(to - from + this.PendingEvents.size());
+			for (int i = from; i < to; i++) {
+				String[] information = BaseRoomContainer.CastToInformation(this.GetDescriptions().get(Integer.toString(i)));
+				if (information == null) { continue; }
+				long TimeKey = PatientTimeline.ToTimeKey(LocalDate.parse(information[0]), LocalTime.parse(information[1]));
+				events.add(new PatientTimeline.Event(TimeKey, PatientTimeline.DESCRIPTION_EVENT, this.GetMedicalRecordID(), 
+												   this.GetTreatmentIndex(), Integer.toString(i), information[3], information[2]));
+			}
+			events.addAll(this.PendingEvents);
+			PatientTimeline.GetTimeline(this).Append(this.GetMedicalRecordID(), events, -1);
+			this.PendingEvents.clear();
+		} catch (Exception e) { e.printStackTrace(); }
+	}
+
+	private void IndexDescriptions(int from, int to) {
+		// The full-text index (see DescriptionSearchIndex.java) follows the log; a failure never fails the save.
+		try {
+			DescriptionSearchIndex index = DescriptionSearchIndex.GetDefaultIndex();
+			for (int i = from; i < to; i++) {
+				String[] information = BaseRoomContainer.CastToInformation(this.GetDescriptions().get(Integer.toString(i)));
+				if (information == null) { continue; }
+				index.Add(this.GetPtID(), this.GetMedicalRecordID(), this.GetTreatmentIndex(), Integer.toString(i), information);
+			}
+			for (String tombstone : this.PendingTombstones) {
+				index.Delete(this.GetMedicalRecordID(), this.GetTreatmentIndex(), tombstone);
+			}
+		} catch (IOException e) { e.printStackTrace(); }
+	}
+
+	private void LoadDescriptions(String directory) throws IOException {
+		if (directory == null) { return ; }
+		if (directory.endsWith(DescriptionLog.FILE_NAME)) {
+			DescriptionLog log = new DescriptionLog(directory);
+			log.Repair();
+			ArrayList<String[]> records = new ArrayList<String[]>();
+			log.Tail(0, records);
+			DescriptionLog.Apply(records, this.GetDescriptions(), this.DeletedDescriptions);
+			this.PersistedDescriptions = this.GetDescriptions().size();
+			return ;
+		}
+		this.LegacyDescriptions = true;
+
+		// The legacy "Descriptions.json" (the deletion is the "[Deleted] " prefix): it is migrated
+		// into the log at the next save, since nothing is persisted in the log yet.
+		Iterator<Entry<String, Object>> iter = JsonUtils.LoadJsonFileToHashtable(directory, null).entrySet().iterator();
+		while (iter.hasNext()) {
+			Entry<String, Object> entry = iter.next();
+			String[] information = BaseRoomContainer.CastToInformation(entry.getValue());
+			if (information == null || information.length < 4) { continue; }
+			if (information[2].startsWith("[Deleted] ")) {
+				information[2] = information[2].substring("[Deleted] ".length());
+				this.DeletedDescriptions.add(entry.getKey());
+				this.PendingTombstones.add(entry.getKey());
+			}
+			this.GetDescriptions().put(entry.getKey(), information);
+		}
+	}
+
 	/**
 	 * This function not serializes the "treatment" into the JSONOBject-like object but actually
 	 * serialize the "treatment" into a JSON file.
@@ -233,13 +498,34 @@ public class Treatment extends BaseRecord {
 	 * The "Treatment" is stored at the following path: "[folder]/<Standardized-TreatmentIndex>.json"
 	 * All four supplementary files are stored at the following path: "[subfolder]/<SupplementaryFile>.json",
 	 * whose SupplementaryFile is "MedicoInfo", "Resources", "Descriptions", "Supplementary" (FileName ~~ key).
+	 * The exception is the "Descriptions", which is the append-only log "[subfolder]/Descriptions.log".
 	 * 
+	 * An error is only printed here; use Save() to get it.
 	 */
 	public Hashtable<String, Object> Serialize() {
+		try { return this.Save(); } 
+		catch (Exception e) { e.printStackTrace(); }
+		return null;
+	}
+
+	/**
+	 * This function does the same as Serialize(), but throws the error if any file cannot be written, so the
+	 * caller does not refer to a treatment which is not saved (see MedicalRecord.Serialize()).
+	 * @throws Exception If any file of the treatment cannot be written.
+	 */
+	public Hashtable<String, Object> Save() throws Exception {
 		Hashtable<String, Object> TreatmentInformation = super.Serialize();
+		// The patient header is written once, in the file of the medical record; only its ID is kept here.
+		TreatmentInformation.remove("Pt_FirstName");
+		TreatmentInformation.remove("Pt_LastName");
+		TreatmentInformation.remove("Pt_Age");
+		TreatmentInformation.remove("Pt_Gender");
 		TreatmentInformation.put("MedicalRecordID", this.GetMedicalRecordID());
 		TreatmentInformation.put("TreatmentIndex", (Object) this.GetTreatmentIndex());
 		TreatmentInformation.put("ClassificationCode", this.GetClassificationCode());
+		TreatmentInformation.put("ResourceSequence", this.GetResourceSequence());
+		ArrayList<Object> movements = this.GetUnappliedMovements();
+		if (!movements.isEmpty()) { TreatmentInformation.put("PendingMovements", movements); }
 		
 		// ----------------------------------------------------------
 		// Base folder = PersonUtils.GetPatientRecordDirectory(this.GetPtFirstName(), false);
@@ -255,52 +541,90 @@ public class Treatment extends BaseRecord {
 		String subfolder = this.GetToTreatmentFolder();
 		TreatmentInformation.put("subfolder", subfolder); 	// Saved here as cache	
 
-		try {
-			String directory;
-			directory = subfolder + "MedicoInfo.json";
-			TreatmentInformation.put("MedicoInfo", directory);
-			JsonUtils.SaveHashTableIntoJsonFile(directory, this.GetMedicoInfo(), null);
-
-
-			ArrayList<Object> CastedSupplementary = DataUtils.CastToObjectArrayFromStringArray(this.GetSupplementary());
-			directory = subfolder + "Supplementary.json";
-			TreatmentInformation.put("Supplementary", directory);
-			JsonUtils.SaveArrayListIntoJsonFile(directory, CastedSupplementary, null);
-
-
-			directory = subfolder + "Resources.json";
-			TreatmentInformation.put("Resources", directory);
-			JsonUtils.SaveHashTableIntoJsonFile(directory, this.GetResources(), null);
-
-
-			directory = subfolder + "Descriptions.json";
-			TreatmentInformation.put("Descriptions", directory);
-			JsonUtils.SaveHashTableIntoJsonFile(directory, this.GetDescriptions(), null);
-			
-
-			directory = folder + this.GetStandardizedIndex() + ".json";
-			TreatmentInformation.put("Treatment", directory);
-			JsonUtils.SaveHashTableIntoJsonFile(directory, TreatmentInformation, null);
+		new File(subfolder).mkdirs();
+		String MedicoFile = subfolder + "MedicoInfo.json", SupplementaryFile = subfolder + "Supplementary.json";
+		String ResourcesFile = subfolder + "Resources.json", directory = folder + this.GetStandardizedIndex() + ".json";
+		TreatmentInformation.put("MedicoInfo", MedicoFile);
+		TreatmentInformation.put("Supplementary", SupplementaryFile);
+		TreatmentInformation.put("Resources", ResourcesFile);
+		TreatmentInformation.put("Descriptions", subfolder + DescriptionLog.FILE_NAME);
+		TreatmentInformation.put("Treatment", directory);
+
+		// The dirty bits are cleared BEFORE the snapshot (Save() runs on the I/O threads), so a change made
+		// meanwhile is written by the next save; the bits are set again if any file cannot be written.
+		int changed = Treatment.GetMissingFile(MEDICO_FILE, MedicoFile) | Treatment.GetMissingFile(RESOURCES_FILE, ResourcesFile) | 
+					  Treatment.GetMissingFile(SUPPLEMENTARY_FILE, SupplementaryFile);
+		Hashtable<String, Object> MedicoInfo = null, Resources = null;
+		ArrayList<Object> CastedSupplementary = null;
+		synchronized (this.SaveLock) {
+			changed |= this.DirtyFiles;
+			this.DirtyFiles = 0;
+			if ((changed & MEDICO_FILE) != 0) { MedicoInfo = new Hashtable<String, Object>(this.GetMedicoInfo()); }
+			if ((changed & RESOURCES_FILE) != 0) { Resources = new Hashtable<String, Object>(this.GetResources()); }
+			if ((changed & SUPPLEMENTARY_FILE) != 0) { CastedSupplementary = DataUtils.CastToObjectArrayFromStringArray(this.GetSupplementary()); }
+		}
 
-		} catch (Exception e) { e.printStackTrace(); }
+		try {
+			if (MedicoInfo != null) {
+				DataUtils.CheckCondition(JsonUtils.SaveHashTableIntoJsonFile(MedicoFile, MedicoInfo, null), 
+										 "The file cannot be written: " + MedicoFile);
+			}
+			if (CastedSupplementary != null) {
+				DataUtils.CheckCondition(JsonUtils.SaveArrayListIntoJsonFile(SupplementaryFile, CastedSupplementary, null), 
+										 "The file cannot be written: " + SupplementaryFile);
+			}
+			if (Resources != null) {
+				DataUtils.CheckCondition(JsonUtils.SaveHashTableIntoJsonFile(ResourcesFile, Resources, null), 
+										 "The file cannot be written: " + ResourcesFile);
+			}
+			this.FlushDescriptions();
+			DataUtils.CheckCondition(JsonUtils.SaveHashTableIntoJsonFile(directory, TreatmentInformation, null), 
+									 "The file cannot be written: " + directory);
+		} catch (Exception e) {
+			this.MarkDirty(changed);
+			throw e;
+		}
+		this.LegacyDescriptions = false;
+		this.SubmitMovements();
 		return TreatmentInformation;
 	}
 
+	private static PatientHeader LoadPatientHeader(Hashtable<String, Object> data) {
+		// A legacy treatment file has its own copy of the header; otherwise, the header is read from the
+		// file of its medical record "[folder]/<MedicalRecord.ID>.json".
+		PatientHeader header = PatientHeader.Deserialize(data);
+		if (header != null) { return header; }
+		String folder = (String) data.get("folder");
+		DataUtils.CheckArgumentCondition(folder != null, "The treatment file does not refer to its medical record.");
+		Hashtable<String, Object> RecordData = JsonUtils.LoadJsonFileToHashtable(folder + data.get("MedicalRecordID") + ".json", null);
+		header = RecordData == null ? null : PatientHeader.Deserialize(RecordData);
+		DataUtils.CheckArgumentCondition(header != null, "The patient header of the treatment is not found.");
+		DataUtils.CheckArgumentCondition(header.GetPtID().equals(data.get("Pt_ID")), "The treatment does not belong to its medical record.");
+		return header;
+	}
+
 	public static Treatment Deserialize(Hashtable<String, Object> data) {
-		String Pt_ID = (String) data.get("Pt_ID");
-        String Pt_FirstName = (String) data.get("Pt_FirstName");
-        String Pt_LastName = (String) data.get("Pt_LastName");
-        String Pt_Age = (String) data.get("Pt_Age");
-        String Pt_Gender = (String) data.get("Pt_Gender");
+		return Treatment.Deserialize(data, Treatment.LoadPatientHeader(data));
+	}
 
+	public static Treatment Deserialize(Hashtable<String, Object> data, PatientHeader header) {
 		String MedicalRecordID = (String) data.get("MedicalRecordID");
-		int TreatmentIndex = Integer.parseInt((String) data.get("TreatmentIndex"));
+		int TreatmentIndex = Integer.parseInt(String.valueOf(data.get("TreatmentIndex")));
 		String ClassificationCode = (String) data.get("ClassificationCode");
 
-        Treatment record = new Treatment(Pt_ID, MedicalRecordID, Pt_FirstName, Pt_LastName, Pt_Age, 
-										 Pt_Gender, TreatmentIndex, ClassificationCode, true);
+        Treatment record = new Treatment(header, MedicalRecordID, TreatmentIndex, ClassificationCode, 
+										 (boolean) data.get("writable"));
         record.SetDate((String) data.get("date"));
         record.SetTime((String) data.get("time"));
+		if (data.get("ResourceSequence") != null) { 
+			record.ResourceSequence = Integer.parseInt(String.valueOf(data.get("ResourceSequence"))); 
+		}
+		if (data.get("PendingMovements") instanceof List) {
+			for (Object item : (List<?>) data.get("PendingMovements")) {
+				String[] movement = BaseRoomContainer.CastToInformation(item);
+				if (movement != null && movement.length >= 4) { record.PendingMovements.add(movement); }
+			}
+		}
 
 		// Deserialize Medico, Supplementary, Resources, and Descriptions. These are stored in JSON files.
 		// So we need to call them
@@ -316,12 +640,13 @@ public class Treatment extends BaseRecord {
 			record.GetSupplementary().addAll(DataUtils.CastToStringArrayFromObjectArray(Supplementary));
 
 			record.GetResources().putAll(JsonUtils.LoadJsonFileToHashtable(Resources_File, null));
-			record.GetDescriptions().putAll(JsonUtils.LoadJsonFileToHashtable(Descriptions_File, null));
+			record.LoadDescriptions(Descriptions_File);
+			record.DirtyFiles = 0;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		record.SubmitMovements();
 
-		if (!(boolean) data.get("writable")) { record.CloseRecord(); }
 		return record;
 	}
 
@@ -332,4 +657,13 @@ public class Treatment extends BaseRecord {
 		return Treatment.Deserialize(data);
 	}
 
+	public static Treatment DeserializeFromFile(String directory, PatientHeader header) throws Exception {
+		// The header is given by the medical record which loads this treatment (see MedicalRecord.GetTreatment()).
+		Hashtable<String, Object> data = JsonUtils.LoadJsonFileToHashtable(directory, null);
+		String VerifyKey = (String) data.get("Treatment");
+		DataUtils.CheckCondition(VerifyKey != null, "The loaded file is not a valid medical-treatment record.");
+		DataUtils.CheckCondition(header.GetPtID().equals(data.get("Pt_ID")), "The treatment does not belong to this patient.");
+		return Treatment.Deserialize(data, header);
+	}
+
 }
@@ -0,0 +1,171 @@
+package Treatment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import Utility.DataUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the concurrent, append-only list of the treatments of a medical record. Each slot holds
+ * either the loaded "Treatment" or its "TreatmentHeader" (when the treatment is not loaded yet, see
+ * MedicalRecord.GetTreatment()).
+ *
+ * The treatment index is the position of the slot, which is assigned by Append() in two steps:
+ * 1) Reserve: the next index is taken by a compare-and-set on the "reserved" counter, so two medicos
+ *    adding a treatment at once never get the same index.
+ * 2) Publish: the slot is filled, then the "size" is moved over it. The appenders publish in the order
+ *    of their indexes, so the size never covers a slot which is not filled: the list has no gap.
+ *
+ * A treatment is validated before its index is reserved. If it still fails after (i.e the same treatment
+ * is appended twice at once), a tombstone is published at its index instead, so the next appenders are
+ * not blocked and no reader sees a treatment without its index; the slot reads as empty.
+ *
+ * The readers only read the volatile size and the slots, without any lock. The appenders only contend
+ * on the tail (the two counters). The slots are allocated in chunks of 32 on demand, so a record with
+ * few treatments stays small.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/atomic/package-summary.html
+**/
+
+public final class TreatmentAppendList {
+    private static final int CHUNK_SIZE = 32;
+    private static final Object TOMBSTONE = new Object();              // The slot of a failed append
+
+    private final int capacity;
+    private final AtomicReferenceArray<AtomicReferenceArray<Object>> chunks;
+    private final AtomicInteger reserved = new AtomicInteger(0);     // The indexes [0, reserved) are taken
+    private final AtomicInteger size = new AtomicInteger(0);         // The slots [0, size) are filled and visible
+
+    public TreatmentAppendList(int capacity) {
+        DataUtils.CheckArgumentCondition(capacity > 0, "The capacity must be positive.");
+        this.capacity = capacity;
+        this.chunks = new AtomicReferenceArray<AtomicReferenceArray<Object>>((capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    public int GetCapacity() { return this.capacity; }
+    public int Size() { return this.size.get(); }
+
+    private AtomicReferenceArray<Object> GetChunk(int index) {
+        AtomicReferenceArray<Object> chunk = this.chunks.get(index / CHUNK_SIZE);
+        if (chunk == null) {
+            this.chunks.compareAndSet(index / CHUNK_SIZE, null, new AtomicReferenceArray<Object>(CHUNK_SIZE));
+            chunk = this.chunks.get(index / CHUNK_SIZE);
+        }
+        return chunk;
+    }
+
+    private Object GetSlot(int index) {
+        DataUtils.CheckArgumentCondition(index >= 0 && index < this.Size(), "The index is out of range.");
+        return this.GetChunk(index).get(index % CHUNK_SIZE);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Appending
+    private int Reserve(int expected) throws Exception {
+        // expected = -1: any index; otherwise the treatment asks for this exact index.
+        while (true) {
+            int index = this.reserved.get();
+            DataUtils.CheckCondition(index < this.capacity, "The number of treatments stored is too large.");
+            DataUtils.CheckCondition(expected == -1 || expected == index,
+                                     "The treatment index " + expected + " is not the next index (" + index + ").");
+            if (this.reserved.compareAndSet(index, index + 1)) { return index; }
+        }
+    }
+
+    private void Publish(int index, Object slot) {
+        this.GetChunk(index).set(index % CHUNK_SIZE, slot);
+        while (this.size.get() != index) { Thread.onSpinWait(); }      // The previous appenders publish first
+        this.size.set(index + 1);
+    }
+
+    /**
+     * This function appends a treatment at the tail and assigns its index. A treatment which already has an
+     * index (i.e it was created with it) is only accepted if this index is the next one.
+     * @param treatment (Treatment): The new treatment.
+     * @return (int) The index of the treatment.
+     */
+    public int Append(Treatment treatment) throws Exception {
+        DataUtils.CheckArgumentCondition(treatment != null, "The treatment cannot be null.");
+        int expected = treatment.GetTreatmentIndex();
+        DataUtils.CheckArgumentCondition(expected != -1 || treatment.IsWritable(), 
+                                         "A treatment which is not writable cannot be given an index.");
+        int index = this.Reserve(expected);
+
+        // The slot is always published, so a failure never blocks the next appenders.
+        Object slot = TOMBSTONE;
+        try {
+            if (expected == -1) { treatment.SetTreatmentIndex(index); }
+            slot = treatment;
+        } finally {
+            this.Publish(index, slot);
+        }
+        return index;
+    }
+
+    /**
+     * This function puts a treatment or a header at its index while a record is loaded from its file.
+     * The missing slots below it are left empty. It must not be called concurrently with Append().
+     * @param index (int): The index of the slot.
+     * @param slot (Object): A Treatment or a TreatmentHeader.
+     */
+    void Put(int index, Object slot) {
+        DataUtils.CheckArgumentCondition(index >= 0 && index < this.capacity, "The index is out of range.");
+        DataUtils.CheckArgumentCondition(slot instanceof Treatment || slot instanceof TreatmentHeader,
+                                         "The slot must be a treatment or a treatment header.");
+        this.GetChunk(index).set(index % CHUNK_SIZE, slot);
+        if (index >= this.reserved.get()) { this.reserved.set(index + 1); this.size.set(index + 1); }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Reading
+    public Treatment Get(int index) {
+        Object slot = this.GetSlot(index);
+        return slot instanceof Treatment ? (Treatment) slot : null;
+    }
+
+    public TreatmentHeader GetHeader(int index) {
+        Object slot = this.GetSlot(index);
+        return slot instanceof TreatmentHeader ? (TreatmentHeader) slot : null;
+    }
+
+    public boolean IsEmpty(int index) {
+        Object slot = this.GetSlot(index);
+        return slot == null || slot == TOMBSTONE;
+    }
+
+    /**
+     * This function replaces the header of a slot by its loaded treatment.
+     * @return (boolean) False if the slot does not hold this header anymore (i.e loaded by another thread).
+     */
+    public boolean SetLoaded(int index, TreatmentHeader header, Treatment treatment) {
+        this.GetSlot(index);
+        return this.GetChunk(index).compareAndSet(index % CHUNK_SIZE, header, treatment);
+    }
+
+    public List<Treatment> GetLoadedTreatments() {
+        // A snapshot of the loaded treatments, in the order of their indexes.
+        int count = this.Size();
+        ArrayList<Treatment> treatments = new ArrayList<Treatment>(count);
+        for (int i = 0; i < count; i++) {
+            Treatment treatment = this.Get(i);
+            if (treatment != null) { treatments.add(treatment); }
+        }
+        return treatments;
+    }
+}
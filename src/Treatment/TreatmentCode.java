@@ -40,29 +40,52 @@ public class TreatmentCode {
     // The pool here is a collection of key-value pairs, where the key is the code, 
     // and the value is the simple description found describing the code.
     // The key_code is a fixed-length 13-valued string (8 digits separated by 2 dashes, and a 3-valued prefix)
+    // The pool is an immutable snapshot (see TreatmentCodeRegistry.java), which is built on the side and
+    // published by a volatile write, so the lookup is lock-free and never observes a half-loaded pool.
     private final static int capacity = 1000;
     private final static float loadFactor = (float) 0.75f;
-    private final static Hashtable<String, Object> Pool = new Hashtable<String, Object>(capacity, loadFactor);
+    private static volatile TreatmentCodeRegistry Registry = TreatmentCodeRegistry.EMPTY;
     
     // These two directory are the saved configuration of all treatment codes. 
     private final static String JsonDirectory = "database/TreatmentCode/TreatmentCode.json";
     private final static Prefix prefix = Prefix.TreatmentCode;
 
     public static void main(String[] args) {
+        TreatmentCode.LoadPool();
+        System.out.println("Number of codes available: " + TreatmentCode.GetNumberOfCodeAvailable());
+    } 
+
+    public static synchronized void LoadPool() {
+        // Load the pool from the JSON file once (or restore it from the saved pool).
         if (TreatmentCode.GetNumberOfCodeAvailable() == 0) {
-            boolean status = TreatmentCode.LoadJsonDatabase();
-            if (status == false || TreatmentCode.GetNumberOfCodeAvailable() == 0) { 
+            Hashtable<String, Object> pool = new Hashtable<String, Object>(capacity, loadFactor);
+            boolean status = TreatmentCode.LoadJsonDatabase(pool);
+            if (status == false || pool.size() == 0) { 
                 TreatmentCode.InitializePool(); 
             } else {
-                TreatmentCode.ValidateAllKeyCodeInPool(false);
+                TreatmentCode.ValidateAllKeyCodeInPool(pool, false);
+                TreatmentCode.Publish(pool);
             }
         }
-        System.out.println("Number of codes available: " + TreatmentCode.GetNumberOfCodeAvailable());
-    } 
+    }
+
+    public static synchronized boolean ReloadPool() {
+        // Reload the JSON file and swap the pool atomically. The current pool is kept if the file is
+        // missing, empty or having an invalid code.
+        Hashtable<String, Object> pool = new Hashtable<String, Object>(capacity, loadFactor);
+        if (!TreatmentCode.LoadJsonDatabase(pool) || pool.size() == 0) { return false; }
+        if (!TreatmentCode.ValidateAllKeyCodeInPool(pool, true)) { return false; }
+        TreatmentCode.Publish(pool);
+        return true;
+    }
+
+    private static void Publish(Hashtable<String, Object> pool) {
+        TreatmentCode.Registry = new TreatmentCodeRegistry(pool);
+    }
     
     // ---------------------------------------------------------------------------------------------------------------------
     // Pool declaration
-    private static boolean LoadJsonDatabase() {
+    private static boolean LoadJsonDatabase(Hashtable<String, Object> pool) {
         File json_data = new File(TreatmentCode.JsonDirectory); 
         String directory = null;
         boolean status = false;
@@ -79,7 +102,7 @@ public class TreatmentCode {
                 for (Hashtable<String, Object> item : array) {
                     String code = (String) item.get(ArgName[0]);
                     String description = (String) item.get(ArgName[1]);
-                    TreatmentCode.GetPool().put(code, (Object) description);
+                    pool.put(code, (Object) description);
                 }
                 status = true;
             } catch (FileNotFoundException e) {
@@ -94,13 +117,14 @@ public class TreatmentCode {
         return status;
     }
 
-    private static void _InitPool_() {
-        TreatmentCode.Pool.clear();
+    private static Hashtable<String, Object> _InitPool_() {
+        Hashtable<String, Object> pool = new Hashtable<String, Object>(capacity, loadFactor);
         String prefix_code = TreatmentCode.prefix.GetPrefixCode();
-        ArrayList<String[]> pool = TreatmentCodeSavedPool.LoadPool();
-        for (String[] record : pool) {
-            TreatmentCode.Pool.put(prefix_code + record[0], record[1]);
+        ArrayList<String[]> records = TreatmentCodeSavedPool.LoadPool();
+        for (String[] record : records) {
+            pool.put(prefix_code + record[0], record[1]);
         }
+        return pool;
     }
 
     private static void InitializePool() throws InternalError {
@@ -109,10 +133,11 @@ public class TreatmentCode {
         System.out.println("Warning: There is no JSON file found in the provided directory. " + 
                             "This method is called as a restore point.");
         // Step 01: Initialize the pool
-        TreatmentCode._InitPool_();
+        Hashtable<String, Object> pool = TreatmentCode._InitPool_();
 
-        // Step 02: Validate the pool
-        TreatmentCode.ValidateAllKeyCodeInPool(false);
+        // Step 02: Validate and publish the pool
+        TreatmentCode.ValidateAllKeyCodeInPool(pool, false);
+        TreatmentCode.Publish(pool);
 
         // Step 03: Save the pool into JSON file for later used
         try {
@@ -127,12 +152,14 @@ public class TreatmentCode {
 
     // ---------------------------------------------------------------------------------------------------------------------
     // Getter Function
-    public static Hashtable<String, Object> GetPool() { return TreatmentCode.Pool; }
+    // GetPool() returns a copy of the current snapshot; changing it has no effect on the pool.
+    public static Hashtable<String, Object> GetPool() { return TreatmentCode.Registry.ToHashtable(); }
+    public static TreatmentCodeRegistry GetRegistry() { return TreatmentCode.Registry; }
 
-    public static boolean ContainsThisKeyCode(String code) { return TreatmentCode.GetPool().containsKey(code); }
+    public static boolean ContainsThisKeyCode(String code) { return TreatmentCode.Registry.ContainsKeyCode(code); }
     public static int GetSerializationCapacity() { return capacity; }
     public static float GetSerializationLoadFactor() { return loadFactor; }
-    public static int GetNumberOfCodeAvailable() { return Pool.size(); }
+    public static int GetNumberOfCodeAvailable() { return TreatmentCode.Registry.GetSize(); }
     public static String GetClassName() { return TreatmentCode.class.getSimpleName(); }
     public static String[] GetArgName() { return new String[] {"code", "description"}; }
 
@@ -140,18 +167,32 @@ public class TreatmentCode {
     public static String GetPrefixCode() { return TreatmentCode.GetPrefix().GetPrefixCode(); }
 
     public static void Display() {
-        Iterator<Entry<String, Object>> iter = TreatmentCode.Pool.entrySet().iterator();
+        Iterator<Entry<String, Object>> iter = TreatmentCode.GetPool().entrySet().iterator();
         while (iter.hasNext()) {
             Entry<String, Object> entry = iter.next();
             System.out.println(entry.getKey() + ": " + entry.getValue());
         }
     }
 
-    public static Object GetValue(String code) { 
-        if (TreatmentCode.ContainsThisKeyCode(code)) {
-            return TreatmentCode.GetPool().get(code);
-        }
-        return null;
+    public static Object GetValue(String code) { return TreatmentCode.Registry.GetValue(code); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Family Query: The family is the leading groups of the code without the prefix, i.e "00-00" or "01".
+    public static String GetFamilyPrefix(String family) {
+        if (family == null || family.isEmpty()) { return TreatmentCode.GetPrefixCode(); }
+        return TreatmentCode.GetPrefixCode() + (family.endsWith("-") ? family : family + "-");
+    }
+
+    public static List<String> GetCodesInFamily(String family) {
+        return TreatmentCode.Registry.GetCodesWithPrefix(TreatmentCode.GetFamilyPrefix(family));
+    }
+
+    public static int CountCodesInFamily(String family) {
+        return TreatmentCode.Registry.CountCodesWithPrefix(TreatmentCode.GetFamilyPrefix(family));
+    }
+
+    public static Iterator<String> IterateCodesInRange(String FromCode, String ToCode) {
+        return TreatmentCode.Registry.IterateCodesInRange(FromCode, ToCode);
     }
 
     // ---------------------------------------------------------------------------------------------------------------------
@@ -163,7 +204,11 @@ public class TreatmentCode {
     }
 
     public static boolean ValidateAllKeyCodeInPool(boolean skip_error) throws InternalError {
-        Iterator<Entry<String, Object>> iter = TreatmentCode.Pool.entrySet().iterator();
+        return TreatmentCode.ValidateAllKeyCodeInPool(TreatmentCode.GetPool(), skip_error);
+    }
+
+    private static boolean ValidateAllKeyCodeInPool(Hashtable<String, Object> pool, boolean skip_error) throws InternalError {
+        Iterator<Entry<String, Object>> iter = pool.entrySet().iterator();
         while (iter.hasNext()) {
             Entry<String, Object> entry = iter.next();
             String keyCode = entry.getKey();
@@ -0,0 +1,164 @@
+package Treatment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is an immutable snapshot of the treatment codes (see TreatmentCode.java). The codes
+ * and their descriptions are stored in an open-addressing table (linear probing, the power-of-two
+ * capacity is kept at most half full), so a lookup is a hash, a few array reads and a String
+ * comparison, without any lock.
+ *
+ * A snapshot is never modified after its construction. A reload of the pool builds a new snapshot
+ * on the side and publishes it by a single volatile write (copy-on-write), so a reader always sees
+ * either the old pool or the new pool, but never a half-loaded one.
+ *
+ * The snapshot also kept the codes in a sorted array. Since the codes are fixed-length with the
+ * hierarchical shape "TmC-00-00-0000", all codes of a family (i.e "TmC-00-00-" or "TmC-01-") are
+ * one contiguous run of that array, which is found by two binary searches. Hence, the prefix
+ * enumeration, the count per prefix and the range iteration never scan the whole pool.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Open_addressing
+ * 2) https://en.wikipedia.org/wiki/Linear_probing
+ * 3) https://en.wikipedia.org/wiki/Binary_search_algorithm
+**/
+
+public final class TreatmentCodeRegistry {
+    public static final TreatmentCodeRegistry EMPTY = new TreatmentCodeRegistry(new Hashtable<String, Object>(1));
+
+    private final String[] keys;                    // The slot is null if it is empty
+    private final Object[] values;
+    private final String[] SortedKeys;
+    private final int mask;
+    private final int size;
+
+    public TreatmentCodeRegistry(Map<String, Object> pool) {
+        int capacity = 2;
+        while (capacity < pool.size() * 2) { capacity <<= 1; }
+        this.keys = new String[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+
+        int count = 0;
+        Iterator<Entry<String, Object>> iter = pool.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<String, Object> entry = iter.next();
+            if (entry.getKey() == null) { continue; }
+            int slot = this.GetSlot(entry.getKey());
+            if (this.keys[slot] == null) { count++; }
+            this.keys[slot] = entry.getKey();
+            this.values[slot] = entry.getValue();
+        }
+        this.size = count;
+
+        this.SortedKeys = new String[count];
+        for (int i = 0, j = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) { this.SortedKeys[j++] = this.keys[i]; }
+        }
+        Arrays.sort(this.SortedKeys);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Lookup
+    private static int Spread(int hash) { return hash ^ (hash >>> 16); }
+
+    private int GetSlot(String code) {
+        // Return the slot of the code, or the empty slot where the code would be placed.
+        int slot = TreatmentCodeRegistry.Spread(code.hashCode()) & this.mask;
+        while (this.keys[slot] != null && !this.keys[slot].equals(code)) { slot = (slot + 1) & this.mask; }
+        return slot;
+    }
+
+    public boolean ContainsKeyCode(String code) { return code != null && this.keys[this.GetSlot(code)] != null; }
+
+    public Object GetValue(String code) {
+        if (code == null) { return null; }
+        int slot = this.GetSlot(code);
+        return this.keys[slot] != null ? this.values[slot] : null;
+    }
+
+    public int GetSize() { return this.size; }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Prefix & Range Query
+    private int LowerBound(String code) {
+        // Return the index of the first sorted code which is not less than the given code.
+        int low = 0, high = this.SortedKeys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.SortedKeys[middle].compareTo(code) < 0) { low = middle + 1; } else { high = middle; }
+        }
+        return low;
+    }
+
+    private static String GetPrefixEnd(String prefix) {
+        // All codes starting with the prefix are less than this bound.
+        return prefix + Character.MAX_VALUE;
+    }
+
+    public int CountCodesWithPrefix(String prefix) {
+        if (prefix == null) { return 0; }
+        return this.LowerBound(TreatmentCodeRegistry.GetPrefixEnd(prefix)) - this.LowerBound(prefix);
+    }
+
+    public List<String> GetCodesWithPrefix(String prefix) {
+        if (prefix == null) { return new ArrayList<String>(0); }
+        return this.GetCodesInRange(prefix, TreatmentCodeRegistry.GetPrefixEnd(prefix));
+    }
+
+    /**
+     * This function returns the codes in the range [FromCode, ToCode), in the sorted order.
+     * @param FromCode (String): The inclusive lower bound.
+     * @param ToCode (String): The exclusive upper bound.
+     * @return (List<String>) The codes in the range.
+     */
+    public List<String> GetCodesInRange(String FromCode, String ToCode) {
+        int from = this.LowerBound(FromCode), to = this.LowerBound(ToCode);
+        if (from >= to) { return new ArrayList<String>(0); }
+        return Arrays.asList(Arrays.copyOfRange(this.SortedKeys, from, to));
+    }
+
+    public Iterator<String> IterateCodesInRange(String FromCode, String ToCode) {
+        // The iteration is over the snapshot, so it is not affected by a reload.
+        final int from = this.LowerBound(FromCode), to = Math.max(from, this.LowerBound(ToCode));
+        final String[] sorted = this.SortedKeys;
+        return new Iterator<String>() {
+            private int cursor = from;
+            public boolean hasNext() { return this.cursor < to; }
+            public String next() {
+                if (!this.hasNext()) { throw new NoSuchElementException("There is no more code in the range."); }
+                return sorted[this.cursor++];
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Converting Function
+    public Hashtable<String, Object> ToHashtable() {
+        Hashtable<String, Object> pool = new Hashtable<String, Object>(Math.max(1, this.size * 2), 0.75f);
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) { pool.put(this.keys[i], this.values[i]); }
+        }
+        return pool;
+    }
+}
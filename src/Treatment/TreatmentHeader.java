@@ -0,0 +1,88 @@
+package Treatment;
+
+import java.time.LocalDate;
+
+import BaseClass.BaseRoomContainer;
+import Utility.DataUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the compact header of a treatment, which is stored in the manifest of the medical record
+ * ("Treatments" in "[folder]/<MedicalRecord.ID>.json"). It is enough to list or page the treatments of a
+ * record without opening the treatment files; the full treatment is loaded from the "TreatmentFile" only
+ * when it is opened (see MedicalRecord.GetTreatment()).
+ *
+ * A header is stored as {Index, ClassificationCode, Date, Time, Writable, TreatmentFile, TreatmentFolder},
+ * where the "TreatmentFolder" is the folder of the sub-files (MedicoInfo, Supplementary, Resources and
+ * Descriptions).
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://en.wikipedia.org/wiki/Lazy_loading
+**/
+
+public final class TreatmentHeader {
+    private final int index;
+    private final String ClassificationCode;
+    private final String date, time;
+    private final boolean writable;
+    private final String TreatmentFile, TreatmentFolder;
+
+    public TreatmentHeader(int index, String ClassificationCode, String date, String time, boolean writable,
+                           String TreatmentFile, String TreatmentFolder) {
+        DataUtils.CheckArgumentCondition(index >= 0, "The treatment index must be a non-negative integer.");
+        this.index = index;
+        this.ClassificationCode = ClassificationCode;
+        this.date = date;
+        this.time = time;
+        this.writable = writable;
+        this.TreatmentFile = TreatmentFile;
+        this.TreatmentFolder = TreatmentFolder;
+    }
+
+    public static TreatmentHeader FromTreatment(Treatment treatment) {
+        return new TreatmentHeader(treatment.GetTreatmentIndex(), treatment.GetClassificationCode(), treatment.GetDateAsString(),
+                                   treatment.GetTimeAsString(), treatment.IsWritable(), treatment.GetToTreatmentFile(),
+                                   treatment.GetToTreatmentFolder());
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getters
+    public int GetTreatmentIndex() { return this.index; }
+    public String GetClassificationCode() { return this.ClassificationCode; }
+    public String GetDateAsString() { return this.date; }
+    public String GetTimeAsString() { return this.time; }
+    public LocalDate GetDate() { return LocalDate.parse(this.date); }
+    public boolean IsWritable() { return this.writable; }
+    public String GetTreatmentFile() { return this.TreatmentFile; }
+    public String GetTreatmentFolder() { return this.TreatmentFolder; }
+    public String GetDescriptionLog() { return this.TreatmentFolder + DescriptionLog.FILE_NAME; }
+
+    public String toString() { return TreatmentUtils.GetStandardizedIndex(this.index).trim() + ": " + this.ClassificationCode + " (" + this.date + ")"; }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Serialization & Deserialization
+    public String[] Serialize() {
+        return new String[] {Integer.toString(this.index), this.ClassificationCode, this.date, this.time,
+                             Boolean.toString(this.writable), this.TreatmentFile, this.TreatmentFolder};
+    }
+
+    public static TreatmentHeader Deserialize(Object value) {
+        // The header is a String[] in memory, or a JSONArray after loading from the JSON file.
+        String[] header = BaseRoomContainer.CastToInformation(value);
+        if (header == null || header.length < 7) { return null; }
+        return new TreatmentHeader(Integer.parseInt(header[0]), header[1], header[2], header[3], Boolean.parseBoolean(header[4]),
+                                   header[5], header[6]);
+    }
+}
@@ -0,0 +1,380 @@
+package Treatment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import Staff.DepartmentEnum;
+import Utility.DataUtils;
+import Utility.ExecutorUtils;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class counts the treatments per day: the number of treatments created and closed per treatment
+ * code, and the number of treatments attended by each medico department. It is fed by the events of
+ * the treatments (MedicalRecord.AddTreatment(), Treatment.CloseRecord() and Treatment.AddMedico()), so
+ * the queries never open a medical record.
+ *
+ * The treatment codes are mapped to dense integer IDs, and the counters of a day are primitive arrays
+ * of {Created, Closed} per code ID and one counter per department. The arrays are allocated in chunks
+ * of 1024 codes and updated atomically, so the concurrent events never block each other.
+ *
+ * The days are rolled over: the tables of the recent days are kept in memory and the older ones are
+ * saved into small rollup files and dropped. An event of an older day (i.e a treatment closed after a
+ * midnight) re-opens the table of its day from its file. A recording thread holds the table while it
+ * changes it, and a table is only dropped when it is saved and nobody holds it (see Retire()), so an
+ * event is never added to a dropped table.
+ *
+ *   database/TreatmentStatistics/[yyyy-MM]/[yyyy-MM-dd].bin -> [count] {Code, Created, Closed} x count
+ *                                                             [count] {Department, Attended} x count
+ *
+ * The tables are saved every minute (on the scheduler thread for the default statistics, see
+ * ExecutorUtils.SchedulePeriodic()) and when the program exits; the events since the last save are
+ * lost if the program is killed.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/atomic/AtomicIntegerArray.html
+**/
+
+public class TreatmentStatistics {
+    private static final String STATISTICS_DIRECTORY = "database/TreatmentStatistics";
+    public static final int CREATED = 0;
+    public static final int CLOSED = 1;
+    private static final int KINDS = 2;
+    private static final int CHUNK_SIZE = 1024;                    // The number of codes per chunk
+    private static final int MAX_CHUNKS = 1024;
+    private static final int OPEN_DAYS = 2;                         // Today and yesterday are kept in memory
+    private static final long FLUSH_INTERVAL = 60L * 1000L;
+    private static volatile TreatmentStatistics DefaultStatistics = null;
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // The counters of a day
+    private static class DayTable {
+        private final AtomicReferenceArray<AtomicIntegerArray> chunks = new AtomicReferenceArray<AtomicIntegerArray>(MAX_CHUNKS);
+        private final AtomicIntegerArray departments = new AtomicIntegerArray(DepartmentEnum.values().length);
+        private final AtomicInteger users = new AtomicInteger(0);     // The recording threads holding the table
+        private volatile boolean dirty = false;
+        private volatile boolean retired = false;                     // Dropped from the open days
+
+        private AtomicIntegerArray GetChunk(int CodeID, boolean create) {
+            int index = CodeID / CHUNK_SIZE;
+            AtomicIntegerArray chunk = this.chunks.get(index);
+            if (chunk == null && create) {
+                this.chunks.compareAndSet(index, null, new AtomicIntegerArray(CHUNK_SIZE * KINDS));
+                chunk = this.chunks.get(index);
+            }
+            return chunk;
+        }
+
+        private void Add(int CodeID, int kind, int delta) {
+            this.GetChunk(CodeID, true).addAndGet((CodeID % CHUNK_SIZE) * KINDS + kind, delta);
+            this.dirty = true;
+        }
+
+        private int Get(int CodeID, int kind) {
+            AtomicIntegerArray chunk = this.GetChunk(CodeID, false);
+            return chunk == null ? 0 : chunk.get((CodeID % CHUNK_SIZE) * KINDS + kind);
+        }
+
+        private void AddDepartment(DepartmentEnum department, int delta) {
+            this.departments.addAndGet(department.ordinal(), delta);
+            this.dirty = true;
+        }
+    }
+
+    private final String directory;
+    private final ConcurrentHashMap<String, Integer> CodeIDs = new ConcurrentHashMap<String, Integer>();
+    private final ArrayList<String> codes = new ArrayList<String>();              // Guarded by "CodeIDs"
+    private final ConcurrentHashMap<Long, DayTable> days = new ConcurrentHashMap<Long, DayTable>();
+    private final ReentrantLock FlushLock = new ReentrantLock();
+    private volatile long LastFlush = System.currentTimeMillis();
+
+    public TreatmentStatistics(String directory) {
+        DataUtils.CheckArgumentCondition(directory != null, "The directory of the statistics cannot be null.");
+        this.directory = directory;
+    }
+
+    public static TreatmentStatistics GetDefaultStatistics() {
+        if (TreatmentStatistics.DefaultStatistics == null) {
+            synchronized (TreatmentStatistics.class) {
+                if (TreatmentStatistics.DefaultStatistics == null) {
+                    TreatmentStatistics statistics = new TreatmentStatistics(STATISTICS_DIRECTORY);
+                    ExecutorUtils.SchedulePeriodic(statistics::Flush, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                    ExecutorUtils.RunAtShutdown("TreatmentStatistics-Flush", statistics::Flush);
+                    TreatmentStatistics.DefaultStatistics = statistics;
+                }
+            }
+        }
+        return TreatmentStatistics.DefaultStatistics;
+    }
+
+    public String GetDirectory() { return this.directory; }
+    private File GetDayFile(long day) {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        return new File(this.directory + "/" + date.toString().substring(0, 7) + "/" + date + ".bin");
+    }
+
+    private int GetCodeID(String code) {
+        Integer ID = this.CodeIDs.get(code);
+        if (ID != null) { return ID; }
+        synchronized (this.CodeIDs) {
+            ID = this.CodeIDs.get(code);
+            if (ID == null) {
+                DataUtils.CheckArgumentCondition(this.codes.size() < CHUNK_SIZE * MAX_CHUNKS, "Too many treatment codes.");
+                ID = this.codes.size();
+                this.codes.add(code);
+                this.CodeIDs.put(code, ID);
+            }
+            return ID;
+        }
+    }
+
+    private String GetCode(int CodeID) { synchronized (this.CodeIDs) { return this.codes.get(CodeID); } }
+    private int GetNumberOfCodes() { synchronized (this.CodeIDs) { return this.codes.size(); } }
+
+    private static long Today() { return LocalDate.now().toEpochDay(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Recording
+    private DayTable GetTable(long day) {
+        DayTable table = this.days.get(day);
+        if (table != null) { return table; }
+        return this.days.computeIfAbsent(day, key -> this.LoadTable(key));
+    }
+
+    private DayTable AcquireTable(long day) {
+        // Hold the table while it is changed; if it has been dropped meanwhile, re-open it from its file.
+        while (true) {
+            DayTable table = this.GetTable(day);
+            table.users.incrementAndGet();
+            if (!table.retired) { return table; }
+            table.users.decrementAndGet();
+        }
+    }
+
+    private void Record(String code, LocalDate date, int kind) {
+        if (code == null) { return ; }
+        long day = date == null ? TreatmentStatistics.Today() : date.toEpochDay();
+        int CodeID = this.GetCodeID(code);
+        DayTable table = this.AcquireTable(day);
+        try { table.Add(CodeID, kind, 1); }
+        finally { table.users.decrementAndGet(); }
+        this.MaybeRoll();
+    }
+
+    public void RecordCreated(String code, LocalDate date) { this.Record(code, date, CREATED); }
+    public void RecordClosed(String code, LocalDate date) { this.Record(code, date, CLOSED); }
+
+    public void RecordDepartment(DepartmentEnum department, LocalDate date) {
+        if (department == null) { return ; }
+        long day = date == null ? TreatmentStatistics.Today() : date.toEpochDay();
+        DayTable table = this.AcquireTable(day);
+        try { table.AddDepartment(department, 1); }
+        finally { table.users.decrementAndGet(); }
+        this.MaybeRoll();
+    }
+
+    private void MaybeRoll() {
+        // One of the recording threads saves the tables; the others never wait for it.
+        if (System.currentTimeMillis() - this.LastFlush < FLUSH_INTERVAL || !this.FlushLock.tryLock()) { return ; }
+        try { this.RollOver(); }
+        finally { this.FlushLock.unlock(); }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Rollup files
+    private DayTable LoadTable(long day) {
+        DayTable table = new DayTable();
+        File file = this.GetDayFile(day);
+        if (!file.exists()) { return table; }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int CodeID = this.GetCodeID(in.readUTF());
+                for (int kind = 0; kind < KINDS; kind++) { table.Add(CodeID, kind, in.readInt()); }
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int attended = in.readInt();
+                try { table.AddDepartment(DepartmentEnum.valueOf(name), attended); }
+                catch (IllegalArgumentException e) { continue; }                   // A removed department
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        table.dirty = false;
+        return table;
+    }
+
+    private void SaveTable(long day, DayTable table) throws IOException {
+        // The dirty flag is cleared BEFORE the snapshot, so an event counted meanwhile is saved next time.
+        table.dirty = false;
+        File file = this.GetDayFile(day);
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + ".tmp");
+
+        ArrayList<Integer> used = new ArrayList<Integer>();
+        int NumberOfCodes = this.GetNumberOfCodes();
+        for (int CodeID = 0; CodeID < NumberOfCodes; CodeID++) {
+            if (table.Get(CodeID, CREATED) != 0 || table.Get(CodeID, CLOSED) != 0) { used.add(CodeID); }
+        }
+        DepartmentEnum[] departments = DepartmentEnum.values();
+        int attended = 0;
+        for (int i = 0; i < departments.length; i++) { if (table.departments.get(i) != 0) { attended++; } }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(used.size());
+            for (int CodeID : used) {
+                out.writeUTF(this.GetCode(CodeID));
+                for (int kind = 0; kind < KINDS; kind++) { out.writeInt(table.Get(CodeID, kind)); }
+            }
+            out.writeInt(attended);
+            for (int i = 0; i < departments.length; i++) {
+                if (table.departments.get(i) == 0) { continue; }
+                out.writeUTF(departments[i].name());
+                out.writeInt(table.departments.get(i));
+            }
+        }
+        if (file.exists() && !file.delete()) { throw new IOException("Cannot replace the file: " + file.getPath()); }
+        if (!temporary.renameTo(file)) { throw new IOException("Cannot rename the file: " + temporary.getPath()); }
+    }
+
+    public void Flush() {
+        this.FlushLock.lock();
+        try { this.RollOver(); }
+        finally { this.FlushLock.unlock(); }
+    }
+
+    private void RollOver() {
+        // Save the changed tables, then drop the tables of the days before the open days.
+        this.LastFlush = System.currentTimeMillis();
+        long oldest = TreatmentStatistics.Today() - OPEN_DAYS + 1;
+        for (Entry<Long, DayTable> entry : this.days.entrySet()) {
+            try {
+                if (entry.getValue().dirty) { this.SaveTable(entry.getKey(), entry.getValue()); }
+                if (entry.getKey() < oldest) { this.Retire(entry.getKey(), entry.getValue()); }
+            } catch (IOException e) { e.printStackTrace(); }
+        }
+    }
+
+    private void Retire(long day, DayTable table) {
+        // The table is marked retired BEFORE its holders are checked, so a recording thread either holds it
+        // (and the table is kept) or sees the mark (and re-opens the day from the file saved above).
+        this.days.compute(day, (key, current) -> {
+            if (current != table) { return current; }
+            table.retired = true;
+            if (table.users.get() == 0 && !table.dirty) { return null; }
+            table.retired = false;
+            return current;
+        });
+    }
+
+    public int GetNumberOfOpenDays() { return this.days.size(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Query (the tables in memory, or the rollup files)
+    private DayTable ReadTable(long day) {
+        DayTable table = this.days.get(day);
+        return table != null ? table : this.LoadTable(day);
+    }
+
+    public int GetCount(String code, LocalDate date, int kind) {
+        DataUtils.CheckArgumentCondition(kind == CREATED || kind == CLOSED, "The kind must be CREATED or CLOSED.");
+        // Reading the table first registers the codes of its rollup file.
+        DayTable table = this.ReadTable(date.toEpochDay());
+        Integer CodeID = code == null ? null : this.CodeIDs.get(code);
+        return CodeID == null ? 0 : table.Get(CodeID, kind);
+    }
+
+    /**
+     * This function returns the number of treatments of a code on each day of a range.
+     * @param code (String): The treatment code.
+     * @param from (LocalDate): The first day (inclusive).
+     * @param to (LocalDate): The last day (inclusive).
+     * @param kind (int): CREATED or CLOSED.
+     * @return (int[]) The count of each day, starting at "from".
+     */
+    public int[] GetDailyCounts(String code, LocalDate from, LocalDate to, int kind) {
+        DataUtils.CheckArgumentCondition(!to.isBefore(from), "The range of days is empty.");
+        int[] counts = new int[(int) (to.toEpochDay() - from.toEpochDay() + 1)];
+        for (int i = 0; i < counts.length; i++) { counts[i] = this.GetCount(code, from.plusDays(i), kind); }
+        return counts;
+    }
+
+    /**
+     * This function returns the total number of treatments per code over a range of days.
+     * @param prefix (String): Only the codes with this prefix (i.e a family "TmC-00-00-"); null for all codes.
+     * @param from (LocalDate): The first day (inclusive).
+     * @param to (LocalDate): The last day (inclusive).
+     * @param kind (int): CREATED or CLOSED.
+     * @return (TreeMap<String, Long>) The code mapped to its total, for the codes with a non-zero total.
+     */
+    public TreeMap<String, Long> GetCountsByCode(String prefix, LocalDate from, LocalDate to, int kind) {
+        DataUtils.CheckArgumentCondition(kind == CREATED || kind == CLOSED, "The kind must be CREATED or CLOSED.");
+        long[] totals = new long[0];
+        for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+            DayTable table = this.ReadTable(day);
+            int NumberOfCodes = this.GetNumberOfCodes();
+            if (totals.length < NumberOfCodes) { totals = Arrays.copyOf(totals, NumberOfCodes); }
+            for (int CodeID = 0; CodeID < NumberOfCodes; CodeID++) { totals[CodeID] += table.Get(CodeID, kind); }
+        }
+
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for (int CodeID = 0; CodeID < totals.length; CodeID++) {
+            if (totals[CodeID] == 0) { continue; }
+            String code = this.GetCode(CodeID);
+            if (prefix == null || code.startsWith(prefix)) { result.put(code, totals[CodeID]); }
+        }
+        return result;
+    }
+
+    public EnumMap<DepartmentEnum, Long> GetCountsByDepartment(LocalDate from, LocalDate to) {
+        DepartmentEnum[] departments = DepartmentEnum.values();
+        long[] totals = new long[departments.length];
+        for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+            DayTable table = this.ReadTable(day);
+            for (int i = 0; i < departments.length; i++) { totals[i] += table.departments.get(i); }
+        }
+
+        EnumMap<DepartmentEnum, Long> result = new EnumMap<DepartmentEnum, Long>(DepartmentEnum.class);
+        for (int i = 0; i < departments.length; i++) { if (totals[i] != 0) { result.put(departments[i], totals[i]); } }
+        return result;
+    }
+
+    public List<LocalDate> GetOpenDays() {
+        ArrayList<LocalDate> result = new ArrayList<LocalDate>();
+        for (Long day : new TreeMap<Long, DayTable>(this.days).keySet()) { result.add(LocalDate.ofEpochDay(day)); }
+        return result;
+    }
+}
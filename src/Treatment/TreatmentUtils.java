@@ -1,5 +1,8 @@
 package Treatment;
 
+import java.io.File;
+import java.util.List;
+
 import Person.PersonUtils;
 
 /**
@@ -64,5 +67,14 @@ public abstract class TreatmentUtils {
 		return treatment.GetToMedicalRecordFolder() + treatment.GetStandardizedIndex() + "/";
 	}
 
+    public static List<String> FindRecordFiles(File folder, List<String> output) {
+        // A record folder "[...]/<MedicalRecord.ID>/" contains its record file "<MedicalRecord.ID>.json".
+        File RecordFile = new File(folder, folder.getName() + ".json");
+        if (RecordFile.isFile()) { output.add(RecordFile.getPath()); return output; }
+        File[] children = folder.listFiles(File::isDirectory);
+        if (children != null) { for (File child : children) { TreatmentUtils.FindRecordFiles(child, output); } }
+        return output;
+    }
+
 
 }
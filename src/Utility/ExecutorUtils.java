@@ -0,0 +1,141 @@
+package Utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class provides the shared, bounded I/O executor of the project. Every (small) file read
+ * or write which can be done in parallel (i.e the four component rooms, the treatments of a
+ * medical record) is submitted here, so the number of concurrent file operations is bounded by
+ * IO_THREADS regardless of how many callers there are.
+ *
+ * Note that if a task running on the I/O executor submits more tasks and waits for them, all
+ * the I/O threads could be waiting for each other (thread-starvation deadlock). To prevent it,
+ * the InvokeAll() runs the tasks directly (sequentially) if it is called from an I/O thread.
+ *
+ * The periodic maintenance tasks (compaction, flush) run on a single scheduler thread, see
+ * SchedulePeriodic(); the last flush of the buffered data is registered by RunAtShutdown().
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/Executors.html
+**/
+
+public abstract class ExecutorUtils {
+    private static final int IO_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final String IO_THREAD_PREFIX = "HDM-IO-";
+    private static final String SCHEDULER_THREAD_NAME = "HDM-Scheduler";
+    private static final ThreadLocal<Boolean> IsIOThread = ThreadLocal.withInitial(() -> false);
+
+    private static final ExecutorService IOExecutor = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger(0);
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(() -> { ExecutorUtils.IsIOThread.set(true); task.run(); },
+                                       IO_THREAD_PREFIX + this.counter.incrementAndGet());
+            thread.setDaemon(true);          // The I/O threads must not prevent the program from exiting.
+            return thread;
+        }
+    });
+
+    private static final ScheduledExecutorService Scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, SCHEDULER_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Getter
+    public static ExecutorService GetIOExecutor() { return ExecutorUtils.IOExecutor; }
+    public static int GetNumberOfIOThreads() { return ExecutorUtils.IO_THREADS; }
+    public static boolean IsRunningOnIOThread() { return ExecutorUtils.IsIOThread.get(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    /**
+     * This function will run all tasks on the I/O executor and wait until all of them are done.
+     * The results are returned in the same order of the tasks. If any task failed, the first
+     * error (in the order of the tasks) is thrown after all tasks are finished.
+     *
+     * @param tasks (List<Callable<T>>): The tasks to be run.
+     * @return List<T>: The result of each task.
+     * @throws Exception: The first error raised by the tasks.
+     */
+    public static <T> List<T> InvokeAll(List<? extends Callable<T>> tasks) throws Exception {
+        ArrayList<T> results = new ArrayList<T>(tasks.size());
+        if (ExecutorUtils.IsRunningOnIOThread() || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) { results.add(task.call()); }
+            return results;
+        }
+
+        ArrayList<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) { futures.add(ExecutorUtils.GetIOExecutor().submit(task)); }
+        return ExecutorUtils.AwaitAll(futures);
+    }
+
+    public static <T> List<T> AwaitAll(List<Future<T>> futures) throws Exception {
+        ArrayList<T> results = new ArrayList<T>(futures.size());
+        Exception error = null;
+        for (Future<T> future : futures) {
+            try { results.add(future.get()); }
+            catch (ExecutionException e) {
+                results.add(null);
+                if (error == null) { error = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e; }
+            }
+        }
+        if (error != null) { throw error; }
+        return results;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    /**
+     * This function will run a maintenance task periodically on the scheduler thread, starting after
+     * one period. An error in one run is printed and does not cancel the next runs.
+     *
+     * @param task (Runnable): The task to be run.
+     * @param period (long): The delay between the end of a run and the start of the next one.
+     * @param unit (TimeUnit): The unit of the period.
+     * @return ScheduledFuture<?>: The handle to cancel the task.
+     */
+    public static ScheduledFuture<?> SchedulePeriodic(Runnable task, long period, TimeUnit unit) {
+        DataUtils.CheckArgumentCondition(period > 0, "The period must be positive.");
+        return ExecutorUtils.Scheduler.scheduleWithFixedDelay(() -> {
+            try { task.run(); }
+            catch (Exception e) { e.printStackTrace(); }
+        }, period, period, unit);
+    }
+
+    /**
+     * This function will run a task (i.e the last flush of a buffered store) when the program exits normally.
+     * An error is printed and does not prevent the other tasks from running.
+     *
+     * @param name (String): The name of the task, used as the name of its thread.
+     * @param task (Runnable): The task to be run.
+     */
+    public static void RunAtShutdown(String name, Runnable task) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try { task.run(); }
+            catch (Exception e) { e.printStackTrace(); }
+        }, name));
+    }
+}
@@ -1,9 +1,13 @@
 package Utility;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Hashtable;
 
@@ -47,8 +51,8 @@ public abstract class JsonUtils {
     // Read a JSON file by its path/directory
     public static Object ReadJsonFile(String directory) {
         JSONParser jsonParser = new JSONParser();
-        try {
-            Object obj = jsonParser.parse(new FileReader(directory));
+        try (Reader reader = JsonUtils.OpenReader(directory)) {
+            Object obj = jsonParser.parse(reader);
             return obj;
         } catch (IOException | ParseException e) {
             e.printStackTrace();
@@ -56,6 +60,15 @@ public abstract class JsonUtils {
         return null;
     }
 
+    private static Reader OpenReader(String directory) throws IOException {
+        // A file which is moved to the cold-tier archive (see SegmentArchive.java) is read from there.
+        if (directory != null && !new File(directory).exists()) {
+            byte[] archived = SegmentArchive.GetDefaultArchive().Read(directory);
+            if (archived != null) { return new StringReader(new String(archived, StandardCharsets.UTF_8)); }
+        }
+        return new FileReader(directory);
+    }
+
     public static JSONArray ReadJsonFileAsArray(String directory) { return (JSONArray) ReadJsonFile(directory); }
 
     public static JSONObject ReadJsonFileAsObject(String directory) { return (JSONObject) ReadJsonFile(directory); }
@@ -114,7 +127,7 @@ public abstract class JsonUtils {
         JSONObject jsonObject = new JSONObject();
         for (String key : data.keySet()) {
             Object value = data.get(key);
-            jsonObject.put(key, value);
+            jsonObject.put(key, JsonUtils.CastValueToJson(value));
         } 
         if (name == null) { return jsonObject; }
 
@@ -123,6 +136,25 @@ public abstract class JsonUtils {
         return JsonObjectWrapper;
     }
 
+    /**
+     * The JSON-simple library does not know how to write a Java array (i.e the String[] used in
+     * every room/treatment pool), so it would be written as "[Ljava.lang.String;@...". This 
+     * function will convert the array (and the nested arrays) into a list before writing, which
+     * is written as a JSON array (see JSONValue.writeJSONString()).
+     * 
+     * @param value (Object): The value you want to write.
+     * @return Object
+     **/
+    public static Object CastValueToJson(Object value) {
+        if (value instanceof Object[]) {
+            Object[] items = (Object[]) value;
+            ArrayList<Object> list = new ArrayList<Object>(items.length);
+            for (Object item : items) { list.add(JsonUtils.CastValueToJson(item)); }
+            return list;
+        }
+        return value;
+    }
+
     public static JSONArray CastArrayListToJsonArray(ArrayList<Object> data) {
         JSONArray jsonArray = new JSONArray();
         for (Object item : data) {
@@ -0,0 +1,257 @@
+package Utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is the cold-tier archive of the project: many small files are packed into a few large,
+ * compressed segment files "[directory]/Segment-000000.arc". Each file is compressed on its own
+ * (java.util.zip.Deflater), so reading one file back is one positional read and one inflation,
+ * without touching the other files of the segment.
+ *
+ * The archived files are found by the index "[directory]/Archive.index", which is an append-only log
+ * (see WriteAheadLog.java) of {Path, Segment, Offset, Length, RawLength, CRC32}. It is loaded into a
+ * hash map when the archive is opened. The segments are immutable: the new files are only appended
+ * to the last segment, and a new segment is started when it reached 64 MB.
+ *
+ * A batch of files is made durable in two steps: the compressed files are written to the segment and
+ * forced to the disk, then their index records are appended and synced. A crash in between leaves
+ * some unreferenced bytes at the end of the segment, which are harmless.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/util/zip/Deflater.html
+ * 2) https://en.wikipedia.org/wiki/Log-structured_merge-tree
+**/
+
+public class SegmentArchive {
+    private static final String DEFAULT_DIRECTORY = "database/Archive/";
+    private static final String INDEX_FILE = "Archive.index";
+    private static final String PUT_RECORD = "PUT";
+    private static final long SEGMENT_SIZE = 64L << 20;
+    private static volatile SegmentArchive DefaultArchive = null;
+
+    private static class ArchivedFile {
+        private final int segment;
+        private final long offset;
+        private final int length, RawLength;
+        private final int checksum;
+
+        private ArchivedFile(int segment, long offset, int length, int RawLength, int checksum) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.RawLength = RawLength;
+            this.checksum = checksum;
+        }
+    }
+
+    private final File directory;
+    private final ConcurrentHashMap<String, ArchivedFile> files = new ConcurrentHashMap<String, ArchivedFile>();
+    private final ConcurrentHashMap<Integer, FileChannel> readers = new ConcurrentHashMap<Integer, FileChannel>();
+    private WriteAheadLog index = null;                         // Guarded by "this"; opened at the first PutAll()
+    private int LastSegment = 0;                                // Guarded by "this"
+
+    public SegmentArchive(String directory) throws IOException {
+        DataUtils.CheckArgumentCondition(directory != null, "The directory of the archive cannot be null.");
+        this.directory = new File(directory);
+        // A missing archive is not created until a file is archived, so reading never creates the folder.
+        if (new File(this.directory, INDEX_FILE).exists()) { this.LoadIndex(); }
+    }
+
+    public static SegmentArchive GetDefaultArchive() throws IOException {
+        if (SegmentArchive.DefaultArchive == null) {
+            synchronized (SegmentArchive.class) {
+                if (SegmentArchive.DefaultArchive == null) {
+                    SegmentArchive.DefaultArchive = new SegmentArchive(DEFAULT_DIRECTORY);
+                }
+            }
+        }
+        return SegmentArchive.DefaultArchive;
+    }
+
+    public static String GetDefaultDirectory() { return SegmentArchive.DEFAULT_DIRECTORY; }
+
+    public static String NormalizePath(String path) {
+        // The same file can be referred as "a//b.json" or "./a/b.json", so the index keys are normalized.
+        return Paths.get(path).normalize().toString().replace('\\', '/');
+    }
+
+    public String GetDirectory() { return this.directory.getPath(); }
+    public int GetNumberOfFiles() { return this.files.size(); }
+    public synchronized int GetNumberOfSegments() { return this.files.isEmpty() ? 0 : this.LastSegment + 1; }
+    public boolean Contains(String path) { return path != null && this.files.containsKey(SegmentArchive.NormalizePath(path)); }
+
+    public List<String> GetPathsWithPrefix(String prefix) {
+        String normalized = SegmentArchive.NormalizePath(prefix);
+        ArrayList<String> paths = new ArrayList<String>();
+        for (String path : this.files.keySet()) {
+            if (path.startsWith(normalized)) { paths.add(path); }
+        }
+        return paths;
+    }
+
+    private File GetSegmentFile(int segment) { return new File(this.directory, String.format("Segment-%06d.arc", segment)); }
+
+    private synchronized void LoadIndex() throws IOException {
+        if (this.index != null) { return ; }
+        this.index = new WriteAheadLog(new File(this.directory, INDEX_FILE).getPath());
+        for (String[] record : this.index.ReadAll()) {
+            if (record.length < 7 || !PUT_RECORD.equals(record[0])) { continue; }
+            ArchivedFile file = new ArchivedFile(Integer.parseInt(record[2]), Long.parseLong(record[3]), Integer.parseInt(record[4]),
+                                                 Integer.parseInt(record[5]), Integer.parseInt(record[6]));
+            this.files.put(record[1], file);
+            this.LastSegment = Math.max(this.LastSegment, file.segment);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Writer
+    private static byte[] Compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) { output.write(buffer, 0, deflater.deflate(buffer)); }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * This function archives a batch of files. When it returns, all of them are durable and readable.
+     * A file which is archived again is replaced by its newer content.
+     * @param contents (Map<String, byte[]>): The path of each file mapped to its content.
+     * @return (int) The number of archived files.
+     */
+    public synchronized int PutAll(Map<String, byte[]> contents) throws IOException {
+        if (contents.isEmpty()) { return 0; }
+        this.directory.mkdirs();
+        this.LoadIndex();
+
+        ArrayList<String> paths = new ArrayList<String>(contents.size());
+        ArrayList<ArchivedFile> archived = new ArrayList<ArchivedFile>(contents.size());
+        File segment = this.GetSegmentFile(this.LastSegment);
+        if (segment.length() >= SEGMENT_SIZE) { segment = this.GetSegmentFile(++this.LastSegment); }
+
+        // Step 01: Write the compressed files into the last segment
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = channel.size();
+            for (Entry<String, byte[]> entry : contents.entrySet()) {
+                byte[] raw = entry.getValue();
+                CRC32 crc = new CRC32();
+                crc.update(raw);
+                ByteBuffer compressed = ByteBuffer.wrap(SegmentArchive.Compress(raw));
+                int length = compressed.remaining();
+                while (compressed.hasRemaining()) { offset += channel.write(compressed, offset); }
+
+                paths.add(SegmentArchive.NormalizePath(entry.getKey()));
+                archived.add(new ArchivedFile(this.LastSegment, offset - length, length, raw.length, (int) crc.getValue()));
+            }
+            channel.force(false);
+        }
+
+        // Step 02: Make them visible through the index
+        long last = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            ArchivedFile file = archived.get(i);
+            last = this.index.Append(PUT_RECORD, paths.get(i), Integer.toString(file.segment), Long.toString(file.offset),
+                                     Integer.toString(file.length), Integer.toString(file.RawLength), Integer.toString(file.checksum));
+        }
+        this.index.Sync(last);
+        for (int i = 0; i < paths.size(); i++) { this.files.put(paths.get(i), archived.get(i)); }
+        return paths.size();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Reader
+    private FileChannel GetReader(int segment) throws IOException {
+        FileChannel channel = this.readers.get(segment);
+        if (channel != null) { return channel; }
+        synchronized (this.readers) {
+            channel = this.readers.get(segment);
+            if (channel == null) {
+                channel = FileChannel.open(this.GetSegmentFile(segment).toPath(), StandardOpenOption.READ);
+                this.readers.put(segment, channel);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * This function reads an archived file back.
+     * @param path (String): The path of the file when it was archived.
+     * @return (byte[]) The content of the file, or null if the file is not archived.
+     * @throws IOException If the archived file is corrupted.
+     */
+    public byte[] Read(String path) throws IOException {
+        if (path == null) { return null; }
+        ArchivedFile file = this.files.get(SegmentArchive.NormalizePath(path));
+        if (file == null) { return null; }
+
+        ByteBuffer compressed = ByteBuffer.allocate(file.length);
+        FileChannel channel = this.GetReader(file.segment);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, file.offset + compressed.position()) < 0) { break; }
+        }
+
+        byte[] raw = new byte[file.RawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, compressed.position());
+            int count = 0;
+            while (count < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, count, raw.length - count);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) { break; }
+                count += n;
+            }
+            if (count != raw.length) { throw new IOException("The archived file is truncated: " + path); }
+        } catch (DataFormatException e) {
+            throw new IOException("The archived file is corrupted: " + path, e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        if ((int) crc.getValue() != file.checksum) { throw new IOException("The checksum of the archived file is mismatched: " + path); }
+        return raw;
+    }
+
+    public synchronized void Close() throws IOException {
+        synchronized (this.readers) {
+            for (FileChannel channel : this.readers.values()) { channel.close(); }
+            this.readers.clear();
+        }
+        if (this.index != null) { this.index.Close(); this.index = null; }
+    }
+}
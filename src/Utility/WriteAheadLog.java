@@ -0,0 +1,205 @@
+package Utility;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Copyright (C) 2022-2022, HDM-Dev Team
+ * All Rights Reserved
+ *
+ * This file is part of HDM-Dev Team's project. The contents are
+ * fully covered, controlled, and acknowledged by the terms of the
+ * BSD-3 license, which is included in the file LICENSE.md, found
+ * at the root of the project's source code/tree repository.
+**/
+
+/**
+ * This class is a simple append-only (write-ahead) log file. Each record is a list of String fields,
+ * which is stored as [length: int] [CRC32: int] [payload: "length" bytes]. When the log is read back,
+ * it stops at the first torn or corrupted record, which is the tail written during a crash.
+ *
+ * To sustain the high throughput, the durability is done by "group commit": Append() only writes the
+ * record to the file, and Sync() forces the file to the disk. When many threads are syncing at the
+ * same time, one force() covers all records appended before it, so the others return immediately.
+ *
+ * @author Ichiru Take
+ * @version 0.0.1
+ *
+ * References:
+ * 1) https://docs.oracle.com/javase/8/docs/api/java/nio/channels/FileChannel.html#force-boolean-
+**/
+
+public class WriteAheadLog {
+    private final File file;
+    private final Object SyncLock = new Object();
+    private RandomAccessFile handle;                // Guarded by "this"
+    private FileChannel channel;                    // Guarded by "this"
+    private long AppendedSequence = 0;              // Guarded by "this"
+    private volatile long DurableSequence = 0;
+
+    public WriteAheadLog(String directory) throws IOException {
+        DataUtils.CheckArgumentCondition(directory != null, "The directory of the log cannot be null.");
+        this.file = new File(directory);
+        if (this.file.getParentFile() != null) { this.file.getParentFile().mkdirs(); }
+        this.Open();
+    }
+
+    private void Open() throws IOException {
+        // The torn tail (if any) is cut off, so the new records are not appended behind it.
+        this.handle = new RandomAccessFile(this.file, "rw");
+        this.channel = this.handle.getChannel();
+        long end = this.ReadRecords(null);
+        if (end < this.channel.size()) { this.channel.truncate(end); }
+        this.channel.position(end);
+    }
+
+    public String GetDirectory() { return this.file.getPath(); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Writer
+    /**
+     * This function appends a record to the end of the log (not yet durable, see Sync()).
+     * @param fields (String[]): The fields of the record; a null field is stored as an empty string.
+     * @return (long) The sequence number of the record, which is used by Sync().
+     */
+    public long Append(String... fields) throws IOException {
+        ByteBuffer record = WriteAheadLog.EncodeRecord(fields);
+        synchronized (this) {
+            while (record.hasRemaining()) { this.channel.write(record); }
+            return ++this.AppendedSequence;
+        }
+    }
+
+    public void Sync(long sequence) throws IOException {
+        if (this.DurableSequence >= sequence) { return ; }
+        synchronized (this.SyncLock) {
+            if (this.DurableSequence >= sequence) { return ; }           // Covered by another thread's force()
+            long target;
+            FileChannel current;
+            synchronized (this) { target = this.AppendedSequence; current = this.channel; }
+            current.force(false);
+            this.DurableSequence = target;
+        }
+    }
+
+    public void AppendAndSync(String... fields) throws IOException { this.Sync(this.Append(fields)); }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Reader & Truncation
+    public synchronized List<String[]> ReadAll() throws IOException {
+        ArrayList<String[]> records = new ArrayList<String[]>();
+        this.ReadRecords(records);
+        return records;
+    }
+
+    private long ReadRecords(List<String[]> records) throws IOException {
+        return WriteAheadLog.ReadRecords(this.channel, 0, records);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------------
+    // Record Format (shared with the other append-only files, i.e DescriptionLog)
+    public static ByteBuffer EncodeRecord(String... fields) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(buffer);
+        payload.writeInt(fields.length);
+        for (String field : fields) { payload.writeUTF(field == null ? "" : field); }
+        payload.flush();
+
+        byte[] data = buffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer record = ByteBuffer.allocate(8 + data.length);
+        record.putInt(data.length).putInt((int) crc.getValue()).put(data).flip();
+        return record;
+    }
+
+    public static long ReadRecords(FileChannel channel, long position, List<String[]> records) throws IOException {
+        return WriteAheadLog.ReadRecords(channel, position, records, Integer.MAX_VALUE);
+    }
+
+    /**
+     * This function reads the records of a log file, starting at a record boundary.
+     * @param channel (FileChannel): The opened log file.
+     * @param position (long): The position to start reading (0 or a value returned by this function).
+     * @param records (List<String[]>): The output of the records (null to only validate the file).
+     * @param MaxRecords (int): The maximum number of records to read.
+     * @return (long) The end position of the last valid record which has been read.
+     */
+    public static long ReadRecords(FileChannel channel, long position, List<String[]> records, int MaxRecords) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(8);
+
+        for (int count = 0; count < MaxRecords && position + 8 <= size; count++) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt(), checksum = header.getInt();
+            if (length < 0 || position + 8 + length > size) { break; }         // Torn record
+
+            ByteBuffer data = ByteBuffer.allocate(length);
+            channel.read(data, position + 8);
+            CRC32 crc = new CRC32();
+            crc.update(data.array());
+            if ((int) crc.getValue() != checksum) { break; }                    // Corrupted record
+
+            if (records != null) { records.add(WriteAheadLog.DecodePayload(data.array())); }
+            position += 8 + length;
+        }
+        return position;
+    }
+
+    /**
+     * This function reads the records of a log which is held in memory (i.e a log read back from the
+     * archive, see SegmentArchive.java), with the same rules as the reader of a log file.
+     * @param log (byte[]): The content of the log.
+     * @param position (int): The position to start reading (0 or a value returned by this function).
+     * @param records (List<String[]>): The output of the records (null to only validate the log).
+     * @return (int) The end position of the last valid record which has been read.
+     */
+    public static int ReadRecords(byte[] log, int position, List<String[]> records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(log);
+        while (position + 8 <= log.length) {
+            int length = buffer.getInt(position), checksum = buffer.getInt(position + 4);
+            if (length < 0 || position + 8 + length > log.length) { break; }     // Torn record
+
+            CRC32 crc = new CRC32();
+            crc.update(log, position + 8, length);
+            if ((int) crc.getValue() != checksum) { break; }                    // Corrupted record
+
+            if (records != null) { records.add(WriteAheadLog.DecodePayload(Arrays.copyOfRange(log, position + 8, position + 8 + length))); }
+            position += 8 + length;
+        }
+        return position;
+    }
+
+    private static String[] DecodePayload(byte[] data) throws IOException {
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(data));
+        String[] fields = new String[payload.readInt()];
+        for (int i = 0; i < fields.length; i++) { fields[i] = payload.readUTF(); }
+        return fields;
+    }
+
+    public synchronized void Truncate() throws IOException {
+        // All records are dropped (i.e after a checkpoint has made them redundant).
+        this.channel.truncate(0);
+        this.channel.position(0);
+        this.channel.force(true);
+        this.DurableSequence = this.AppendedSequence;
+    }
+
+    public synchronized void Close() throws IOException {
+        this.channel.force(true);
+        this.handle.close();
+    }
+}